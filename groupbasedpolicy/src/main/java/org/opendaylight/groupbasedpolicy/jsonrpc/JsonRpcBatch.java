@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.util.CharsetUtil;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * A JSON RPC 2.0 style batch: an array of messages framed off the wire
+ * together. Each message is a {@link JsonRpcFrame} over its slice of the
+ * batch.
+ *
+ * The batch holds the only reference to the underlying buffer, which the
+ * frames share; the frames mustn't be used once the batch is released.
+ */
+public class JsonRpcBatch extends DefaultByteBufHolder {
+
+    private final List<JsonRpcFrame> frames;
+
+    public JsonRpcBatch(ByteBuf data, List<JsonRpcFrame> frames) {
+        super(data);
+        this.frames = Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * @return The messages in the batch, in the order they were sent
+     */
+    public List<JsonRpcFrame> getFrames() {
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return content().toString(CharsetUtil.UTF_8);
+    }
+}
@@ -11,12 +11,14 @@ package org.opendaylight.groupbasedpolicy.jsonrpc;
 
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufProcessor;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.TooLongFrameException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -24,22 +26,23 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.io.IOContext;
 import com.fasterxml.jackson.core.json.ByteSourceJsonBootstrapper;
 import com.fasterxml.jackson.core.util.BufferRecycler;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 
 /**
  * JSON RPC 1.0 compatible decoder capable of decoding JSON messages from a TCP stream.
  * The stream is framed first by inspecting the json for valid end marker (left curly)
- * and is passed to a Json parser (jackson) for converting into an object model.
+ * and each frame is passed on as a {@link JsonRpcFrame}, with just the fields needed
+ * to dispatch it parsed. JSON RPC 2.0 style batches, arrays of messages framed by
+ * brackets, are passed on as a {@link JsonRpcBatch} of frames, one per message.
  *
- * There are no JSON parsers that I am aware of that does non blocking parsing.
- * This approach avoids having to run json parser over and over again on the entire
- * stream waiting for input. Parser is invoked only when we know of a full JSON message
- * in the stream.
+ * Framing is incremental: the state of the scan (nesting depth, whether we are
+ * inside a string and whether the previous character was an escape) is kept
+ * between calls, so each byte of the stream is examined exactly once no matter
+ * how the frame is split across reads. The frame shares the buffer rather than
+ * copying it out, and is bound to its message class later, in a single pass.
  */
 public class JsonRpcDecoder extends ByteToMessageDecoder {
 
@@ -51,11 +54,11 @@ public class JsonRpcDecoder extends ByteToMessageDecoder {
 
     private IOContext jacksonIOContext = new IOContext(new BufferRecycler(), null, false);
 
+    private final FrameScanner scanner = new FrameScanner();
+
     // context for the previously read incomplete records
     private int lastRecordBytes = 0;
-    private int leftCurlies = 0;
-    private int rightCurlies = 0;
-    private boolean inS = false;
+    private boolean discarding = false;
 
     private int recordsRead;
 
@@ -69,13 +72,12 @@ public class JsonRpcDecoder extends ByteToMessageDecoder {
         logger.trace("readable bytes {}, records read {}, incomplete record bytes {}",
                 buf.readableBytes(), recordsRead, lastRecordBytes);
 
-        if (lastRecordBytes == 0) {
+        if (lastRecordBytes == 0 && !discarding) {
+            skipSpaces(buf);
             if (buf.readableBytes() < 4) {
                 return; //wait for more data
             }
 
-            skipSpaces(buf);
-
             byte[] buff = new byte[4];
             buf.getBytes(buf.readerIndex(), buff);
             ByteSourceJsonBootstrapper strapper = new ByteSourceJsonBootstrapper(jacksonIOContext, buff, 0, 4);
@@ -85,57 +87,70 @@ public class JsonRpcDecoder extends ByteToMessageDecoder {
             }
         }
 
-        int i = lastRecordBytes + buf.readerIndex();
+        int start = buf.readerIndex();
+        int from = start + lastRecordBytes;
+        int end = buf.forEachByte(from, buf.writerIndex() - from, scanner);
 
-        for (; i < buf.writerIndex(); i++) {
-            switch (buf.getByte(i)) {
-                case '{':
-                    if (!inS) leftCurlies++;
-                    break;
-                case '}':
-                    if (!inS) rightCurlies++;
-                    break;
-                case '"': {
-                    if (buf.getByte(i - 1) != '\\') inS = !inS;
-                    break;
-                }
-                default:
-                    break;
+        if (end < 0) {
+            // end of stream, save the incomplete record index to avoid
+            // reexamining the whole on next run
+            lastRecordBytes = buf.readableBytes();
+            if (discarding) {
+                buf.skipBytes(lastRecordBytes);
+                lastRecordBytes = 0;
+            } else if (lastRecordBytes > maxFrameLength) {
+                fail(ctx, lastRecordBytes);
+                discarding = true;
+                buf.skipBytes(lastRecordBytes);
+                lastRecordBytes = 0;
             }
+            return;
+        }
 
-            if (leftCurlies != 0 && leftCurlies == rightCurlies && !inS) {
-                ByteBuf slice = buf.readSlice(1 + i - buf.readerIndex());
-                JsonParser jp = jacksonJsonFactory.createParser(new ByteBufInputStream(slice));
-                JsonNode root = jp.readValueAsTree();
-                out.add(root);
-                leftCurlies = rightCurlies = lastRecordBytes = 0;
-                recordsRead++;
-                break;
-            }
+        int frameLength = 1 + end - start;
+        boolean eom = scanner.isEom();
+        int[] elements = scanner.isBatch() ? scanner.getElements() : null;
+        scanner.reset();
+        lastRecordBytes = 0;
 
-            if (isEom(buf.getByte(i) & 0xFF)) {
-                // Dump up to this point in the buffer
-                buf.readerIndex(1 + i);
-                leftCurlies = rightCurlies = lastRecordBytes = 0;
-                ctx.fireChannelReadComplete();
-            }
-            else if (i - buf.readerIndex() >= maxFrameLength) {
-                fail(ctx, i - buf.readerIndex());
-            }
+        if (eom || discarding) {
+            // Dump up to this point in the buffer
+            buf.skipBytes(frameLength);
+            discarding = false;
+            if (eom) ctx.fireChannelReadComplete();
+            return;
         }
-
-        // end of stream, save the incomplete record index to avoid reexamining the whole on next run
-        if (i >= buf.writerIndex()) {
-            lastRecordBytes = buf.readableBytes();
+        if (frameLength > maxFrameLength) {
+            fail(ctx, frameLength);
+            buf.skipBytes(frameLength);
             return;
         }
+
+        ByteBuf frame = buf.slice(start, frameLength);
+        Object message;
+        if (elements != null) {
+            // the elements are slices of the batch frame, and share its
+            // reference
+            List<JsonRpcFrame> frames = new ArrayList<JsonRpcFrame>(elements.length / 2);
+            for (int i = 0; i < elements.length; i += 2) {
+                frames.add(JsonRpcFrame.peek(jacksonJsonFactory,
+                        frame.slice(elements[i], elements[i + 1] - elements[i])));
+            }
+            message = new JsonRpcBatch(frame, frames);
+        } else {
+            message = JsonRpcFrame.peek(jacksonJsonFactory, frame);
+        }
+        frame.retain();
+        buf.skipBytes(frameLength);
+        out.add(message);
+        recordsRead++;
     }
 
     public int getRecordsRead() {
         return recordsRead;
     }
 
-    private static boolean isEom(int ch) throws IOException {
+    private static boolean isEom(int ch) {
         if (ch == '\0') {
             return true;
         }
@@ -166,5 +181,102 @@ public class JsonRpcDecoder extends ByteToMessageDecoder {
                                     " - discarding"));
         }
     }
-}
 
+    /**
+     * Scans the stream for the end of a frame, one byte at a time.  The scan
+     * stops on the closing curly or bracket of the outermost object or batch,
+     * or on an end of message marker. The offsets of the objects in a batch
+     * are recorded on the way, so the batch needn't be scanned again to
+     * split it.
+     */
+    private static class FrameScanner implements ByteBufProcessor {
+        private int depth = 0;
+        private boolean inString = false;
+        private boolean escaped = false;
+        private boolean eom = false;
+        private boolean batch = false;
+
+        // offset of the next byte from the start of the frame
+        private int position = 0;
+        private int elementStart = 0;
+        // start and end offsets of each object in a batch
+        private int[] elements = new int[16];
+        private int elementCount = 0;
+
+        @Override
+        public boolean process(byte value) throws Exception {
+            int offset = position++;
+            if (isEom(value & 0xFF)) {
+                eom = true;
+                return false;
+            }
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (value == '\\') {
+                    escaped = true;
+                } else if (value == '"') {
+                    inString = false;
+                }
+                return true;
+            }
+            switch (value) {
+                case '"':
+                    inString = true;
+                    break;
+                case '[':
+                    if (depth == 0) batch = true;
+                    depth++;
+                    break;
+                case '{':
+                    if (batch && depth == 1) elementStart = offset;
+                    depth++;
+                    break;
+                case ']':
+                    if (depth > 0 && --depth == 0) return false;
+                    break;
+                case '}':
+                    if (depth > 0 && --depth == 0) return false;
+                    if (batch && depth == 1) addElement(elementStart, offset + 1);
+                    break;
+                default:
+                    break;
+            }
+            return true;
+        }
+
+        private void addElement(int start, int end) {
+            if (elementCount + 2 > elements.length) {
+                elements = Arrays.copyOf(elements, elements.length * 2);
+            }
+            elements[elementCount++] = start;
+            elements[elementCount++] = end;
+        }
+
+        public boolean isEom() {
+            return eom;
+        }
+
+        public boolean isBatch() {
+            return batch;
+        }
+
+        /**
+         * @return The start and end offsets of the objects in the batch,
+         *         relative to the start of the frame
+         */
+        public int[] getElements() {
+            return Arrays.copyOf(elements, elementCount);
+        }
+
+        public void reset() {
+            depth = 0;
+            inString = false;
+            escaped = false;
+            eom = false;
+            batch = false;
+            position = 0;
+            elementCount = 0;
+        }
+    }
+}
@@ -10,14 +10,57 @@
  */
 package org.opendaylight.groupbasedpolicy.jsonrpc;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.CharsetUtil;
 
-import java.util.List;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * JSON RPC 1.0 compatible encoder. Outbound message objects, such as
+ * {@link RpcMessage}s, are serialized by Jackson straight into the buffer
+ * that is written to the channel, followed by the NUL character that
+ * terminates each message on the wire. The buffer comes from the channel's
+ * allocator, and is a direct buffer where possible. A list of messages
+ * is serialized as a JSON array, which is how batches are sent.
+ *
+ * Strings are written as-is, with the terminator appended, and buffers
+ * are passed through untouched.
+ */
+public class JsonRpcEncoder extends MessageToByteEncoder<Object> {
+
+    private static final int EOM = '\0';
+
+    private final ObjectWriter writer;
+
+    public JsonRpcEncoder() {
+        this(new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS));
+    }
+
+    public JsonRpcEncoder(ObjectMapper objectMapper) {
+        super(true);
+        this.writer = objectMapper.writer();
+    }
 
-public class JsonRpcEncoder extends MessageToMessageEncoder<Object> {
     @Override
-    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return !(msg instanceof ByteBuf || msg instanceof ByteBufHolder);
+    }
 
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        if (msg instanceof CharSequence) {
+            out.writeBytes(msg.toString().getBytes(CharsetUtil.UTF_8));
+        } else {
+            writer.writeValue((OutputStream) new ByteBufOutputStream(out), msg);
+        }
+        out.writeByte(EOM);
     }
 }
@@ -13,17 +13,41 @@ package org.opendaylight.groupbasedpolicy.jsonrpc;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
-
-import java.util.Map;
-import java.util.UUID;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Maps;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.SettableFuture;
 
 /**
@@ -33,9 +57,32 @@ import com.google.common.util.concurrent.SettableFuture;
  * possible role that the JSONRPC endpoint can serve is to keep a long-lived
  * notion of a client, while maintaining connectivity as it comes and goes.
  *
- * TODO: The current implementation uses Jackson Full data binding serialization,
- * using JSON that has already been parsed using Jackson's Tree Model.
- * This will be changed to streaming-mode serialization later.
+ * Incoming messages arrive as {@link JsonRpcFrame}s, which only have the
+ * method and id parsed. The rest of the message is bound directly into
+ * the concrete {@link RpcMessage} class registered for the method, using
+ * an {@link ObjectReader} that is cached for each class.
+ *
+ * Outstanding requests are kept in a table keyed by an id that increases
+ * for each request sent on the endpoint. Entries are removed when the
+ * response arrives, when the request times out, or when the channel closes,
+ * failing the caller's future in the latter two cases.
+ *
+ * Outbound messages are written to the channel without flushing it. A
+ * single flush is scheduled on the channel's event loop for all the
+ * messages written until it runs, unless enough messages or bytes are
+ * queued to flush right away, so a burst of messages costs a few
+ * system calls rather than one each. Producers that can block can use
+ * {@link #awaitWritable(long, TimeUnit)} to hold off while the socket
+ * can't keep up.
+ *
+ * JSON RPC 2.0 style batches are supported both ways. The requests in an
+ * incoming {@link JsonRpcBatch} are dispatched one by one, and their
+ * responses are collected into a single array that is sent once the last
+ * of them is in, or once the request timeout expires. Each request from a
+ * batch is dispatched with its own copy of the peer's id, so that only
+ * the responses to that request are collected, even if another request
+ * uses the same id. Several requests can be sent as one batch with
+ * {@link #sendRequests(List)}.
  *
  * @author tbachman
  *
@@ -44,9 +91,36 @@ public class JsonRpcEndpoint implements ChannelFutureListener {
 
     protected static final Logger logger = LoggerFactory.getLogger(JsonRpcEndpoint.class);
 
+    /**
+     * The default time to wait for a response to a request, in milliseconds
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+
+    /**
+     * The default number of messages that can be written before the
+     * channel is flushed without waiting for the event loop
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 64;
+
+    /*
+     * One timer thread serves the request timeouts for every endpoint. The
+     * timeouts only need to be roughly accurate, so a coarse tick is used.
+     */
+    private static final Timer timer =
+            new HashedWheelTimer(new DefaultThreadFactory("jsonrpc-timeout", true),
+                    100, TimeUnit.MILLISECONDS);
+
+    /*
+     * Messages are traced as JSON text whatever the endpoint's encoding,
+     * since binary mappers can't write to a string
+     */
+    private static final ObjectMapper traceMapper =
+            RpcSerialization.JSON.createObjectMapper();
+
     private static class CallContext {
         private String method;
         private SettableFuture<Object> future;
+        private Timeout timeout;
 
         public CallContext(String method, SettableFuture<Object> future) {
             this.method = method;
@@ -60,14 +134,44 @@ public class JsonRpcEndpoint implements ChannelFutureListener {
         public SettableFuture<Object> getFuture() {
             return future;
         }
+
+        public void setTimeout(Timeout timeout) {
+            this.timeout = timeout;
+        }
+
+        public void cancelTimeout() {
+            Timeout t = timeout;
+            if (t != null) t.cancel();
+        }
     }
 
     private String identifier;
     private Object context;
     private ObjectMapper objectMapper;
     private Channel nettyChannel;
-    private Map<String, CallContext> methodContext = Maps.newHashMap();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ConcurrentMap<Long, CallContext> pendingCalls =
+            new ConcurrentHashMap<Long, CallContext>();
+    private final AtomicLong completedRequests = new AtomicLong();
+    private final AtomicLong timedOutRequests = new AtomicLong();
+    private volatile long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private volatile int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+    private final AtomicInteger unflushed = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+    private final Object writableLock = new Object();
+    // keyed by the identity of the id given to each dispatched request
+    private final ConcurrentMap<JsonNode, BatchReply> batchReplies =
+            new MapMaker().weakKeys().makeMap();
     private RpcMessageMap messageMap;
+    private ConcurrentMap<Class<?>, ObjectReader> readers =
+            new ConcurrentHashMap<Class<?>, ObjectReader>();
     private RpcBroker broker;
     private ConnectionService connectionService;
 
@@ -98,6 +202,134 @@ public class JsonRpcEndpoint implements ChannelFutureListener {
         return nettyChannel;
     }
 
+    /**
+     * Set how long to wait for the response to a request before failing
+     * it with a {@link TimeoutException}
+     *
+     * @param requestTimeout The timeout in milliseconds, or 0 to wait forever.
+     *        The reply to an incoming batch is always sent after at most
+     *        {@link #DEFAULT_REQUEST_TIMEOUT} when waiting forever.
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * @return The number of requests still waiting for a response
+     */
+    public int getPendingRequests() {
+        return pendingCalls.size();
+    }
+
+    /**
+     * @return The number of requests that got a response
+     */
+    public long getCompletedRequests() {
+        return completedRequests.get();
+    }
+
+    /**
+     * @return The number of requests that timed out waiting for a response
+     */
+    public long getTimedOutRequests() {
+        return timedOutRequests.get();
+    }
+
+    /**
+     * Set how many messages can be written before the channel is flushed
+     * right away, rather than on the next run of the event loop
+     *
+     * @param flushThreshold The number of messages, or 1 to flush every
+     *        message
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = Math.max(1, flushThreshold);
+    }
+
+    /**
+     *
+     * Wait until the channel can take more messages without queueing
+     * them past its write buffer high water mark. This never blocks on
+     * the channel's own event loop.
+     *
+     * @param timeout The longest time to wait
+     * @param unit The unit of the timeout
+     * @return true if the channel is writable, or has been closed
+     * @throws InterruptedException Interrupted while waiting
+     */
+    public boolean awaitWritable(long timeout, TimeUnit unit) throws InterruptedException {
+        if (nettyChannel.isWritable() || !nettyChannel.isActive()) return true;
+        if (nettyChannel.eventLoop().inEventLoop()) return false;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (writableLock) {
+            while (nettyChannel.isActive() && !nettyChannel.isWritable()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(writableLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notification that the channel's writability changed
+     */
+    public void writabilityChanged() {
+        synchronized (writableLock) {
+            writableLock.notifyAll();
+        }
+    }
+
+    /**
+     * Write a message, and make sure it gets flushed soon. Messages sent
+     * from other threads are handed to the event loop, so that each write
+     * and the scheduling of its flush happen together there, and a
+     * scheduled flush always runs after every write that relies on it.
+     */
+    private ChannelFuture send(final Object message) {
+        final ChannelPromise promise = nettyChannel.newPromise();
+        EventLoop eventLoop = nettyChannel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            write(message, promise);
+        } else {
+            try {
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(message, promise);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                ReferenceCountUtil.release(message);
+                promise.setFailure(e);
+            }
+        }
+        return promise;
+    }
+
+    /**
+     * Write a message on the event loop, and flush it or schedule a flush
+     */
+    private void write(Object message, ChannelPromise promise) {
+        nettyChannel.write(message, promise);
+        if (unflushed.incrementAndGet() >= flushThreshold ||
+                !nettyChannel.isWritable()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            nettyChannel.eventLoop().execute(flushTask);
+        }
+    }
+
+    private void flush() {
+        unflushed.set(0);
+        nettyChannel.flush();
+    }
+
     public JsonRpcEndpoint(String identifier, ConnectionService connectionService,
             ObjectMapper objectMapper, Channel channel,
             RpcMessageMap messageMap, RpcBroker broker) {
@@ -112,75 +344,227 @@ public class JsonRpcEndpoint implements ChannelFutureListener {
     /**
      *
      * Send a concrete {@link RpcMessage} to the RPC endpoint.
+     * The message is serialized by the {@link JsonRpcEncoder} in the
+     * channel's pipeline.
      *
      * @param message The concrete {@link RpcMessage} to send
      * @return SettableFuture<Object> The caller can use the returned
-     * object to wait for the response (currently no timeout)
-     * @throws Throwable The concrete message couldn't be serialized and sent
+     * object to wait for the response. If the message can't be serialized
+     * or written, or there's no response within the request timeout, the
+     * future fails.
+     * @throws Throwable The concrete message couldn't be sent
      */
     public SettableFuture<Object> sendRequest(RpcMessage message) throws Throwable {
         if (messageMap.get(message.getName()) == null) {
                 return null;
         }
-        JsonNode jn = objectMapper.getNodeFactory().textNode(UUID.randomUUID().toString());
-        message.setId(jn);
-
-        String s = objectMapper.writeValueAsString(message) + "\0";
-        logger.trace("invoke: {}", s);
+        final SettableFuture<Object> sf = SettableFuture.create();
+        final Long id = addPendingCall(message, sf);
 
-        SettableFuture<Object> sf = SettableFuture.create();
-        methodContext.put(message.getId().asText(), new CallContext(message.getName(), sf));
+        if (logger.isTraceEnabled()) {
+            logger.trace("invoke: {}", traceMapper.writeValueAsString(message));
+        }
 
-        nettyChannel.writeAndFlush(s);
+        send(message).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    failPendingCall(id, future.cause());
+                }
+            }
+        });
 
         return sf;
     }
 
+    /**
+     *
+     * Send several {@link RpcMessage} requests to the RPC endpoint as
+     * a single batch. The responses are matched to the requests by id,
+     * whether the peer answers with a batch or one response at a time.
+     *
+     * @param messages The concrete {@link RpcMessage}s to send
+     * @return A future for the response to each message, in the same
+     * order as the messages. The future is null for messages that aren't
+     * in the endpoint's message map, which aren't sent.
+     * @throws Throwable The messages couldn't be sent
+     */
+    public List<SettableFuture<Object>> sendRequests(List<? extends RpcMessage> messages)
+            throws Throwable {
+        List<SettableFuture<Object>> futures =
+                new ArrayList<SettableFuture<Object>>(messages.size());
+        List<RpcMessage> batch = new ArrayList<RpcMessage>(messages.size());
+        final List<Long> ids = new ArrayList<Long>(messages.size());
+        for (RpcMessage message : messages) {
+            if (messageMap.get(message.getName()) == null) {
+                futures.add(null);
+                continue;
+            }
+            SettableFuture<Object> sf = SettableFuture.create();
+            ids.add(addPendingCall(message, sf));
+            futures.add(sf);
+            batch.add(message);
+        }
+        if (batch.isEmpty()) return futures;
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("invoke: {}", traceMapper.writeValueAsString(batch));
+        }
+
+        send(batch).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    for (Long id : ids) {
+                        failPendingCall(id, future.cause());
+                    }
+                }
+            }
+        });
+
+        return futures;
+    }
+
+    /**
+     * Give a request the next id, and add it to the pending call table,
+     * along with its timeout
+     *
+     * @return The id of the request
+     */
+    private Long addPendingCall(RpcMessage message, final SettableFuture<Object> sf) {
+        final Long id = Long.valueOf(nextRequestId.incrementAndGet());
+        message.setId(objectMapper.getNodeFactory().numberNode(id.longValue()));
+
+        final CallContext cc = new CallContext(message.getName(), sf);
+        pendingCalls.put(id, cc);
+
+        long timeout = requestTimeout;
+        if (timeout > 0) {
+            cc.setTimeout(timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout t) throws Exception {
+                    if (pendingCalls.remove(id, cc)) {
+                        timedOutRequests.incrementAndGet();
+                        sf.setException(new TimeoutException("No response to " +
+                                cc.getMethod() + " request " + id + " from " + identifier));
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS));
+        }
+        return id;
+    }
+
+    private void failPendingCall(Long id, Throwable cause) {
+        CallContext cc = pendingCalls.remove(id);
+        if (cc != null) {
+            cc.cancelTimeout();
+            cc.getFuture().setException(cause);
+        }
+    }
+
     /**
      *
      * Send a response to a previous {@link RpcMessage}request
      *
      * @param message The concrete {@link RpcMessage}
-     * @throws Throwable The concrete message couldn't be serialized and sent
+     * @throws Throwable The concrete message couldn't be sent
      */
     public void  sendResponse (RpcMessage message) throws Throwable {
 
-        String s = objectMapper.writeValueAsString(message) + "\0";
-        logger.trace("sendResponse: {}", s);
+        if (logger.isTraceEnabled()) {
+            logger.trace("sendResponse: {}", traceMapper.writeValueAsString(message));
+        }
+
+        reply(message.getId(), message);
+    }
 
-        nettyChannel.writeAndFlush(s);
+    /**
+     * Send a response, unless it answers a request from a batch, in which
+     * case it's added to the batch's reply
+     */
+    private void reply(JsonNode id, Object response) {
+        if (id != null && !batchReplies.isEmpty()) {
+            BatchReply batch = batchReplies.remove(id);
+            if (batch != null) {
+                batch.add(response);
+                return;
+            }
+        }
+        send(response);
+    }
+
+    /**
+     *
+     * Get the reader used to bind messages of the given class. Readers
+     * are immutable and thread-safe, so one is built per class and kept.
+     *
+     * @param messageClass The concrete {@link RpcMessage} class
+     * @return The {@link ObjectReader}
+     */
+    private ObjectReader getReader(Class<?> messageClass) {
+        ObjectReader reader = readers.get(messageClass);
+        if (reader == null) {
+            reader = objectMapper.reader(messageClass);
+            ObjectReader old = readers.putIfAbsent(messageClass, reader);
+            if (old != null) reader = old;
+        }
+        return reader;
     }
 
     /**
      *
      * Handle an {@link RpcMessage} response from the peer.
      *
-     * @param response A fully parsed Jackson Tree-Mode JsonNode
+     * @param response The framed response, with its id parsed
      * @throws NoSuchMethodException Internal error
      */
-    public void processResult(JsonNode response) throws NoSuchMethodException {
+    public void processResult(JsonRpcFrame response) throws NoSuchMethodException {
 
-        logger.trace("Response : {}", response.toString());
-        CallContext returnCtxt = methodContext.get(response.get("id").asText());
+        logger.trace("Response : {}", response);
+        Long id = getRequestId(response.getId());
+        if (id == null) return;
+        CallContext returnCtxt = pendingCalls.remove(id);
         if (returnCtxt == null) return;
+        returnCtxt.cancelTimeout();
+        completedRequests.incrementAndGet();
         RpcMessage message = messageMap.get(returnCtxt.getMethod());
         if (message != null) {
             try {
-                RpcMessage handler = objectMapper.treeToValue(response, message.getClass());
+                RpcMessage handler = response.readValue(getReader(message.getClass()));
 
-                JsonNode error = response.get("error");
+                JsonNode error = response.getError();
                 if (error != null && !error.isNull()) {
                     logger.error("Error : {}", error.toString());
                 }
 
                 returnCtxt.getFuture().set(handler);
-            } catch (JsonProcessingException  e) {
+            } catch (IOException  e) {
                 logger.error("Unable to handle " + returnCtxt.getMethod(), e);
+                returnCtxt.getFuture().setException(e);
             }
         } else {
-            throw new RuntimeException("The response to " + returnCtxt.getMethod() +
-                    "sent is unsupported");
+            RuntimeException e = new RuntimeException("The response to " +
+                    returnCtxt.getMethod() + "sent is unsupported");
+            returnCtxt.getFuture().setException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the key in the pending call table for the id of a response. Peers
+     * may echo the id back either as a number or as a string.
+     */
+    private static Long getRequestId(JsonNode id) {
+        if (id == null) return null;
+        if (id.isIntegralNumber()) return Long.valueOf(id.asLong());
+        if (id.isTextual()) {
+            try {
+                return Long.valueOf(id.asText());
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
+        return null;
     }
 
     /**
@@ -188,45 +572,198 @@ public class JsonRpcEndpoint implements ChannelFutureListener {
      * Handle incoming {@link RpcMessage} requests. The supported messages
      * are defined by the endpoint's message map.
      *
-     * @param requestJson A Jackson JsonNode that has had full Tree-Mode parsing
+     * @param request The framed request, with its method and id parsed
      */
-    public void processRequest(JsonNode requestJson) {
+    public void processRequest(JsonRpcFrame request) {
+        dispatchRequest(request, request.getId());
+    }
+
+    /**
+     *
+     * Handle a batch of {@link RpcMessage}s from the peer. Responses in
+     * the batch are matched to pending requests, and requests are handled
+     * in order, with their responses sent back together as one batch.
+     *
+     * @param batch The framed batch
+     */
+    public void processBatch(JsonRpcBatch batch) {
+        logger.trace("Batch : {}", batch);
+
+        // The requests are all registered before any is dispatched, so
+        // that responses sent straight from the broker are collected too
+        BatchReply reply = new BatchReply();
+        List<JsonRpcFrame> frames = batch.getFrames();
+        JsonNode[] ids = new JsonNode[frames.size()];
+        for (int i = 0; i < ids.length; i++) {
+            JsonRpcFrame frame = frames.get(i);
+            if (isRequest(frame)) {
+                ids[i] = copyId(frame.getId());
+                // ids that can't be copied get a response of their own
+                if (ids[i] != frame.getId()) reply.expect(ids[i]);
+            }
+        }
+        reply.start();
+
+        for (int i = 0; i < ids.length; i++) {
+            JsonRpcFrame frame = frames.get(i);
+            try {
+                if (frame.isResult()) {
+                    processResult(frame);
+                } else if (ids[i] != null && !dispatchRequest(frame, ids[i])) {
+                    reply.cancel(ids[i]);
+                }
+            } catch (Exception e) {
+                // don't let one bad message drop the rest of the batch
+                logger.error("Unable to handle " + frame + " from batch", e);
+                if (ids[i] != null) {
+                    reply.cancel(ids[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a request id into a new node, which only the request and its
+     * response refer to
+     *
+     * @return The copy, or the id itself if it's a shared constant
+     */
+    private static JsonNode copyId(JsonNode id) {
+        if (id.isTextual()) return new TextNode(id.textValue());
+        if (id.isInt()) return new IntNode(id.intValue());
+        if (id.isLong()) return new LongNode(id.longValue());
+        if (id.isBigInteger()) return new BigIntegerNode(id.bigIntegerValue());
+        if (id.isDouble()) return new DoubleNode(id.doubleValue());
+        if (id.isBigDecimal()) return new DecimalNode(id.decimalValue());
+        return id.deepCopy();
+    }
+
+    private static boolean isRequest(JsonRpcFrame frame) {
+        return !frame.isResult() && frame.getMethod() != null && frame.getId() != null;
+    }
+
+    /**
+     * Dispatch a request to its handler
+     *
+     * @param id The id to give the request, and its response
+     * @return true if the request was handled, and will get a response
+     */
+    private boolean dispatchRequest(JsonRpcFrame request, JsonNode id) {
         RpcMessage message;
-        RpcMessage callback = messageMap.get(requestJson.get("method").asText());
+        RpcMessage callback = messageMap.get(request.getMethod());
         if (callback != null) {
             try {
-                logger.trace("Request : {} {}", requestJson.get("method"), requestJson.get("params"));
+                logger.trace("Request : {}", request);
 
-                message = objectMapper.treeToValue(requestJson, callback.getClass());
-                message.setId(requestJson.get("id"));
+                message = request.readValue(getReader(callback.getClass()));
+                message.setId(id);
 
                 broker.publish(this, message);
-            } catch (JsonProcessingException  e) {
+                return true;
+            } catch (IOException  e) {
                 logger.error("Unable to invoke callback " + callback.getName(), e);
             }
-            return;
+            return false;
         }
 
         // Echo dont need any special processing. hence handling it internally.
 
-        if (requestJson.get("method").asText().equals("echo")) {
-            JsonRpc10Response response = new JsonRpc10Response(requestJson.get("id").asText());
+        if (request.getMethod().equals("echo")) {
+            JsonRpc10Response response = new JsonRpc10Response(id.asText());
             response.setError(null);
-            String s = null;
-            try {
-                s = objectMapper.writeValueAsString(response) + "\0";
-                nettyChannel.writeAndFlush(s);
-            } catch (JsonProcessingException e) {
-                logger.error("Exception while processing JSON string " + s, e );
+            reply(id, response);
+            return true;
+        }
+
+        logger.error("No handler for Request : {}", request);
+        return false;
+    }
+
+    /**
+     * The responses to the requests in an incoming batch, collected so
+     * that they can be sent back as one batch. The id given to each
+     * request that is still waiting for its response maps to the batch
+     * in the endpoint's table of batch replies.
+     */
+    private class BatchReply implements TimerTask {
+        private final List<JsonNode> keys = new ArrayList<JsonNode>();
+        private final List<Object> responses = new ArrayList<Object>();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Timeout timeout;
+
+        void expect(JsonNode id) {
+            if (batchReplies.putIfAbsent(id, this) == null) {
+                keys.add(id);
+                remaining.incrementAndGet();
+            }
+        }
+
+        void start() {
+            // never hold the batch, and its table entries, forever
+            long t = requestTimeout;
+            if (t <= 0) t = DEFAULT_REQUEST_TIMEOUT;
+            if (remaining.get() > 0) {
+                timeout = timer.newTimeout(this, t, TimeUnit.MILLISECONDS);
             }
-            return;
         }
 
-        logger.error("No handler for Request : {}",requestJson.toString());
+        void add(Object response) {
+            synchronized (responses) {
+                responses.add(response);
+            }
+            if (remaining.decrementAndGet() == 0) complete();
+        }
+
+        void cancel(JsonNode id) {
+            if (batchReplies.remove(id, this) &&
+                    remaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        @Override
+        public void run(Timeout t) throws Exception {
+            logger.warn("Sending batch reply to {} with {} responses missing",
+                    identifier, remaining.get());
+            complete();
+        }
+
+        private void complete() {
+            if (!done.compareAndSet(false, true)) return;
+            Timeout t = timeout;
+            if (t != null) t.cancel();
+            // responses that come in later are sent on their own
+            for (JsonNode key : keys) {
+                batchReplies.remove(key, this);
+            }
+            List<Object> batch;
+            synchronized (responses) {
+                batch = new ArrayList<Object>(responses);
+            }
+            if (!batch.isEmpty()) send(batch);
+        }
     }
 
     @Override
     public void operationComplete(ChannelFuture arg0) throws Exception {
+        failPendingCalls(new ClosedChannelException());
+        batchReplies.clear();
+        writabilityChanged();
         connectionService.channelClosed(this);
     }
+
+    /**
+     * Fail all the requests still waiting for a response
+     *
+     * @param cause The reason for the failure
+     */
+    private void failPendingCalls(Throwable cause) {
+        for (Long id : pendingCalls.keySet()) {
+            CallContext cc = pendingCalls.remove(id);
+            if (cc == null) continue;
+            cc.cancelTimeout();
+            cc.getFuture().setException(cause);
+        }
+    }
 }
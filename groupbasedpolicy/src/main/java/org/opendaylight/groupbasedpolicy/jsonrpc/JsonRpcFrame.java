@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+/**
+ *
+ * A single JSON RPC message as it was framed off the wire. Only the
+ * fields needed to dispatch the message (method, id, and whether it is a
+ * result) are parsed up front; the rest is left as raw bytes until it
+ * can be bound directly into the concrete {@link RpcMessage} class, so
+ * that large messages are never built into a tree model.
+ *
+ * The frame holds a reference to the underlying buffer, and must be
+ * released once the message has been handled.
+ */
+public class JsonRpcFrame extends DefaultByteBufHolder {
+
+    private final String method;
+    private final JsonNode id;
+    private final boolean result;
+    private final JsonNode error;
+
+    public JsonRpcFrame(ByteBuf data, String method, JsonNode id,
+            boolean result, JsonNode error) {
+        super(data);
+        this.method = method;
+        this.id = id;
+        this.result = result;
+        this.error = error;
+    }
+
+    /**
+     *
+     * Scan a complete JSON object for the fields used to dispatch it.
+     * The contents of other fields, such as the params, are skipped over
+     * without being materialized.
+     *
+     * @param factory The factory used to create the streaming parser;
+     *        it must have an ObjectCodec to read the id
+     * @param data The buffer holding exactly one JSON object
+     * @return The {@link JsonRpcFrame}, wrapping the buffer
+     * @throws IOException The frame isn't a valid JSON object
+     */
+    public static JsonRpcFrame peek(JsonFactory factory, ByteBuf data) throws IOException {
+        String method = null;
+        JsonNode id = null;
+        boolean result = false;
+        JsonNode error = null;
+
+        JsonParser jp = createParser(factory, data);
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Expected a JSON object", jp.getCurrentLocation());
+            }
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                switch (field) {
+                    case "method":
+                        if (token != JsonToken.VALUE_NULL) method = jp.getText();
+                        break;
+                    case "id":
+                        id = (token == JsonToken.VALUE_NULL) ?
+                                NullNode.getInstance() : (JsonNode) jp.readValueAsTree();
+                        break;
+                    case "result":
+                        result = true;
+                        jp.skipChildren();
+                        break;
+                    case "error":
+                        if (token != JsonToken.VALUE_NULL) error = jp.readValueAsTree();
+                        break;
+                    default:
+                        jp.skipChildren();
+                        break;
+                }
+                // Requests have everything needed for dispatch once the
+                // method and id are known
+                if (method != null && id != null && !result) break;
+            }
+        } finally {
+            jp.close();
+        }
+        return new JsonRpcFrame(data, method, id, result, error);
+    }
+
+    /**
+     * @return The method of a request, or null
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The id of the message, or null if it didn't have one
+     */
+    public JsonNode getId() {
+        return id;
+    }
+
+    /**
+     * @return true if the message is a response to a request
+     */
+    public boolean isResult() {
+        return result;
+    }
+
+    /**
+     * @return The error of a response, or null if there wasn't one
+     */
+    public JsonNode getError() {
+        return error;
+    }
+
+    /**
+     *
+     * Bind the whole message straight from the buffer.
+     *
+     * @param reader The reader for the target type
+     * @return The bound object
+     * @throws IOException The message couldn't be bound
+     */
+    public <T> T readValue(ObjectReader reader) throws IOException {
+        ByteBuf data = content();
+        if (data.hasArray()) {
+            return reader.readValue(data.array(),
+                    data.arrayOffset() + data.readerIndex(), data.readableBytes());
+        }
+        return reader.readValue(new ByteBufInputStream(data.duplicate()));
+    }
+
+    @Override
+    public String toString() {
+        return content().toString(CharsetUtil.UTF_8);
+    }
+
+    private static JsonParser createParser(JsonFactory factory, ByteBuf data) throws IOException {
+        if (data.hasArray()) {
+            return factory.createParser(data.array(),
+                    data.arrayOffset() + data.readerIndex(), data.readableBytes());
+        }
+        return factory.createParser(new ByteBufInputStream(data.duplicate()));
+    }
+}
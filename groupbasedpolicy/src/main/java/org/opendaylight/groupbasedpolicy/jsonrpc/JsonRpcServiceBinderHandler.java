@@ -9,7 +9,6 @@
  */
 package org.opendaylight.groupbasedpolicy.jsonrpc;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.SettableFuture;
 
@@ -38,15 +37,31 @@ public class JsonRpcServiceBinderHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
 
-        if (msg instanceof JsonNode) {
-            JsonNode jsonNode = (JsonNode) msg;
+        if (msg instanceof JsonRpcFrame) {
+            JsonRpcFrame frame = (JsonRpcFrame) msg;
 
-            if (jsonNode.has("result")) {
-                endpoint.processResult(jsonNode);
-            } else if (jsonNode.hasNonNull("method")) {
-                if (jsonNode.has("id") && (jsonNode.get("id") != null)) {
-                    endpoint.processRequest(jsonNode);
+            try {
+                if (frame.isResult()) {
+                    endpoint.processResult(frame);
+                } else if (frame.getMethod() != null) {
+                    if (frame.getId() != null) {
+                        endpoint.processRequest(frame);
+                    }
                 }
+            } finally {
+                frame.release();
+            }
+
+            return;
+        }
+
+        if (msg instanceof JsonRpcBatch) {
+            JsonRpcBatch batch = (JsonRpcBatch) msg;
+
+            try {
+                endpoint.processBatch(batch);
+            } finally {
+                batch.release();
             }
 
             return;
@@ -59,4 +74,12 @@ public class JsonRpcServiceBinderHandler extends ChannelInboundHandlerAdapter {
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
         ctx.flush();
     }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (endpoint != null) {
+            endpoint.writabilityChanged();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
 }
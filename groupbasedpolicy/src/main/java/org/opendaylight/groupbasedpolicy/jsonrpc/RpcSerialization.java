@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.channel.ChannelHandler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The encodings that JSON RPC messages can be sent in. Each one provides
+ * the mapper that binds the {@link RpcMessage} classes, and the codec
+ * that frames the messages on the wire, so the same message classes
+ * work with all of them.
+ */
+public enum RpcSerialization {
+
+    /**
+     * JSON text, with messages delimited by their closing curly or by a
+     * NUL character
+     */
+    JSON {
+        @Override
+        JsonFactory createFactory() {
+            return new MappingJsonFactory();
+        }
+
+        @Override
+        public ChannelHandler createDecoder(ObjectMapper objectMapper, int maxFrameLength) {
+            return new JsonRpcDecoder(maxFrameLength);
+        }
+
+        @Override
+        public ChannelHandler createEncoder(ObjectMapper objectMapper) {
+            return new JsonRpcEncoder(objectMapper);
+        }
+    },
+
+    /**
+     * Smile, Jackson's binary encoding of the JSON data model, with each
+     * message prefixed by its length. It's more compact than JSON text,
+     * and cheaper to generate and parse.
+     */
+    SMILE {
+        @Override
+        JsonFactory createFactory() {
+            return new SmileFactory();
+        }
+
+        @Override
+        public ChannelHandler createDecoder(ObjectMapper objectMapper, int maxFrameLength) {
+            return new SmileRpcDecoder(objectMapper, maxFrameLength);
+        }
+
+        @Override
+        public ChannelHandler createEncoder(ObjectMapper objectMapper) {
+            return new SmileRpcEncoder(objectMapper);
+        }
+    };
+
+    abstract JsonFactory createFactory();
+
+    /**
+     * Create a mapper for this encoding. Mappers are thread-safe once
+     * configured, so one can be shared by all the connections using the
+     * encoding, along with its cache of serializers.
+     *
+     * @return The {@link ObjectMapper}
+     */
+    public ObjectMapper createObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper(createFactory());
+        objectMapper.configure(
+                DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        return objectMapper;
+    }
+
+    /**
+     * Create a decoder that frames the incoming messages
+     *
+     * @param objectMapper A mapper created by {@link #createObjectMapper()}
+     * @param maxFrameLength The longest message accepted
+     * @return The decoder
+     */
+    public abstract ChannelHandler createDecoder(ObjectMapper objectMapper, int maxFrameLength);
+
+    /**
+     * Create an encoder that serializes the outgoing messages
+     *
+     * @param objectMapper A mapper created by {@link #createObjectMapper()}
+     * @return The encoder
+     */
+    public abstract ChannelHandler createEncoder(ObjectMapper objectMapper);
+}
@@ -10,19 +10,12 @@
 package org.opendaylight.groupbasedpolicy.jsonrpc;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.AdaptiveRecvByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.util.CharsetUtil;
 
 import java.net.InetAddress;
 import java.util.List;
@@ -31,9 +24,7 @@ import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
  * A (soon-to-be) generic RPC server. It creates {@link JsonRpcEndpoint} objects
@@ -41,8 +32,9 @@ import com.fasterxml.jackson.databind.SerializationFeature;
  * types that it supports, and it passes on these supported messages
  * to the {@link JsonRpcEndpoint} objects that it creates.
  *
- * TODO: add serialization type, and refactor so serialization determines
- *       concrete RpcEndpoint object (only JsonRpcEndpoint right now).
+ * The messages are sent in the server's {@link RpcSerialization}, which is
+ * JSON unless another is set before the server is started.
+ *
  * TODO: This and other classes are tightly coupled to netty -- make abstraction?
  */
 public class RpcServer {
@@ -56,6 +48,17 @@ public class RpcServer {
     RpcMessageMap messageMap;
     ConnectionService connectionService;
     RpcBroker broker;
+    long requestTimeout = JsonRpcEndpoint.DEFAULT_REQUEST_TIMEOUT;
+    RpcTransport transport;
+    RpcSerialization serialization = RpcSerialization.JSON;
+
+    private static final int MAX_FRAME_LENGTH = 100000;
+
+    /*
+     * Mappers are thread-safe once configured, so all connections share
+     * one, along with its cache of serializers
+     */
+    private ObjectMapper objectMapper;
 
     public RpcServer() {
         messageMap = new RpcMessageMap();
@@ -91,6 +94,38 @@ public class RpcServer {
         this.broker = broker;
     }
 
+    /**
+     * Set how long endpoints created by this server wait for the response
+     * to a request, in milliseconds, or 0 to wait forever
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Use a different {@link RpcTransport} than the shared one. This
+     * must be set before the server is started.
+     */
+    public void setTransport(RpcTransport transport) {
+        this.transport = transport;
+    }
+
+    public RpcTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set the encoding of the messages on this server's connections. This
+     * must be set before the server is started.
+     */
+    public void setSerialization(RpcSerialization serialization) {
+        this.serialization = serialization;
+    }
+
+    public RpcSerialization getSerialization() {
+        return serialization;
+    }
+
     public void setChannel(Channel channel) {
         this.channel = channel;
     }
@@ -102,14 +137,10 @@ public class RpcServer {
     void handleNewConnection(String identifier, Channel newChannel)
             throws InterruptedException, ExecutionException {
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.configure(
-                DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-
         JsonRpcEndpoint endpoint = new JsonRpcEndpoint(identifier, connectionService,
                 objectMapper, newChannel, messageMap, broker);
         endpoint.setContext(context);
+        endpoint.setRequestTimeout(requestTimeout);
         JsonRpcServiceBinderHandler binderHandler =
                 new JsonRpcServiceBinderHandler(endpoint);
         newChannel.pipeline().addLast(binderHandler);
@@ -120,53 +151,61 @@ public class RpcServer {
         closeFuture.addListener(endpoint);
     }
 
-    public void start() {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
-        try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .option(ChannelOption.SO_BACKLOG, 100)
-                    .handler(new LoggingHandler(LogLevel.INFO))
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch)
-                                throws Exception {
-                            logger.debug("New Passive channel created : "
-                                    + ch.toString());
-                            InetAddress address = ch.remoteAddress()
-                                    .getAddress();
-                            int port = ch.remoteAddress().getPort();
-                            String identifier = address.getHostAddress() + ":"
-                                    + port;
-                            ch.pipeline().addLast(
-                                    new LoggingHandler(LogLevel.INFO),
-                                    new JsonRpcDecoder(100000),
-                                    new StringEncoder(CharsetUtil.UTF_8));
-
-                            handleNewConnection(identifier, ch);
-                            logger.trace("Connected Node : " + identifier);
-                        }
-                    });
-            b.option(ChannelOption.TCP_NODELAY, true);
-            b.option(ChannelOption.RCVBUF_ALLOCATOR,
-                    new AdaptiveRecvByteBufAllocator(65535, 65535, 65535));
-            // Start the server.
-            ChannelFuture f = b.bind(identity, listenPort).sync();
-            String id = f.channel().localAddress().toString();
-            logger.trace("Connected Node : " + id);
-
-            this.channel = f.channel();
-
-            // Wait until the server socket is closed.
-            f.channel().closeFuture().sync();
-        } catch (InterruptedException e) {
-            logger.error("Thread interrupted", e);
-        } finally {
-            // Shut down all event loops to terminate all threads.
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+    /**
+     * Start listening for connections. This returns once the server is
+     * bound; the connections are served by the event loops of the
+     * server's {@link RpcTransport}, which is the shared one unless
+     * another was set.
+     *
+     * @throws InterruptedException Interrupted while binding
+     */
+    public void start() throws InterruptedException {
+        if (transport == null) {
+            transport = RpcTransport.getShared();
+        }
+        objectMapper = serialization.createObjectMapper();
+        ServerBootstrap b = transport.configure(new ServerBootstrap());
+        if (logger.isTraceEnabled()) {
+            b.handler(new LoggingHandler(LogLevel.TRACE));
+        }
+        b.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch)
+                    throws Exception {
+                logger.debug("New Passive channel created : "
+                        + ch.toString());
+                InetAddress address = ch.remoteAddress()
+                        .getAddress();
+                int port = ch.remoteAddress().getPort();
+                String identifier = address.getHostAddress() + ":"
+                        + port;
+                if (logger.isTraceEnabled()) {
+                    ch.pipeline().addLast(new LoggingHandler(LogLevel.TRACE));
+                }
+                ch.pipeline().addLast(
+                        serialization.createDecoder(objectMapper, MAX_FRAME_LENGTH),
+                        serialization.createEncoder(objectMapper));
+
+                handleNewConnection(identifier, ch);
+                logger.trace("Connected Node : " + identifier);
+            }
+        });
+
+        // Start the server.
+        ChannelFuture f = b.bind(identity, listenPort).sync();
+        String id = f.channel().localAddress().toString();
+        logger.trace("Connected Node : " + id);
+
+        this.channel = f.channel();
+    }
+
+    /**
+     * Stop listening for connections. Established connections are
+     * left open.
+     */
+    public void stop() {
+        if (channel != null) {
+            channel.close();
         }
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The network resources shared by {@link RpcServer}s: the event loops that
+ * accept and serve connections, and the socket and buffer settings applied
+ * to every connection. All servers use the same event loops by default, so
+ * adding servers or roles doesn't add threads.
+ *
+ * The settings can be given as system properties (e.g. in config.ini), and
+ * the tunables can also be changed before a server is started:
+ * <ul>
+ * <li>{@value #WORKER_THREADS}: threads serving connections, 0 for the
+ * Netty default of twice the number of cores</li>
+ * <li>{@value #NATIVE_TRANSPORT}: use the native epoll transport on Linux
+ * when it's available (default true). The native library is only shipped
+ * for linux-x86_64; NIO is used wherever it can't be loaded.</li>
+ * <li>{@value #RECV_BUFFER_MIN}, {@value #RECV_BUFFER_INITIAL},
+ * {@value #RECV_BUFFER_MAX}: bounds for the adaptively sized buffers
+ * that data is read into</li>
+ * <li>{@value #SOCKET_RECV_BUFFER}, {@value #SOCKET_SEND_BUFFER}: socket
+ * buffer sizes, 0 for the OS default</li>
+ * <li>{@value #WRITE_BUFFER_LOW}, {@value #WRITE_BUFFER_HIGH}: the amount
+ * of queued outbound data at which a channel stops and starts being
+ * writable</li>
+ * <li>{@value #POOLED_ALLOCATOR}: use pooled buffers (default true)</li>
+ * </ul>
+ */
+public class RpcTransport implements AutoCloseable {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(RpcTransport.class);
+
+    public static final String WORKER_THREADS = "jsonrpc.workerThreads";
+    public static final String NATIVE_TRANSPORT = "jsonrpc.nativeTransport";
+    public static final String RECV_BUFFER_MIN = "jsonrpc.recvBufferMin";
+    public static final String RECV_BUFFER_INITIAL = "jsonrpc.recvBufferInitial";
+    public static final String RECV_BUFFER_MAX = "jsonrpc.recvBufferMax";
+    public static final String SOCKET_RECV_BUFFER = "jsonrpc.socketRecvBuffer";
+    public static final String SOCKET_SEND_BUFFER = "jsonrpc.socketSendBuffer";
+    public static final String WRITE_BUFFER_LOW = "jsonrpc.writeBufferLowWaterMark";
+    public static final String WRITE_BUFFER_HIGH = "jsonrpc.writeBufferHighWaterMark";
+    public static final String POOLED_ALLOCATOR = "jsonrpc.pooledAllocator";
+
+    private static final int BACKLOG = 100;
+
+    private static RpcTransport shared;
+
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Class<? extends ServerChannel> serverChannelClass;
+
+    private int recvBufferMin = Integer.getInteger(RECV_BUFFER_MIN, 64);
+    private int recvBufferInitial = Integer.getInteger(RECV_BUFFER_INITIAL, 16384);
+    private int recvBufferMax = Integer.getInteger(RECV_BUFFER_MAX, 65536);
+    private int socketRecvBuffer = Integer.getInteger(SOCKET_RECV_BUFFER, 0);
+    private int socketSendBuffer = Integer.getInteger(SOCKET_SEND_BUFFER, 0);
+    private int writeBufferLow = Integer.getInteger(WRITE_BUFFER_LOW, 32 * 1024);
+    private int writeBufferHigh = Integer.getInteger(WRITE_BUFFER_HIGH, 64 * 1024);
+    private boolean pooledAllocator =
+            Boolean.parseBoolean(System.getProperty(POOLED_ALLOCATOR, "true"));
+
+    /**
+     * Get the transport shared by all servers that weren't given one of
+     * their own. It's created on first use, from the system properties.
+     *
+     * @return The shared {@link RpcTransport}
+     */
+    public static synchronized RpcTransport getShared() {
+        if (shared == null) {
+            shared = new RpcTransport();
+        }
+        return shared;
+    }
+
+    public RpcTransport() {
+        this(Integer.getInteger(WORKER_THREADS, 0),
+             Boolean.parseBoolean(System.getProperty(NATIVE_TRANSPORT, "true")));
+    }
+
+    /**
+     * Create a transport with its own event loops
+     *
+     * @param workerThreads The number of threads serving connections, or 0
+     *        for the Netty default
+     * @param useNative Use the native epoll transport if it's available
+     */
+    public RpcTransport(int workerThreads, boolean useNative) {
+        if (useNative && isNativeAvailable()) {
+            bossGroup = new EpollEventLoopGroup(1,
+                    new DefaultThreadFactory("jsonrpc-boss", true));
+            workerGroup = new EpollEventLoopGroup(workerThreads,
+                    new DefaultThreadFactory("jsonrpc-worker", true));
+            serverChannelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(1,
+                    new DefaultThreadFactory("jsonrpc-boss", true));
+            workerGroup = new NioEventLoopGroup(workerThreads,
+                    new DefaultThreadFactory("jsonrpc-worker", true));
+            serverChannelClass = NioServerSocketChannel.class;
+        }
+        logger.debug("Using {} for JSON RPC servers", serverChannelClass.getSimpleName());
+    }
+
+    private static boolean isNativeAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (Throwable t) {
+            // not on Linux, or the native library couldn't be loaded
+            return false;
+        }
+    }
+
+    /**
+     * Set up a server bootstrap with the event loops and the channel
+     * options of this transport
+     *
+     * @param b The bootstrap to set up
+     * @return The same bootstrap
+     */
+    public ServerBootstrap configure(ServerBootstrap b) {
+        ByteBufAllocator allocator = pooledAllocator ?
+                PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+
+        b.group(bossGroup, workerGroup)
+                .channel(serverChannelClass)
+                .option(ChannelOption.SO_BACKLOG, BACKLOG)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR,
+                        new AdaptiveRecvByteBufAllocator(recvBufferMin,
+                                recvBufferInitial, recvBufferMax))
+                // the high water mark is set first, so that the low water
+                // mark can be raised above the default high water mark
+                .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHigh)
+                .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLow);
+        if (socketRecvBuffer > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, socketRecvBuffer);
+        }
+        if (socketSendBuffer > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, socketSendBuffer);
+        }
+        return b;
+    }
+
+    public boolean isNative() {
+        return serverChannelClass == EpollServerSocketChannel.class;
+    }
+
+    public void setRecvBufferSizes(int min, int initial, int max) {
+        this.recvBufferMin = min;
+        this.recvBufferInitial = initial;
+        this.recvBufferMax = max;
+    }
+
+    public void setSocketBufferSizes(int recv, int send) {
+        this.socketRecvBuffer = recv;
+        this.socketSendBuffer = send;
+    }
+
+    public void setWriteBufferWaterMarks(int low, int high) {
+        if (low > high) {
+            throw new IllegalArgumentException("Low water mark " + low +
+                    " is above high water mark " + high);
+        }
+        this.writeBufferLow = low;
+        this.writeBufferHigh = high;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLow;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHigh;
+    }
+
+    public void setPooledAllocator(boolean pooledAllocator) {
+        this.pooledAllocator = pooledAllocator;
+    }
+
+    /**
+     * Shut down the event loops, closing every server and connection
+     * using them
+     */
+    @Override
+    public void close() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        synchronized (RpcTransport.class) {
+            if (shared == this) shared = null;
+        }
+    }
+}
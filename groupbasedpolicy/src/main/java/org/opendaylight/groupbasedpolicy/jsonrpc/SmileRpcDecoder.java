@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+
+/**
+ * Decoder for JSON RPC messages in the Smile binary encoding, as written
+ * by the {@link SmileRpcEncoder}. Messages are framed by their length
+ * field, and each is passed on as a {@link JsonRpcFrame}, just like the
+ * messages decoded by the {@link JsonRpcDecoder}, so the endpoint handles
+ * both encodings the same way.
+ *
+ * Smile documents can refer back to names seen earlier in the document,
+ * so the messages in a batch can't be cut out of it the way JSON text
+ * can. Batches are instead split by re-encoding each message on its own.
+ */
+public class SmileRpcDecoder extends LengthFieldBasedFrameDecoder {
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory factory;
+
+    /**
+     * @param objectMapper A mapper for the Smile encoding, such as
+     *        one created by {@link RpcSerialization#createObjectMapper()}
+     * @param maxFrameLength The longest message accepted
+     */
+    public SmileRpcDecoder(ObjectMapper objectMapper, int maxFrameLength) {
+        super(maxFrameLength, 0, SmileRpcEncoder.LENGTH_FIELD_LENGTH,
+                0, SmileRpcEncoder.LENGTH_FIELD_LENGTH);
+        this.objectMapper = objectMapper;
+        this.factory = objectMapper.getFactory();
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) {
+            return null;
+        }
+        if (!isArray(frame)) {
+            try {
+                return JsonRpcFrame.peek(factory, frame);
+            } catch (IOException e) {
+                frame.release();
+                throw e;
+            }
+        }
+        try {
+            return splitBatch(ctx, frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Check whether the document in the frame is an array, skipping the
+     * Smile header if there is one
+     */
+    private static boolean isArray(ByteBuf frame) {
+        int i = frame.readerIndex();
+        if (frame.readableBytes() >= 4 &&
+                frame.getByte(i) == SmileConstants.HEADER_BYTE_1 &&
+                frame.getByte(i + 1) == SmileConstants.HEADER_BYTE_2 &&
+                frame.getByte(i + 2) == SmileConstants.HEADER_BYTE_3) {
+            i += 4;
+        }
+        return i < frame.writerIndex() &&
+                frame.getByte(i) == SmileConstants.TOKEN_LITERAL_START_ARRAY;
+    }
+
+    private JsonRpcBatch splitBatch(ChannelHandlerContext ctx, ByteBuf frame) throws IOException {
+        JsonNode array = objectMapper.readTree(new ByteBufInputStream(frame));
+        ByteBuf data = ctx.alloc().heapBuffer(frame.readableBytes() * 2);
+        try {
+            int[] offsets = new int[array.size() + 1];
+            int count = 0;
+            offsets[0] = data.writerIndex();
+            for (JsonNode element : array) {
+                if (!element.isObject()) continue;
+                objectMapper.writeValue((OutputStream) new ByteBufOutputStream(data), element);
+                offsets[++count] = data.writerIndex();
+            }
+            List<JsonRpcFrame> frames = new ArrayList<JsonRpcFrame>(count);
+            for (int i = 0; i < count; i++) {
+                frames.add(JsonRpcFrame.peek(factory,
+                        data.slice(offsets[i], offsets[i + 1] - offsets[i])));
+            }
+            return new JsonRpcBatch(data, frames);
+        } catch (IOException e) {
+            data.release();
+            throw e;
+        }
+    }
+}
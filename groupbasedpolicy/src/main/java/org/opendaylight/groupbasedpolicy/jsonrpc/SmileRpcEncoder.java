@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Encoder for JSON RPC messages in the Smile binary encoding. Each message
+ * is serialized straight into the outbound buffer, behind a four byte
+ * length field that is filled in once the size is known. A list of
+ * messages is serialized as an array, which is how batches are sent.
+ *
+ * Strings are taken to be JSON text, as they are by the
+ * {@link JsonRpcEncoder}, and are converted to Smile. Buffers are passed
+ * through untouched.
+ */
+public class SmileRpcEncoder extends MessageToByteEncoder<Object> {
+
+    static final int LENGTH_FIELD_LENGTH = 4;
+
+    private static final ObjectMapper textMapper = new ObjectMapper();
+
+    private final ObjectWriter writer;
+
+    /**
+     * @param objectMapper A mapper for the Smile encoding, such as
+     *        one created by {@link RpcSerialization#createObjectMapper()}
+     */
+    public SmileRpcEncoder(ObjectMapper objectMapper) {
+        super(true);
+        this.writer = objectMapper.writer();
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return !(msg instanceof ByteBuf || msg instanceof ByteBufHolder);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        if (msg instanceof CharSequence) {
+            msg = textMapper.readTree(msg.toString());
+        }
+        int start = out.writerIndex();
+        out.writeInt(0);
+        writer.writeValue((OutputStream) new ByteBufOutputStream(out), msg);
+        out.setInt(start, out.writerIndex() - start - LENGTH_FIELD_LENGTH);
+    }
+}
@@ -8,7 +8,9 @@
 
 package org.opendaylight.groupbasedpolicy.resolver;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
@@ -27,6 +29,7 @@ public class ConditionGroup {
     
     private final Set<ConditionSet> conditionSets;
     private final int hashCode;
+    private volatile String id;
 
     public ConditionGroup(Set<ConditionSet> conditionSets) {
         super();
@@ -44,6 +47,25 @@ public class ConditionGroup {
         return conditionSets.contains(cs);
     }
     
+    /**
+     * Get a string that identifies this condition group, which is the 
+     * same for equal condition groups in any process
+     * @return the ID
+     * @see ConditionSet#getId()
+     */
+    public String getId() {
+        String result = id;
+        if (result == null) {
+            List<String> ids = new ArrayList<>(conditionSets.size());
+            for (ConditionSet cs : conditionSets) {
+                ids.add(cs.getId());
+            }
+            Collections.sort(ids);
+            id = result = ids.toString();
+        }
+        return result;
+    }
+
     private int computeHashCode() {
         final int prime = 31;
         int result = 1;
@@ -8,6 +8,7 @@
 
 package org.opendaylight.groupbasedpolicy.resolver;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +33,7 @@ public class ConditionSet {
     private final Set<ConditionName> none;
     private final Set<? extends Set<ConditionName>> any;
     private final int hashCode;
+    private volatile String id;
     
     public static final ConditionSet EMPTY = 
             new ConditionSet(Collections.<ConditionName>emptySet(),
@@ -69,6 +71,36 @@ public class ConditionSet {
         return true;
     }
     
+    /**
+     * Get a string that identifies this condition set.  Unlike 
+     * {@link #toString()}, it doesn't depend on the iteration order of the
+     * sets, so it's the same for equal condition sets in any process.
+     * @return the ID
+     */
+    public String getId() {
+        String result = id;
+        if (result == null) {
+            List<String> anyIds = new ArrayList<>();
+            for (Set<ConditionName> anyItem : any) {
+                anyIds.add(sortedNames(anyItem).toString());
+            }
+            Collections.sort(anyIds);
+            id = result = "all=" + sortedNames(all) + 
+                          ",none=" + sortedNames(none) +
+                          ",any=" + anyIds;
+        }
+        return result;
+    }
+
+    private static List<String> sortedNames(Set<ConditionName> names) {
+        List<String> result = new ArrayList<>(names.size());
+        for (ConditionName name : names) {
+            result.add(name.getValue());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
     private int computeHashCode() {
         final int prime = 31;
         int result = 1;
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cheap, lock-free histogram of durations.  Values are kept in
+ * microseconds in power-of-two buckets, so percentiles are only accurate
+ * to within a factor of two, which is plenty to spot a slow table,
+ * switch or RPC method.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    /**
+     * Bucket i counts values v with 2^(i-1) <= v < 2^i, and bucket 0
+     * counts zero
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long m;
+        while (micros > (m = max.get())) {
+            if (max.compareAndSet(m, micros)) break;
+        }
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean duration in microseconds
+     */
+    public long getMean() {
+        long c = count.get();
+        return (c == 0) ? 0 : sum.get() / c;
+    }
+
+    /**
+     * @return the longest duration in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Estimate a percentile.  The result is the upper bound of the bucket
+     * holding the percentile, but no more than the maximum.
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = (long)Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                long upper = (i == 0) ? 0 : (1L << Math.min(i, 62)) - 1;
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean() +
+               "us p99=" + getPercentile(99) + "us max=" + getMax() + "us";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on a shared
+ * executor.  Many serial executors can share one thread pool: tasks from
+ * the same serial executor never run concurrently, while tasks from
+ * different ones run in parallel.  No locks are taken; a queue that has
+ * work holds at most one task in the underlying executor, which runs a
+ * limited number of tasks before yielding its thread to other queues.
+ */
+public class SerialExecutor implements Executor {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SerialExecutor.class);
+
+    /**
+     * The number of tasks run before the thread is given up
+     */
+    private static final int MAX_BATCH = 32;
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Create a serial executor
+     * @param executor the executor to run the tasks on
+     */
+    public SerialExecutor(Executor executor) {
+        super();
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a task to run after all the tasks queued before it
+     * @throws RejectedExecutionException the underlying executor is shut
+     * down
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        pending.incrementAndGet();
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            // the task will never run, so don't leave it queued
+            if (tasks.remove(task)) pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting to run
+     */
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    private void schedule() {
+        if (tasks.isEmpty() || !scheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            for (int i = 0; i < MAX_BATCH && (task = tasks.poll()) != null; i++) {
+                pending.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    LOG.error("Task failed", e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // pick up tasks that were queued while we held the flag, or
+            // that we left for the next batch
+            schedule();
+        }
+    }
+}
@@ -13,7 +13,14 @@ package org.opendaylight.groupbasedpolicy.jsonrpc;
 import static io.netty.buffer.Unpooled.copiedBuffer;
 
 import static org.junit.Assert.assertEquals;
-
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 
@@ -38,6 +45,7 @@ public class JsonRpcDecoderTest {
 
     JsonRpcDecoder decoder;
     EmbeddedChannel ch;
+    ObjectReader treeReader = new ObjectMapper().reader(JsonNode.class);
 
     @Before
     public void setUp() throws Exception {
@@ -87,6 +95,99 @@ public class JsonRpcDecoderTest {
         ch.finish();
     }
 
+    @Test
+    public void testDecodeEscapes() throws Exception {
+        // an escaped backslash right before the closing quote, and curlies
+        // and escaped quotes inside strings
+        String json = "{\"a\":\"x\\\\\",\"b\":\"}{\\\"}\"}";
+        ch.writeInbound(copiedBuffer(json + json, CharsetUtil.UTF_8));
+        JsonNode node = ((JsonRpcFrame) ch.readInbound()).readValue(treeReader);
+        assertNotNull(node);
+        assertEquals("x\\", node.get("a").asText());
+        assertEquals("}{\"}", node.get("b").asText());
+        assertEquals(2, decoder.getRecordsRead());
+        ch.finish();
+    }
+
+    @Test
+    public void testDecodeByteAtATime() throws Exception {
+        byte[] bytes = (testJson + testJson).getBytes(CharsetUtil.UTF_8);
+        for (byte b : bytes) {
+            ch.writeInbound(copiedBuffer(new byte[] {b}));
+        }
+        assertEquals(2, decoder.getRecordsRead());
+        ch.finish();
+    }
+
+    @Test
+    public void testDecodeAfterTooLongFrame() throws Exception {
+        decoder = new JsonRpcDecoder(testJson_BYTES - 1);
+        ch = new EmbeddedChannel(decoder);
+        String big = testJson.trim().substring(0, testJson.trim().length() - 1) +
+                ",\"pad\":\"" + testJson.replace("\"", "") + "\"}";
+        try {
+            ch.writeInbound(copiedBuffer(big.substring(0, testJson_BYTES + 10), CharsetUtil.UTF_8));
+        } catch (TooLongFrameException e) {
+            // expected
+        }
+        ch.writeInbound(copiedBuffer(big.substring(testJson_BYTES + 10) + "{\"ok\":1}", CharsetUtil.UTF_8));
+        JsonNode node = ((JsonRpcFrame) ch.readInbound()).readValue(treeReader);
+        assertEquals(1, node.get("ok").asInt());
+        assertEquals(1, decoder.getRecordsRead());
+        ch.finish();
+    }
+
+    @Test
+    public void testDecodePeek() throws Exception {
+        String request = "{\"params\":[{\"big\":{\"x\":[1,2,3]}}]," +
+                "\"method\":\"echo\",\"id\":42}";
+        String response = "{\"id\":\"abc\",\"result\":{\"a\":1}," +
+                "\"error\":{\"code\":1}}";
+        ch.writeInbound(copiedBuffer(request + response, CharsetUtil.UTF_8));
+
+        JsonRpcFrame frame = (JsonRpcFrame) ch.readInbound();
+        assertEquals("echo", frame.getMethod());
+        assertEquals(42, frame.getId().asInt());
+        assertFalse(frame.isResult());
+        JsonNode tree = frame.readValue(treeReader);
+        assertEquals(3, tree.get("params").get(0).get("big").get("x").size());
+        frame.release();
+
+        frame = (JsonRpcFrame) ch.readInbound();
+        assertNull(frame.getMethod());
+        assertEquals("abc", frame.getId().asText());
+        assertTrue(frame.isResult());
+        assertEquals(1, frame.getError().get("code").asInt());
+        frame.release();
+        ch.finish();
+    }
+
+    @Test
+    public void testDecodeBatch() throws Exception {
+        String batch = " [{\"method\":\"echo\",\"id\":1,\"params\":[\"]{\"]}, " +
+                "{\"id\":2,\"result\":[{}],\"error\":null}]";
+        byte[] bytes = (batch + testJson).getBytes(CharsetUtil.UTF_8);
+        for (byte b : bytes) {
+            ch.writeInbound(copiedBuffer(new byte[] {b}));
+        }
+
+        JsonRpcBatch rpcBatch = (JsonRpcBatch) ch.readInbound();
+        assertEquals(2, rpcBatch.getFrames().size());
+        JsonRpcFrame frame = rpcBatch.getFrames().get(0);
+        assertEquals("echo", frame.getMethod());
+        assertEquals(1, frame.getId().asInt());
+        JsonNode tree = frame.readValue(treeReader);
+        assertEquals("]{", tree.get("params").get(0).asText());
+        frame = rpcBatch.getFrames().get(1);
+        assertTrue(frame.isResult());
+        assertEquals(2, frame.getId().asInt());
+        rpcBatch.release();
+
+        assertTrue(ch.readInbound() instanceof JsonRpcFrame);
+        assertEquals(2, decoder.getRecordsRead());
+        ch.finish();
+    }
+
     @Test(expected= DecoderException.class)
     public void testDecodeInvalidEncoding() throws Exception {
         ch.writeInbound(copiedBuffer(testJson, CharsetUtil.UTF_16));
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import static io.netty.buffer.Unpooled.copiedBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonRpcEncoderTest {
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        channel = new EmbeddedChannel(new JsonRpcEncoder());
+    }
+
+    @Test
+    public void testEncodeObject() throws Exception {
+        JsonRpc10Response response = new JsonRpc10Response("1");
+        channel.writeOutbound(response);
+        ByteBuf buf = (ByteBuf) channel.readOutbound();
+        String s = buf.toString(CharsetUtil.UTF_8);
+        assertEquals('\0', s.charAt(s.length() - 1));
+        JsonNode node = new ObjectMapper().readTree(s.substring(0, s.length() - 1));
+        assertEquals("1", node.get("id").asText());
+        assertTrue(node.get("error").isNull());
+        buf.release();
+        channel.finish();
+    }
+
+    @Test
+    public void testEncodeString() throws Exception {
+        channel.writeOutbound("{}");
+        ByteBuf buf = (ByteBuf) channel.readOutbound();
+        assertEquals("{}\0", buf.toString(CharsetUtil.UTF_8));
+        buf.release();
+        channel.finish();
+    }
+
+    @Test
+    public void testPassThrough() throws Exception {
+        ByteBuf in = copiedBuffer("{}", CharsetUtil.UTF_8);
+        channel.writeOutbound(in);
+        assertSame(in, channel.readOutbound());
+        in.release();
+        channel.finish();
+    }
+}
@@ -11,14 +11,19 @@
 package org.opendaylight.groupbasedpolicy.jsonrpc;
 
 import static io.netty.buffer.Unpooled.copiedBuffer;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.CharsetUtil;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +36,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 public class JsonRpcEndpointTest implements RpcBroker, RpcBroker.RpcCallback {
     protected static final Logger logger = LoggerFactory.getLogger(JsonRpcEndpoint.class);
@@ -200,7 +206,8 @@ public class JsonRpcEndpointTest implements RpcBroker, RpcBroker.RpcCallback {
         decoder = new JsonRpcDecoder(1000);
         JsonRpcServiceBinderHandler binderHandler =
                 new JsonRpcServiceBinderHandler(null);
-        channel = new EmbeddedChannel(decoder, binderHandler);
+        channel = new EmbeddedChannel(decoder,
+                new JsonRpcEncoder(objectMapper), binderHandler);
 
         endpoint = new JsonRpcEndpoint(channel.localAddress().toString(), null,
                 objectMapper, channel, messageMap, this);
@@ -216,7 +223,8 @@ public class JsonRpcEndpointTest implements RpcBroker, RpcBroker.RpcCallback {
         testRpc.setName(TEST_JSON_CLASS_NAME);
         try {
             endpoint.sendRequest(testRpc);
-            Object result = channel.readOutbound();
+            channel.flush();
+            String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
             assertTrue(result != null);
             assertTrue(result.toString().contains("id"));
             assertTrue(result.toString().contains("method"));
@@ -260,25 +268,76 @@ public class JsonRpcEndpointTest implements RpcBroker, RpcBroker.RpcCallback {
 
         try {
             ListenableFuture<Object> lf = endpoint.sendRequest(testRpc);
-            String result = channel.readOutbound().toString();
+            channel.flush();
+            String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
             JsonNode node = objectMapper.readValue(result, JsonNode.class);
-            String idValue = node.path("id").textValue();
+            String idValue = node.path("id").asText();
             String foo = "{ \"id\":\"" + idValue +
                     "\",\"result\":\"foobar\",\"error\":null}";
             testTriggerFlag = false;
             channel.writeInbound(copiedBuffer(foo, CharsetUtil.UTF_8));
             Object tmp = lf.get();
             assertTrue(tmp instanceof JsonRpcEndpointTest.OpflexTest);
+            assertEquals(0, endpoint.getPendingRequests());
+            assertEquals(1, endpoint.getCompletedRequests());
             channel.finish();
          } catch ( Throwable e ) {
             fail();
         }
     }
 
+    @Test
+    public void testRequestTimeout() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonRpcEndpointTest.OpflexTest testRpc = objectMapper.
+                readValue(simpleMessage, JsonRpcEndpointTest.OpflexTest.class);
+        testRpc.setName(TEST_JSON_CLASS_NAME);
+
+        endpoint.setRequestTimeout(50);
+        ListenableFuture<Object> lf = null;
+        try {
+            lf = endpoint.sendRequest(testRpc);
+        } catch (Throwable e) {
+            fail();
+        }
+        assertEquals(1, endpoint.getPendingRequests());
+        try {
+            lf.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, endpoint.getPendingRequests());
+        assertEquals(1, endpoint.getTimedOutRequests());
+        channel.finish();
+    }
+
+    @Test
+    public void testFlushThreshold() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        endpoint.setFlushThreshold(2);
+        assertTrue(endpoint.awaitWritable(1, TimeUnit.SECONDS));
+        try {
+            for (int i = 0; i < 2; i++) {
+                JsonRpcEndpointTest.OpflexTest testRpc = objectMapper.
+                        readValue(simpleMessage, JsonRpcEndpointTest.OpflexTest.class);
+                testRpc.setName(TEST_JSON_CLASS_NAME);
+                endpoint.sendRequest(testRpc);
+            }
+        } catch (Throwable e) {
+            fail();
+        }
+        // the second message reached the threshold, so both were flushed
+        assertTrue(channel.readOutbound() != null);
+        assertTrue(channel.readOutbound() != null);
+        channel.finish();
+    }
+
     @Test
     public void testInboundEchoRequest() throws Exception {
         channel.writeInbound(copiedBuffer(testEchoRequest, CharsetUtil.UTF_8));
-        Object result = channel.readOutbound();
+        channel.flush();
+        String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
         assertTrue(result != null);
         assertTrue(result.toString().contains("id"));
         assertTrue(result.toString().contains("result"));
@@ -286,6 +345,91 @@ public class JsonRpcEndpointTest implements RpcBroker, RpcBroker.RpcCallback {
         channel.finish();
     }
 
+    @Test
+    public void testInboundBatch() throws Exception {
+        String batch = "[" + testEchoRequest.replace("2da9e3d7-0bbe-4099-b343-12783777452f", "1") +
+                "," + testEchoRequest.replace("2da9e3d7-0bbe-4099-b343-12783777452f", "2") +
+                "," + testBadRequest.replace("2da9e3d7-0bbe-4099-b343-12783777452f", "3") + "]";
+        channel.writeInbound(copiedBuffer(batch, CharsetUtil.UTF_8));
+        channel.flush();
+
+        // one reply for the whole batch, without a response to the request
+        // that has no handler
+        String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
+        JsonNode node = new ObjectMapper().readTree(result.substring(0, result.length() - 1));
+        assertTrue(node.isArray());
+        assertEquals(2, node.size());
+        assertEquals("1", node.get(0).get("id").asText());
+        assertEquals("2", node.get(1).get("id").asText());
+        assertTrue(channel.readOutbound() == null);
+        channel.finish();
+    }
+
+    @Test
+    public void testInboundBatchSameId() throws Exception {
+        // the request from the batch doesn't get a response yet
+        String batch = "[" + testRequest.replace("2da9e3d7-0bbe-4099-b343-12783777452f", "1") +
+                "," + testEchoRequest.replace("2da9e3d7-0bbe-4099-b343-12783777452f", "2") + "]";
+        channel.writeInbound(copiedBuffer(batch, CharsetUtil.UTF_8));
+        channel.flush();
+        assertTrue(channel.readOutbound() == null);
+
+        // a request outside the batch with the same id is answered on its own
+        channel.writeInbound(copiedBuffer(testEchoRequest.replace(
+                "2da9e3d7-0bbe-4099-b343-12783777452f", "1"), CharsetUtil.UTF_8));
+        channel.flush();
+        String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
+        JsonNode node = new ObjectMapper().readTree(result.substring(0, result.length() - 1));
+        assertTrue(node.isObject());
+        assertEquals("1", node.get("id").asText());
+        assertTrue(channel.readOutbound() == null);
+        channel.finish();
+    }
+
+    @Test
+    public void testSendRequests() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<RpcMessage> messages = new ArrayList<RpcMessage>();
+        for (int i = 0; i < 3; i++) {
+            JsonRpcEndpointTest.OpflexTest testRpc = objectMapper.
+                    readValue(simpleMessage, JsonRpcEndpointTest.OpflexTest.class);
+            testRpc.setName(TEST_JSON_CLASS_NAME);
+            messages.add(testRpc);
+        }
+
+        List<SettableFuture<Object>> futures = null;
+        try {
+            futures = endpoint.sendRequests(messages);
+        } catch (Throwable e) {
+            fail();
+        }
+        assertEquals(3, futures.size());
+        assertEquals(3, endpoint.getPendingRequests());
+
+        channel.flush();
+        String result = ((ByteBuf) channel.readOutbound()).toString(CharsetUtil.UTF_8);
+        JsonNode node = objectMapper.readTree(result.substring(0, result.length() - 1));
+        assertTrue(node.isArray());
+        assertEquals(3, node.size());
+
+        // answer the batch in reverse order
+        StringBuilder reply = new StringBuilder("[");
+        for (int i = node.size() - 1; i >= 0; i--) {
+            reply.append("{\"id\":").append(node.get(i).get("id").asLong())
+                 .append(",\"result\":\"foobar\",\"error\":null}");
+            if (i > 0) reply.append(",");
+        }
+        reply.append("]");
+        channel.writeInbound(copiedBuffer(reply.toString(), CharsetUtil.UTF_8));
+
+        for (SettableFuture<Object> f : futures) {
+            assertTrue(f.get(1, TimeUnit.SECONDS) instanceof JsonRpcEndpointTest.OpflexTest);
+        }
+        assertEquals(0, endpoint.getPendingRequests());
+        assertEquals(3, endpoint.getCompletedRequests());
+        channel.finish();
+    }
+
     @Test
     public void testOpflexIdentityRequest() throws Exception {
         testTriggerFlag = false;
@@ -22,7 +22,6 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
 
 public class JsonRpcServiceBinderHandlerTest {
     protected static final Logger logger = LoggerFactory.getLogger(JsonRpcEndpoint.class);
@@ -55,14 +54,14 @@ public class JsonRpcServiceBinderHandlerTest {
     public void testRequest() throws Exception {
         channel.writeInbound(copiedBuffer(testRequest, CharsetUtil.UTF_8));
         channel.finish();
-        verify(mockEndpoint).processRequest((JsonNode)anyObject());
+        verify(mockEndpoint).processRequest((JsonRpcFrame)anyObject());
     }
 
     @Test
     public void testResponse() throws Exception {
         channel.writeInbound(copiedBuffer(testResponse, CharsetUtil.UTF_8));
         channel.finish();
-        verify(mockEndpoint).processResult((JsonNode)anyObject());
+        verify(mockEndpoint).processResult((JsonRpcFrame)anyObject());
 
     }
 
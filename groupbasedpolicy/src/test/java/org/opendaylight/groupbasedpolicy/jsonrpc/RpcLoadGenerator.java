@@ -0,0 +1,773 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.groupbasedpolicy.util.LatencyHistogram;
+import org.opendaylight.groupbasedpolicy.util.SerialExecutor;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Load generator for JSON RPC servers. It opens a number of simulated
+ * agent connections over loopback, and has each of them keep a window of
+ * requests outstanding, drawn from a weighted mix of the OpFlex identity,
+ * endpoint declare and resolve, and policy resolve methods. Once the
+ * warm-up period is over, it measures the latency of each method, the
+ * throughput, and the garbage collection during the run, and it reports
+ * them along with the rate at which the agents connected.
+ *
+ * Unless a <code>host</code> is given, the requests are served by an
+ * {@link RpcServer} in the same process, which answers each method with a
+ * canned result. Like the controller, it hands the messages from each
+ * connection to a serial queue on a shared dispatch pool, but it has none
+ * of the OpFlex broker or the renderer behind it, so it only measures the
+ * transport, the serialization and the dispatch. The server also shares
+ * the JVM with the agents, so the garbage collection figures cover both.
+ * Numbers that stand for the controller need a <code>host</code> and
+ * <code>port</code> pointing at a running controller.
+ *
+ * Run with {@link #main(String[])} giving any of the parameters as
+ * <code>name=value</code>: <code>agents</code>, <code>window</code>
+ * (outstanding requests per agent), <code>seconds</code>,
+ * <code>warmup</code> (seconds), <code>timeout</code> (request timeout in
+ * milliseconds), <code>threads</code> (agent event loop threads, 0 for
+ * the Netty default), <code>host</code>, <code>port</code>,
+ * <code>serialization</code> (json or smile) and <code>mix</code>, given
+ * as <code>method:weight</code> pairs separated by commas.
+ */
+public class RpcLoadGenerator {
+
+    public static final String IDENTITY = "send_identity";
+    public static final String ENDPOINT_DECLARE = "endpoint_declare";
+    public static final String ENDPOINT_RESOLVE = "endpoint_resolve";
+    public static final String POLICY_RESOLVE = "policy_resolve";
+
+    private static final String DEFAULT_MIX =
+            IDENTITY + ":1," + ENDPOINT_DECLARE + ":4," +
+            ENDPOINT_RESOLVE + ":4," + POLICY_RESOLVE + ":2";
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private int agents = 100;
+    private int window = 1;
+    private int seconds = 30;
+    private int warmup = 5;
+    private long timeout = JsonRpcEndpoint.DEFAULT_REQUEST_TIMEOUT;
+    private int threads = 0;
+    private String host = null;
+    private int port = 6670;
+    private RpcSerialization serialization = RpcSerialization.JSON;
+    private String mix = DEFAULT_MIX;
+
+    private final ObjectMapper textMapper = new ObjectMapper();
+    private final Map<String, MethodStats> stats =
+            new LinkedHashMap<String, MethodStats>();
+    private String[] methods;
+    private int[] cumulativeWeights;
+
+    private volatile boolean running;
+    private volatile boolean measuring;
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * A generic request, carrying the parameters as a tree so that any
+     * method can be sent
+     */
+    public static class LoadRequest extends RpcMessage {
+        private JsonNode id;
+        private String method;
+        private JsonNode params;
+        @JsonIgnore
+        private String name;
+
+        public LoadRequest() {
+        }
+
+        public LoadRequest(String method, JsonNode params) {
+            this.name = method;
+            this.method = method;
+            this.params = params;
+        }
+
+        @Override
+        public JsonNode getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(JsonNode id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        public JsonNode getParams() {
+            return params;
+        }
+
+        public void setParams(JsonNode params) {
+            this.params = params;
+        }
+
+        @Override
+        @JsonIgnore
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        @JsonIgnore
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean valid() {
+            return true;
+        }
+    }
+
+    /**
+     * A generic response, carrying the result as a tree
+     */
+    public static class LoadResponse extends RpcMessage {
+        private JsonNode id;
+        private JsonNode result;
+        private JsonNode error;
+        @JsonIgnore
+        private String name;
+        @JsonIgnore
+        private String method;
+
+        public LoadResponse() {
+        }
+
+        public LoadResponse(String method) {
+            this.name = method;
+            this.method = method;
+        }
+
+        @Override
+        public JsonNode getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(JsonNode id) {
+            this.id = id;
+        }
+
+        public JsonNode getResult() {
+            return result;
+        }
+
+        public void setResult(JsonNode result) {
+            this.result = result;
+        }
+
+        public JsonNode getError() {
+            return error;
+        }
+
+        public void setError(JsonNode error) {
+            this.error = error;
+        }
+
+        @Override
+        @JsonIgnore
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        @JsonIgnore
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        @Override
+        @JsonIgnore
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        @JsonIgnore
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean valid() {
+            return true;
+        }
+    }
+
+    /**
+     * The measurements for one method
+     */
+    private static class MethodStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong failed = new AtomicLong();
+    }
+
+    /**
+     * The in-process server's side of the conversation: every request
+     * is answered with the canned result for its method, from the
+     * connection's queue on the dispatch pool rather than from the event
+     * loop, the way the controller dispatches
+     */
+    private static class Responder implements ConnectionService, RpcBroker {
+        private final Map<String, JsonNode> results;
+        private final ExecutorService dispatchExecutor;
+        private final ConcurrentMap<JsonRpcEndpoint, SerialExecutor> queues =
+                new ConcurrentHashMap<JsonRpcEndpoint, SerialExecutor>();
+
+        Responder(Map<String, JsonNode> results, ExecutorService dispatchExecutor) {
+            this.results = results;
+            this.dispatchExecutor = dispatchExecutor;
+        }
+
+        @Override
+        public void addConnection(JsonRpcEndpoint endpoint) {
+        }
+
+        @Override
+        public void channelClosed(JsonRpcEndpoint endpoint) throws Exception {
+            queues.remove(endpoint);
+        }
+
+        @Override
+        public void subscribe(RpcMessage message, RpcCallback callback) {
+        }
+
+        @Override
+        public void publish(final JsonRpcEndpoint endpoint, final RpcMessage message) {
+            SerialExecutor queue = queues.get(endpoint);
+            if (queue == null) {
+                queue = new SerialExecutor(dispatchExecutor);
+                SerialExecutor old = queues.putIfAbsent(endpoint, queue);
+                if (old != null) queue = old;
+            }
+            try {
+                queue.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        LoadResponse response = new LoadResponse(message.getMethod());
+                        response.setId(message.getId());
+                        response.setResult(results.get(message.getMethod()));
+                        try {
+                            endpoint.sendResponse(response);
+                        } catch (Throwable t) {
+                            // the agent will see the request time out
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+    }
+
+    /**
+     * The agents' side of the conversation, which only ever gets
+     * responses
+     */
+    private static class AgentService implements ConnectionService, RpcBroker {
+        @Override
+        public void addConnection(JsonRpcEndpoint endpoint) {
+        }
+
+        @Override
+        public void channelClosed(JsonRpcEndpoint endpoint) throws Exception {
+        }
+
+        @Override
+        public void subscribe(RpcMessage message, RpcCallback callback) {
+        }
+
+        @Override
+        public void publish(JsonRpcEndpoint endpoint, RpcMessage message) {
+        }
+    }
+
+    /**
+     * A simulated agent, with its own connection and its own
+     * parameters for each method
+     */
+    private class Agent {
+        private final JsonRpcEndpoint endpoint;
+        private final Map<String, JsonNode> params;
+
+        Agent(JsonRpcEndpoint endpoint, Map<String, JsonNode> params) {
+            this.endpoint = endpoint;
+            this.params = params;
+        }
+
+        /**
+         * Send the next request, and send another when it completes,
+         * until the run is over
+         */
+        void sendNext() {
+            if (!running) {
+                outstanding.decrementAndGet();
+                return;
+            }
+            final String method = chooseMethod();
+            final MethodStats methodStats = stats.get(method);
+            final long start = System.nanoTime();
+            SettableFuture<Object> f;
+            try {
+                f = endpoint.sendRequest(new LoadRequest(method, params.get(method)));
+            } catch (Throwable t) {
+                f = null;
+            }
+            if (f == null) {
+                if (measuring) {
+                    methodStats.failed.incrementAndGet();
+                }
+                outstanding.decrementAndGet();
+                return;
+            }
+            Futures.addCallback(f, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    if (measuring) {
+                        methodStats.latency.record(System.nanoTime() - start);
+                    }
+                    sendNext();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (measuring) {
+                        methodStats.failed.incrementAndGet();
+                    }
+                    Channel channel = endpoint.getChannel();
+                    if (!channel.isActive()) {
+                        outstanding.decrementAndGet();
+                        return;
+                    }
+                    // go through the event loop, so a run of failures
+                    // can't grow the stack
+                    channel.eventLoop().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendNext();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    private void parseMix() {
+        List<String> names = new ArrayList<String>();
+        List<Integer> weights = new ArrayList<Integer>();
+        for (String entry : mix.split(",")) {
+            String[] mw = entry.trim().split(":", 2);
+            int weight = (mw.length == 2) ? Integer.parseInt(mw[1].trim()) : 1;
+            if (weight <= 0) continue;
+            names.add(mw[0].trim());
+            weights.add(weight);
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No methods in mix " + mix);
+        }
+        methods = names.toArray(new String[names.size()]);
+        cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+            stats.put(methods[i], new MethodStats());
+        }
+    }
+
+    private String chooseMethod() {
+        int total = cumulativeWeights[cumulativeWeights.length - 1];
+        int r = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) return methods[i];
+        }
+        return methods[methods.length - 1];
+    }
+
+    /**
+     * Create the parameters an agent sends for a method, shaped like the
+     * OpFlex messages
+     */
+    private JsonNode createParams(String method, int agent) throws Exception {
+        String ep = String.format("/EprL2Universe/EprL2Ep/agent%d", agent);
+        String json;
+        switch (method) {
+            case IDENTITY:
+                json = "[{\"proto_version\":\"1.0\",\"name\":\"agent" + agent + "\"," +
+                       "\"domain\":\"load\",\"my_role\":[\"policy_element\"]}]";
+                break;
+            case ENDPOINT_DECLARE:
+                json = "[{\"prr\":3600,\"endpoint\":[{\"subject\":\"EprL2Ep\"," +
+                       "\"uri\":\"" + ep + "\",\"properties\":[" +
+                       "{\"name\":\"mac\",\"data\":\"00:11:22:33:44:55\"}," +
+                       "{\"name\":\"context\",\"data\":\"default-bd\"}," +
+                       "{\"name\":\"group\",\"data\":\"/PolicyUniverse/PolicySpace/load/GbpEpGroup/web\"}]," +
+                       "\"parent_subject\":\"EprL2Universe\"," +
+                       "\"parent_uri\":\"/EprL2Universe\"," +
+                       "\"parent_relation\":\"EprL2Ep\",\"children\":[]}]}]";
+                break;
+            case ENDPOINT_RESOLVE:
+                json = "[{\"subject\":\"EprL2Ep\",\"endpoint_uri\":\"" + ep + "\"," +
+                       "\"endpoint_ident\":null,\"prr\":3600}]";
+                break;
+            case POLICY_RESOLVE:
+                json = "[{\"subject\":\"GbpEpGroup\"," +
+                       "\"policy_uri\":\"/PolicyUniverse/PolicySpace/load/GbpEpGroup/web\"," +
+                       "\"policy_ident\":null,\"data\":null,\"prr\":3600}]";
+                break;
+            default:
+                json = "[]";
+        }
+        return textMapper.readTree(json);
+    }
+
+    /**
+     * Create the results the in-process server answers with
+     */
+    private Map<String, JsonNode> createResults() throws Exception {
+        StringBuilder policy = new StringBuilder("{\"policy\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) policy.append(",");
+            policy.append("{\"subject\":\"GbpSubject\",")
+                  .append("\"uri\":\"/PolicyUniverse/PolicySpace/load/GbpContract/web/GbpSubject/s")
+                  .append(i).append("\",\"properties\":[{\"name\":\"name\",\"data\":\"s")
+                  .append(i).append("\"}],\"parent_subject\":\"GbpContract\",")
+                  .append("\"parent_uri\":\"/PolicyUniverse/PolicySpace/load/GbpContract/web\",")
+                  .append("\"parent_relation\":\"GbpSubject\",\"children\":[]}");
+        }
+        policy.append("]}");
+
+        Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+        for (String method : methods) {
+            String json;
+            switch (method) {
+                case IDENTITY:
+                    json = "{\"name\":\"controller\",\"domain\":\"load\"," +
+                           "\"my_role\":[\"policy_repository\",\"endpoint_registry\"]," +
+                           "\"peers\":[]}";
+                    break;
+                case ENDPOINT_RESOLVE:
+                    json = "{\"endpoint\":" + createParams(ENDPOINT_DECLARE, 0)
+                                .get(0).get("endpoint") + "}";
+                    break;
+                case POLICY_RESOLVE:
+                    json = policy.toString();
+                    break;
+                default:
+                    json = "{}";
+            }
+            results.put(method, textMapper.readTree(json));
+        }
+        return results;
+    }
+
+    /**
+     * Run the load, and print the report
+     */
+    public void run() throws Exception {
+        parseMix();
+
+        RpcServer server = null;
+        ExecutorService dispatchExecutor = null;
+        InetSocketAddress address;
+        if (host == null) {
+            server = new RpcServer(LOCALHOST, 0);
+            dispatchExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new DefaultThreadFactory("load-dispatch", true));
+            Responder responder = new Responder(createResults(), dispatchExecutor);
+            server.setConnectionService(responder);
+            server.setRpcBroker(responder);
+            server.setSerialization(serialization);
+            for (String method : methods) {
+                server.addMessage(new LoadRequest(method, null));
+            }
+            server.start();
+            address = (InetSocketAddress) server.getChannel().localAddress();
+        } else {
+            address = new InetSocketAddress(host, port);
+        }
+
+        final ObjectMapper objectMapper = serialization.createObjectMapper();
+        final RpcMessageMap messageMap = new RpcMessageMap();
+        for (String method : methods) {
+            messageMap.add(new LoadResponse(method));
+        }
+        final AgentService agentService = new AgentService();
+
+        EventLoopGroup group = new NioEventLoopGroup(threads,
+                new DefaultThreadFactory("load-agent", true));
+        try {
+            Bootstrap b = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        public void initChannel(SocketChannel ch) throws Exception {
+                            ch.pipeline().addLast(
+                                    serialization.createDecoder(objectMapper, Integer.MAX_VALUE),
+                                    serialization.createEncoder(objectMapper));
+                        }
+                    });
+
+            // connect all the agents at once, timing each connection
+            final LatencyHistogram connectLatency = new LatencyHistogram();
+            final AtomicInteger connectFailures = new AtomicInteger();
+            final CountDownLatch connected = new CountDownLatch(agents);
+            List<ChannelFuture> connects = new ArrayList<ChannelFuture>(agents);
+            long connectStart = System.nanoTime();
+            for (int i = 0; i < agents; i++) {
+                final long start = System.nanoTime();
+                ChannelFuture cf = b.connect(address);
+                cf.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            connectLatency.record(System.nanoTime() - start);
+                        } else {
+                            connectFailures.incrementAndGet();
+                        }
+                        connected.countDown();
+                    }
+                });
+                connects.add(cf);
+            }
+            connected.await();
+            long connectNanos = System.nanoTime() - connectStart;
+
+            List<Agent> agentList = new ArrayList<Agent>(agents);
+            for (int i = 0; i < agents; i++) {
+                ChannelFuture cf = connects.get(i);
+                if (!cf.isSuccess()) continue;
+                Channel ch = cf.channel();
+                JsonRpcEndpoint endpoint = new JsonRpcEndpoint(ch.localAddress().toString(),
+                        agentService, objectMapper, ch, messageMap, agentService);
+                endpoint.setRequestTimeout(timeout);
+                ch.pipeline().addLast(new JsonRpcServiceBinderHandler(endpoint));
+                ch.closeFuture().addListener(endpoint);
+
+                Map<String, JsonNode> params = new LinkedHashMap<String, JsonNode>();
+                for (String method : methods) {
+                    params.put(method, createParams(method, i));
+                }
+                agentList.add(new Agent(endpoint, params));
+            }
+
+            System.out.println(String.format(
+                    "Connected %d of %d agents to %s in %d ms " +
+                    "(%.0f connections/s, p50=%dus p99=%dus max=%dus)",
+                    agentList.size(), agents, address,
+                    TimeUnit.NANOSECONDS.toMillis(connectNanos),
+                    agentList.size() * 1e9 / connectNanos,
+                    connectLatency.getPercentile(50),
+                    connectLatency.getPercentile(99),
+                    connectLatency.getMax()));
+            if (connectFailures.get() > 0) {
+                System.out.println(connectFailures.get() + " connections failed");
+            }
+            if (agentList.isEmpty()) return;
+
+            running = true;
+            for (Agent agent : agentList) {
+                for (int w = 0; w < window; w++) {
+                    outstanding.incrementAndGet();
+                    agent.sendNext();
+                }
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+
+            Map<String, long[]> gcBefore = getGcTotals();
+            long measureStart = System.nanoTime();
+            measuring = true;
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            measuring = false;
+            long measureNanos = System.nanoTime() - measureStart;
+            Map<String, long[]> gcAfter = getGcTotals();
+
+            running = false;
+            long drainUntil = System.currentTimeMillis() + timeout;
+            while (outstanding.get() > 0 && System.currentTimeMillis() < drainUntil) {
+                Thread.sleep(10);
+            }
+
+            if (host == null) {
+                System.out.println("In-process server with canned results: these " +
+                        "numbers cover the transport and dispatch only, give " +
+                        "host= and port= to measure a running controller");
+            }
+            report(measureNanos, gcBefore, gcAfter);
+
+            for (Agent agent : agentList) {
+                agent.endpoint.getChannel().close().awaitUninterruptibly();
+            }
+        } finally {
+            group.shutdownGracefully();
+            if (server != null) {
+                server.stop();
+            }
+            if (dispatchExecutor != null) {
+                dispatchExecutor.shutdownNow();
+            }
+        }
+    }
+
+    private static Map<String, long[]> getGcTotals() {
+        Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(gc.getName(),
+                    new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+        }
+        return totals;
+    }
+
+    private void report(long measureNanos,
+            Map<String, long[]> gcBefore, Map<String, long[]> gcAfter) {
+        double measureSeconds = measureNanos / 1e9;
+        System.out.println(String.format(
+                "%d agents, %d outstanding each, %s, %.1f s measured",
+                agents, window, serialization, measureSeconds));
+        System.out.println(String.format("%-18s %10s %10s %8s %8s %8s %8s %8s %8s",
+                "method", "count", "ops/s", "failed",
+                "mean", "p50", "p90", "p99", "max (us)"));
+        long totalCount = 0;
+        long totalFailed = 0;
+        for (Map.Entry<String, MethodStats> e : stats.entrySet()) {
+            LatencyHistogram h = e.getValue().latency;
+            long failed = e.getValue().failed.get();
+            totalCount += h.getCount();
+            totalFailed += failed;
+            System.out.println(String.format("%-18s %10d %10.0f %8d %8d %8d %8d %8d %8d",
+                    e.getKey(), h.getCount(), h.getCount() / measureSeconds, failed,
+                    h.getMean(), h.getPercentile(50), h.getPercentile(90),
+                    h.getPercentile(99), h.getMax()));
+        }
+        System.out.println(String.format("%-18s %10d %10.0f %8d",
+                "total", totalCount, totalCount / measureSeconds, totalFailed));
+
+        long gcMillis = 0;
+        for (Map.Entry<String, long[]> e : gcAfter.entrySet()) {
+            long[] before = gcBefore.get(e.getKey());
+            long count = e.getValue()[0] - (before == null ? 0 : before[0]);
+            long time = e.getValue()[1] - (before == null ? 0 : before[1]);
+            gcMillis += time;
+            System.out.println(String.format("GC %-15s %6d collections %8d ms",
+                    e.getKey(), count, time));
+        }
+        System.out.println(String.format("GC time %.1f%% of the run, %.2f ms per 1000 requests",
+                100.0 * gcMillis / TimeUnit.NANOSECONDS.toMillis(measureNanos),
+                totalCount == 0 ? 0.0 : 1000.0 * gcMillis / totalCount));
+    }
+
+    public static void main(String[] args) throws Exception {
+        RpcLoadGenerator generator = new RpcLoadGenerator();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) usage(arg);
+            try {
+                switch (kv[0]) {
+                    case "agents":
+                        generator.agents = Integer.parseInt(kv[1]);
+                        break;
+                    case "window":
+                        generator.window = Integer.parseInt(kv[1]);
+                        break;
+                    case "seconds":
+                        generator.seconds = Integer.parseInt(kv[1]);
+                        break;
+                    case "warmup":
+                        generator.warmup = Integer.parseInt(kv[1]);
+                        break;
+                    case "timeout":
+                        generator.timeout = Long.parseLong(kv[1]);
+                        break;
+                    case "threads":
+                        generator.threads = Integer.parseInt(kv[1]);
+                        break;
+                    case "host":
+                        generator.host = kv[1];
+                        break;
+                    case "port":
+                        generator.port = Integer.parseInt(kv[1]);
+                        break;
+                    case "serialization":
+                        generator.serialization =
+                                RpcSerialization.valueOf(kv[1].toUpperCase());
+                        break;
+                    case "mix":
+                        generator.mix = kv[1];
+                        break;
+                    default:
+                        usage(arg);
+                }
+            } catch (IllegalArgumentException e) {
+                usage(arg);
+            }
+        }
+        generator.run();
+    }
+
+    private static void usage(String arg) {
+        System.err.println("Bad argument " + arg + "; expected agents=, window=, " +
+                           "seconds=, warmup=, timeout=, threads=, host=, port=, " +
+                           "serialization= or mix=");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.jsonrpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+public class SmileRpcCodecTest {
+
+    private ObjectMapper objectMapper;
+    private EmbeddedChannel encoder;
+    private EmbeddedChannel decoder;
+    private ObjectReader treeReader;
+
+    @Before
+    public void setUp() throws Exception {
+        objectMapper = RpcSerialization.SMILE.createObjectMapper();
+        treeReader = objectMapper.reader(JsonNode.class);
+        encoder = new EmbeddedChannel(RpcSerialization.SMILE.createEncoder(objectMapper));
+        decoder = new EmbeddedChannel(RpcSerialization.SMILE.createDecoder(objectMapper, 1000));
+    }
+
+    private Object roundTrip(Object msg) {
+        encoder.writeOutbound(msg);
+        ByteBuf buf = (ByteBuf) encoder.readOutbound();
+        // deliver the message a byte at a time, to check the framing
+        while (buf.isReadable()) {
+            decoder.writeInbound(buf.readBytes(1));
+        }
+        buf.release();
+        return decoder.readInbound();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        JsonRpc10Response response = new JsonRpc10Response("7");
+        JsonRpcFrame frame = (JsonRpcFrame) roundTrip(response);
+        assertTrue(frame.isResult());
+        assertEquals("7", frame.getId().asText());
+        JsonNode tree = frame.readValue(treeReader);
+        assertTrue(tree.get("error").isNull());
+        frame.release();
+        encoder.finish();
+        decoder.finish();
+    }
+
+    @Test
+    public void testString() throws Exception {
+        JsonRpcFrame frame = (JsonRpcFrame) roundTrip(
+                "{\"method\":\"echo\",\"id\":3,\"params\":[]}");
+        assertEquals("echo", frame.getMethod());
+        assertEquals(3, frame.getId().asInt());
+        assertFalse(frame.isResult());
+        frame.release();
+        encoder.finish();
+        decoder.finish();
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        List<JsonRpc10Response> batch = new ArrayList<JsonRpc10Response>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new JsonRpc10Response(Integer.toString(i)));
+        }
+        JsonRpcBatch rpcBatch = (JsonRpcBatch) roundTrip(batch);
+        assertEquals(3, rpcBatch.getFrames().size());
+        for (int i = 0; i < 3; i++) {
+            JsonRpcFrame frame = rpcBatch.getFrames().get(i);
+            assertTrue(frame.isResult());
+            assertEquals(Integer.toString(i), frame.getId().asText());
+            JsonNode tree = frame.readValue(treeReader);
+            assertEquals(Integer.toString(i), tree.get("id").asText());
+        }
+        rpcBatch.release();
+        encoder.finish();
+        decoder.finish();
+    }
+}
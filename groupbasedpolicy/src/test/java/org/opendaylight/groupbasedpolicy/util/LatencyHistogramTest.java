@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMean());
+        assertEquals(0, h.getPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            h.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        h.record(TimeUnit.MICROSECONDS.toNanos(10000));
+
+        assertEquals(100, h.getCount());
+        assertEquals(199, h.getMean());
+        assertEquals(10000, h.getMax());
+
+        // accurate to within a factor of two
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 100 && p50 < 200);
+        long p99 = h.getPercentile(99);
+        assertTrue(p99 >= 100 && p99 < 200);
+        assertEquals(10000, h.getPercentile(100));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testOrdered() throws InterruptedException {
+        final int count = 1000;
+        final List<Integer> order =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+
+        SerialExecutor serial = new SerialExecutor(pool);
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            serial.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (running.incrementAndGet() > 1)
+                        overlaps.incrementAndGet();
+                    order.add(n);
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+        assertEquals(0, serial.getQueueDepth());
+    }
+
+    @Test
+    public void testParallel() throws InterruptedException {
+        // two queues on the same pool make progress at the same time
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                bothRunning.countDown();
+                try {
+                    if (bothRunning.await(5, TimeUnit.SECONDS))
+                        done.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        new SerialExecutor(pool).execute(task);
+        new SerialExecutor(pool).execute(task);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailedTask() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        SerialExecutor serial = new SerialExecutor(pool);
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejected() {
+        pool.shutdown();
+        SerialExecutor serial = new SerialExecutor(pool);
+        try {
+            serial.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fail();
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(0, serial.getQueueDepth());
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.GetConvergenceTracesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.GetConvergenceTracesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.GetConvergenceTracesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfoverlayService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.get.convergence.traces.output.ConvergenceTrace;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.get.convergence.traces.output.ConvergenceTraceBuilder;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Trace how long it takes for an endpoint or policy change to make it
+ * into the flows on the switches.  A sample of the changes seen by the
+ * policy manager are tagged with a {@link Trace}, which is carried through
+ * the dirty state into the flow update cycle that handles the change.
+ * Once the cycle is done the trace is kept in a fixed-size ring buffer
+ * that can be queried with the get-convergence-traces RPC.
+ *
+ * Each trace breaks the time down into the stages:
+ * <ul>
+ * <li>registration: from the endpoint registration until the renderer is
+ * notified, if the endpoint carries a registration timestamp</li>
+ * <li>queue: until the flow update cycle that handles the change starts,
+ * which includes the delay used to batch up changes</li>
+ * <li>first switch: until the first switch in the cycle has been computed
+ * and committed</li>
+ * <li>all switches: until every switch in the cycle has been committed</li>
+ * </ul>
+ */
+public class ConvergenceTracer implements OfoverlayService {
+    /**
+     * The number of traces kept
+     */
+    public static final int RING_SIZE = 1024;
+
+    public static final String TRIGGER_ENDPOINT = "endpoint";
+    public static final String TRIGGER_POLICY = "policy";
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile int sampleRate = 0;
+
+    private final AtomicReferenceArray<Trace> ring =
+            new AtomicReferenceArray<>(RING_SIZE);
+    private final AtomicLong ringPos = new AtomicLong();
+
+    /**
+     * Set the fraction of changes to trace
+     * @param sampleRate trace one in this many changes, or 0 to disable
+     * tracing
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(0, sampleRate);
+    }
+
+    /**
+     * Decide whether to trace the next change.  This is cheap enough to
+     * call for every change.
+     * @return <code>true</code> if the change should be traced
+     */
+    public boolean sample() {
+        int rate = sampleRate;
+        if (rate <= 0) return false;
+        return (changes.incrementAndGet() % rate == 0);
+    }
+
+    /**
+     * Start a new trace
+     * @param trigger the kind of change, such as {@link #TRIGGER_ENDPOINT}
+     * @param subject a description of what changed
+     * @param originMillis the wall clock time at which the change was
+     * originally made, or <code>null</code> if unknown
+     * @return the {@link Trace}
+     */
+    public Trace startTrace(String trigger, String subject,
+                            Long originMillis) {
+        return new Trace(nextId.incrementAndGet(), trigger, subject,
+                         originMillis);
+    }
+
+    /**
+     * Get the most recent completed traces, newest first
+     * @param max the maximum number of traces to return
+     * @return the traces
+     */
+    public List<Trace> getTraces(int max) {
+        List<Trace> result = new ArrayList<>();
+        long end = ringPos.get();
+        for (long i = end - 1;
+             i >= 0 && i >= end - RING_SIZE && result.size() < max; i--) {
+            Trace t = ring.get((int)(i % RING_SIZE));
+            if (t != null) result.add(t);
+        }
+        return result;
+    }
+
+    // ****************
+    // OfoverlayService
+    // ****************
+
+    @Override
+    public Future<RpcResult<GetConvergenceTracesOutput>>
+        getConvergenceTraces(GetConvergenceTracesInput input) {
+        int max = RING_SIZE;
+        if (input != null && input.getMaxTraces() != null)
+            max = (int)Math.min(RING_SIZE, input.getMaxTraces().longValue());
+
+        List<ConvergenceTrace> traces = new ArrayList<>();
+        for (Trace t : getTraces(max)) {
+            ConvergenceTraceBuilder tb = new ConvergenceTraceBuilder()
+                .setTraceId(BigInteger.valueOf(t.getId()))
+                .setTrigger(t.getTrigger())
+                .setSubject(t.getSubject())
+                .setStartTime(t.getStartMillis())
+                .setComplete(t.isComplete())
+                .setSwitches(Long.valueOf(t.getSwitches()))
+                .setQueueLatency(big(t.getQueueMicros()))
+                .setFirstSwitchLatency(big(t.getFirstSwitchMicros()))
+                .setAllSwitchesLatency(big(t.getAllSwitchesMicros()));
+            if (t.getRegistrationMillis() != null)
+                tb.setRegistrationLatency(t.getRegistrationMillis());
+            traces.add(tb.build());
+        }
+        GetConvergenceTracesOutput output =
+                new GetConvergenceTracesOutputBuilder()
+                    .setConvergenceTrace(traces)
+                    .build();
+        return Futures.immediateFuture(RpcResultBuilder
+                                       .<GetConvergenceTracesOutput>success(output)
+                                       .build());
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private static BigInteger big(long value) {
+        return (value < 0) ? null : BigInteger.valueOf(value);
+    }
+
+    private void record(Trace trace) {
+        ring.set((int)(ringPos.getAndIncrement() % RING_SIZE), trace);
+    }
+
+    /**
+     * The timeline for a single traced change
+     */
+    public class Trace {
+        private final long id;
+        private final String trigger;
+        private final String subject;
+        private final Long originMillis;
+        private final long startMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+
+        // Times are relative to the start of the trace, or -1 if unset
+        private volatile long cycleNanos = -1;
+        private final AtomicLong firstSwitchNanos = new AtomicLong(-1);
+        private volatile long doneNanos = -1;
+        private volatile int switches;
+        private volatile boolean complete;
+
+        private Trace(long id, String trigger, String subject,
+                      Long originMillis) {
+            super();
+            this.id = id;
+            this.trigger = trigger;
+            this.subject = subject;
+            this.originMillis = originMillis;
+        }
+
+        /**
+         * The flow update cycle handling this change has started
+         * @param switches the number of switches in the cycle
+         */
+        public void cycleStarted(int switches) {
+            this.switches = switches;
+            cycleNanos = elapsed();
+        }
+
+        /**
+         * A switch in the flow update cycle has been committed
+         */
+        public void switchDone() {
+            firstSwitchNanos.compareAndSet(-1, elapsed());
+        }
+
+        /**
+         * The flow update cycle handling this change is done
+         * @param complete <code>true</code> if every switch in the cycle
+         * was updated successfully
+         */
+        public void cycleDone(boolean complete) {
+            this.complete = complete;
+            doneNanos = elapsed();
+            record(this);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTrigger() {
+            return trigger;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        /**
+         * @return the wall clock time at which the renderer saw the change
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public int getSwitches() {
+            return switches;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return the time from the original change until the renderer saw
+         * it in milliseconds, or <code>null</code> if unknown
+         */
+        public Long getRegistrationMillis() {
+            if (originMillis == null) return null;
+            return Long.valueOf(startMillis - originMillis.longValue());
+        }
+
+        /**
+         * @return the time until the flow update cycle started in
+         * microseconds, or -1
+         */
+        public long getQueueMicros() {
+            return micros(cycleNanos);
+        }
+
+        /**
+         * @return the time until the first switch was done in
+         * microseconds, or -1
+         */
+        public long getFirstSwitchMicros() {
+            return micros(firstSwitchNanos.get());
+        }
+
+        /**
+         * @return the time until every switch was done in microseconds,
+         * or -1
+         */
+        public long getAllSwitchesMicros() {
+            return micros(doneNanos);
+        }
+
+        private long elapsed() {
+            return System.nanoTime() - startNanos;
+        }
+
+        private long micros(long nanos) {
+            if (nanos < 0) return -1;
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Trace [id=" + id + ", trigger=" + trigger +
+                   ", subject=" + subject +
+                   ", registration=" + getRegistrationMillis() +
+                   "ms, queue=" + getQueueMicros() +
+                   "us, firstSwitch=" + getFirstSwitchMicros() +
+                   "us, allSwitches=" + getAllSwitchesMicros() +
+                   "us, switches=" + switches +
+                   ", complete=" + complete + "]";
+        }
+    }
+}
@@ -11,6 +11,8 @@ package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -18,9 +20,10 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 
+import javax.annotation.concurrent.Immutable;
+
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.DataChangeListener;
 import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
@@ -41,6 +44,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.r
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoint.fields.L3AddressBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointKey;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointL3Builder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayConfig.LearningMode;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayContext;
@@ -59,8 +63,9 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.CheckedFuture;
 import com.google.common.util.concurrent.FutureCallback;
@@ -72,6 +77,11 @@ import com.google.common.util.concurrent.Futures;
  * appropriate indexes only for switches that are attached to the current
  * controller node.
  * 
+ * The complete endpoint object is kept only for endpoints on switches that
+ * are attached to us.  For endpoints on remote switches we only need
+ * enough to program tunnels and group buckets towards them, so we keep
+ * a compact summary instead.
+ * 
  * In order to render the policy, we need to be able to efficiently enumerate
  * all endpoints on a particular switch and also all the switches containing 
  * each particular endpoint group
@@ -83,8 +93,6 @@ public class EndpointManager
     {
     private static final Logger LOG = 
             LoggerFactory.getLogger(EndpointManager.class);
-    private final static InstanceIdentifier<Nodes> nodesIid = InstanceIdentifier
-            .builder(Nodes.class).build();
     private final static InstanceIdentifier<Node> nodeIid = InstanceIdentifier
             .builder(Nodes.class).child(Node.class).build();
     private ListenerRegistration<DataChangeListener> nodesReg;
@@ -96,19 +104,60 @@ public class EndpointManager
 
     private final ConcurrentHashMap<EpKey, Endpoint> endpoints =
             new ConcurrentHashMap<>();
+
+    /**
+     * The endpoints for which {@link #endpoints} holds only a summary
+     */
+    private final Set<EpKey> summarized = 
+            Collections.newSetFromMap(new ConcurrentHashMap<EpKey, Boolean>());
     private final ConcurrentHashMap<NodeId, 
                                     ConcurrentMap<EgKey, Set<EpKey>>> endpointsByNode =
             new ConcurrentHashMap<>();
     private final ConcurrentHashMap<EgKey, Set<EpKey>> endpointsByGroup = 
             new ConcurrentHashMap<>();
+
+    /**
+     * Index of endpoints by port name, used to learn endpoint locations
+     * when a port appears on a switch
+     */
+    private final ConcurrentHashMap<String, Set<EpKey>> endpointsByPort =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Index of switch ports by port name, maintained from the inventory
+     */
+    private final ConcurrentHashMap<String, NodeInfo> nodeConnectorsByPort =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Reverse index of {@link #endpointsByNode}.  The values are immutable
+     * and replaced wholesale under the lock on the map, so readers always
+     * see a consistent snapshot.
+     */
+    private final ConcurrentHashMap<EgKey, Set<NodeId>> nodesByGroup =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The distinct sets of condition labels in use by the endpoints in each
+     * endpoint group, globally and per node.  This lets the renderer work
+     * in terms of condition classes rather than individual endpoints.
+     */
+    private final CondIndex condsByGroup = new CondIndex();
+    private final ConcurrentHashMap<NodeId, CondIndex> condsByNode =
+            new ConcurrentHashMap<>();
             
     private List<EndpointListener> listeners = new CopyOnWriteArrayList<>();
 
+    private final SwitchManager switchManager;
+
     public EndpointManager(DataBroker dataProvider,
                            RpcProviderRegistry rpcRegistry,
                            ScheduledExecutorService executor,
                            SwitchManager switchManager) {
         super(dataProvider, rpcRegistry, executor);
+        this.switchManager = switchManager;
+        if (switchManager != null)
+            switchManager.registerListener(new LocalitySwitchListener());
         
         if (dataProvider != null) {
             listenerReg = dataProvider
@@ -150,22 +199,14 @@ public class EndpointManager
     }
     
     /**
-     * Get the set of nodes
-     * @param nodeId the nodeId of the switch to get endpoints for
-     * @return a collection of {@link Endpoint} objects.
+     * Get the set of nodes that have endpoints in the given endpoint group
+     * @param egKey the endpoint group to look up
+     * @return an immutable snapshot of the set of nodes
      */
     public Set<NodeId> getNodesForGroup(final EgKey egKey) {
-        return Collections.unmodifiableSet(Sets.filter(endpointsByNode.keySet(),
-                                                       new Predicate<NodeId>() {
-            @Override
-            public boolean apply(NodeId input) {
-                Map<EgKey, Set<EpKey>> nodeEps = 
-                        endpointsByNode.get(input);
-                return (nodeEps != null && 
-                        nodeEps.containsKey(egKey));
-            }
-
-        }));
+        Set<NodeId> nodes = nodesByGroup.get(egKey);
+        if (nodes == null) return Collections.emptySet();
+        return nodes;
     }
     
     /**
@@ -185,7 +226,9 @@ public class EndpointManager
     }
 
     /**
-     * Get the endpoint object for the given key
+     * Get the endpoint object for the given key.  For an endpoint on a
+     * switch that is not attached to us this is a summary containing only
+     * the tenant, endpoint group, addresses, conditions and location.
      * @param epKey the key
      * @return the {@link Endpoint} corresponding to the key
      */
@@ -227,6 +270,31 @@ public class EndpointManager
         else return Collections.emptyList();
     }
     
+    /**
+     * Get the distinct lists of effective conditions for the endpoints in
+     * the given endpoint group.  Every endpoint in the group has a condition
+     * list equivalent to one of the lists returned.
+     * @param eg the endpoint group to look up
+     * @return an immutable snapshot of the distinct condition lists
+     */
+    public Collection<List<ConditionName>> getCondsForGroup(EgKey eg) {
+        return condsByGroup.get(eg);
+    }
+
+    /**
+     * Get the distinct lists of effective conditions for the endpoints in
+     * the given endpoint group that are attached to the given node.
+     * @param nodeId the node ID to look up
+     * @param eg the endpoint group to look up
+     * @return an immutable snapshot of the distinct condition lists
+     */
+    public Collection<List<ConditionName>> getCondsForNode(NodeId nodeId,
+                                                           EgKey eg) {
+        CondIndex index = condsByNode.get(nodeId);
+        if (index == null) return Collections.emptyList();
+        return index.get(eg);
+    }
+
     // ************************
     // AbstractEndpointRegistry
     // ************************
@@ -292,124 +360,167 @@ public class EndpointManager
                 if (!(dao instanceof Node))
                     continue;
                 Node node = (Node) dao;
+                indexNodeConnectors(null, node);
                 if (node.getNodeConnector() != null) {
                     executor.execute(new UpdateEndpoint(node));
-                    return;
                 }
             }
-            for (DataObject dao : change.getUpdatedData().values()) {
-                if (!(dao instanceof Node))
+            for (Entry<InstanceIdentifier<?>, DataObject> entry : 
+                    change.getUpdatedData().entrySet()) {
+                if (!(entry.getValue() instanceof Node))
                     continue;
-                Node node = (Node) dao;
+                Node node = (Node) entry.getValue();
+                DataObject old = change.getOriginalData().get(entry.getKey());
+                indexNodeConnectors((old instanceof Node) ? (Node) old : null,
+                                    node);
                 if (node.getNodeConnector() != null) {
                     executor.execute(new UpdateEndpoint(node));
-                    return;
                 }
             }
+            for (InstanceIdentifier<?> iid : change.getRemovedPaths()) {
+                DataObject old = change.getOriginalData().get(iid);
+                if (old instanceof Node)
+                    indexNodeConnectors((Node) old, null);
+            }
         }
     }
 
     private class UpdateEndpoint implements Runnable {
         private final Node node;
-        private final InstanceIdentifier<Endpoints> endpointsIid;
 
         public UpdateEndpoint(Node node) {
             this.node = node;
-            this.endpointsIid=InstanceIdentifier.builder(Endpoints.class).build();
         }
         @Override
         public void run() {
-            Optional<Endpoints> epResult;
-            EpKey epKey=null;
+            WriteTransaction tx = dataProvider.newWriteOnlyTransaction();
+            List<EpKey> updated = new ArrayList<>();
             for (NodeConnector nc : node.getNodeConnector()) {
-                FlowCapableNodeConnector fcnc = nc
-                        .getAugmentation(FlowCapableNodeConnector.class);
-                try {
-                    epResult = dataProvider.newReadOnlyTransaction().read(LogicalDatastoreType.OPERATIONAL, endpointsIid).get();
-                    if(epResult.isPresent()) {
-                        Endpoints endpoints = epResult.get();
-                        if(endpoints.getEndpoint() != null) {
-                            WriteTransaction tx = dataProvider.newWriteOnlyTransaction();
-                            Boolean isEmpty = true;
-                            for (Endpoint ep : endpoints.getEndpoint()){
-                                // 2. Search for portname
-                                OfOverlayContext currentAugmentation = ep.getAugmentation(OfOverlayContext.class);
-                                if(ep.getPortName().getValue().equals(fcnc.getName())) {
-                                    NodeId nodeId;
-                                    NodeConnectorId nodeConnectorId;
-                                    try {
-                                        nodeId=currentAugmentation.getNodeId();
-                                        nodeConnectorId=currentAugmentation.getNodeConnectorId();
-                                    } catch (Exception e) {
-                                        nodeId = null;
-                                        nodeConnectorId = null;
-                                    }
-                                    Boolean process=false;
-                                    if(nodeId==null && nodeConnectorId ==null) {
-                                        LOG.debug("ep NodeID and NC ID Both null");
-                                        process=true;
-                                    }
-                                    if(nodeId!=null && nodeConnectorId !=null) {
-                                        if (!(nodeConnectorId.getValue().equals(nc.getId().getValue()))) {
-                                            LOG.debug("ep NodeID and NC ID Both NOT null but epNCID !=nodeNCID");
-                                            process=true;
-                                        }
-                                    }
-                                    if(process) {
-                                        // 3. Update endpoint
-                                        EndpointBuilder epBuilder = new EndpointBuilder(ep);
-                                        OfOverlayContextBuilder ofOverlayAugmentation = new OfOverlayContextBuilder();
-                                        ofOverlayAugmentation.setNodeId(node.getId());
-                                        ofOverlayAugmentation.setNodeConnectorId(nc.getId());
-                                        epBuilder.addAugmentation(OfOverlayContext.class,ofOverlayAugmentation.build());
-                                        //TODO Hack to remove:
-                                        List<L3Address> l3Addresses= new ArrayList<>();
-                                        for(L3Address l3Address: ep.getL3Address()) {
-                                            L3AddressBuilder l3AB = new L3AddressBuilder();
-                                            l3AB.setIpAddress(l3Address.getIpAddress()).setL3Context(l3Address.getL3Context());
-                                            l3Addresses.add(l3AB.build());
-                                        }
-                                        epBuilder.setL3Address(l3Addresses);
-                                        InstanceIdentifier<Endpoint> iidEp = InstanceIdentifier.builder(Endpoints.class).child(Endpoint.class,ep.getKey()).build();
-                                        tx.put(LogicalDatastoreType.OPERATIONAL, iidEp, epBuilder.build());
-                                        epKey=new EpKey(ep.getKey().getL2Context(),ep.getKey().getMacAddress());
-                                        LOG.debug("Values:");
-                                        LOG.debug("node: Node ID:"+node.getId().getValue());
-                                        LOG.debug("node: NodeConnectorID: "+nc.getId().getValue());
-                                        if(nodeId!=null && nodeConnectorId != null) {
-                                            LOG.debug("ep: nodeID:"+nodeId.getValue());
-                                            LOG.debug("ep: nodeConnectorID:"+nodeConnectorId.getValue());
-                                        }
-                                        isEmpty=false;
-                                    }
-                                }
-                            }
-                            if(!isEmpty) {
-                                CheckedFuture<Void, TransactionCommitFailedException> f = tx.submit();
-                                notifyEndpointUpdated(epKey);
-                                Futures.addCallback(f, new FutureCallback<Void>() {
-                                    @Override
-                                    public void onFailure(Throwable t) {
-                                        LOG.error("Could not over-write endpoint with augmentation", t);
-                                    }
-
-                                    @Override
-                                    public void onSuccess(Void result) {
-                                        LOG.debug("Success over-writing endpoint augmentation");
-                                    }
-                                });
-                            } else {
-                                LOG.debug("UpdateEndpoint: Empty list");
-                            }
+                String portName = getPortName(nc);
+                if (portName == null) continue;
+
+                // 1. Look up the endpoints attached to this port name
+                Set<EpKey> epKeys = endpointsByPort.get(portName);
+                if (epKeys == null) continue;
+                for (EpKey key : epKeys) {
+                    Endpoint ep = endpoints.get(key);
+                    if (ep == null) continue;
+
+                    // 2. Check whether the location needs to change
+                    OfOverlayContext currentAugmentation = ep.getAugmentation(OfOverlayContext.class);
+                    NodeId nodeId = null;
+                    NodeConnectorId nodeConnectorId = null;
+                    if (currentAugmentation != null) {
+                        nodeId = currentAugmentation.getNodeId();
+                        nodeConnectorId = currentAugmentation.getNodeConnectorId();
+                    }
+                    Boolean process=false;
+                    if(nodeId==null && nodeConnectorId ==null) {
+                        LOG.debug("ep NodeID and NC ID Both null");
+                        process=true;
+                    }
+                    if(nodeId!=null && nodeConnectorId !=null) {
+                        if (!(nodeConnectorId.getValue().equals(nc.getId().getValue()))) {
+                            LOG.debug("ep NodeID and NC ID Both NOT null but epNCID !=nodeNCID");
+                            process=true;
+                        }
+                    }
+                    if(process) {
+                        // 3. Update endpoint
+                        ep = readEndpoint(key);
+                        if (ep == null) continue;
+                        EndpointBuilder epBuilder = new EndpointBuilder(ep);
+                        OfOverlayContextBuilder ofOverlayAugmentation = new OfOverlayContextBuilder();
+                        ofOverlayAugmentation.setNodeId(node.getId());
+                        ofOverlayAugmentation.setNodeConnectorId(nc.getId());
+                        epBuilder.addAugmentation(OfOverlayContext.class,ofOverlayAugmentation.build());
+                        //TODO Hack to remove:
+                        List<L3Address> l3Addresses= new ArrayList<>();
+                        for(L3Address l3Address: ep.getL3Address()) {
+                            L3AddressBuilder l3AB = new L3AddressBuilder();
+                            l3AB.setIpAddress(l3Address.getIpAddress()).setL3Context(l3Address.getL3Context());
+                            l3Addresses.add(l3AB.build());
+                        }
+                        epBuilder.setL3Address(l3Addresses);
+                        InstanceIdentifier<Endpoint> iidEp = InstanceIdentifier.builder(Endpoints.class).child(Endpoint.class,ep.getKey()).build();
+                        tx.put(LogicalDatastoreType.OPERATIONAL, iidEp, epBuilder.build());
+                        updated.add(key);
+                        LOG.debug("Values:");
+                        LOG.debug("node: Node ID:"+node.getId().getValue());
+                        LOG.debug("node: NodeConnectorID: "+nc.getId().getValue());
+                        if(nodeId!=null && nodeConnectorId != null) {
+                            LOG.debug("ep: nodeID:"+nodeId.getValue());
+                            LOG.debug("ep: nodeConnectorID:"+nodeConnectorId.getValue());
                         }
                     }
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
-                    LOG.warn("Caught exception in UpdateEndpoint");
                 }
             }
+            if(!updated.isEmpty()) {
+                CheckedFuture<Void, TransactionCommitFailedException> f = tx.submit();
+                for (EpKey key : updated) {
+                    notifyEndpointUpdated(key);
+                }
+                Futures.addCallback(f, new FutureCallback<Void>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                        LOG.error("Could not over-write endpoint with augmentation", t);
+                    }
+
+                    @Override
+                    public void onSuccess(Void result) {
+                        LOG.debug("Success over-writing endpoint augmentation");
+                    }
+                });
+            } else {
+                tx.cancel();
+                LOG.debug("UpdateEndpoint: Empty list");
+            }
         }
     }
+
+    /**
+     * Keep full detail only for endpoints on switches that are attached to
+     * us, as switches come and go
+     */
+    private class LocalitySwitchListener implements SwitchListener {
+        @Override
+        public void switchReady(final NodeId sw) {
+            if (dataProvider == null) return;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (EpKey key : getEpKeysForNode(sw)) {
+                        Endpoint summary = endpoints.get(key);
+                        if (summary == null || !summarized.contains(key))
+                            continue;
+                        Endpoint ep = readEndpoint(key);
+                        if (ep == null || !sw.equals(getLocation(ep)))
+                            continue;
+                        if (endpoints.replace(key, summary, ep)) {
+                            summarized.remove(key);
+                            notifyEndpointUpdated(key);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void switchRemoved(NodeId sw) {
+            for (EpKey key : getEpKeysForNode(sw)) {
+                Endpoint ep = endpoints.get(key);
+                if (ep == null || summarized.contains(key)) continue;
+                if (endpoints.replace(key, ep, summarize(ep)))
+                    summarized.add(key);
+            }
+        }
+
+        @Override
+        public void switchUpdated(NodeId sw) {
+            // no-op
+        }
+    }
+
     // **************
     // Implementation
     // **************
@@ -440,6 +551,77 @@ public class EndpointManager
         }
     };
     
+    /**
+     * Check whether we should keep the complete endpoint object for an
+     * endpoint at the given location.  Endpoints with no location are kept
+     * in full so that they can be learned when their port shows up on one
+     * of our switches.
+     */
+    private boolean isLocal(NodeId location) {
+        if (location == null || switchManager == null) return true;
+        return switchManager.isSwitchReady(location);
+    }
+
+    /**
+     * Reduce an endpoint to what we need to render policy towards it from
+     * a remote switch
+     */
+    private static Endpoint summarize(Endpoint endpoint) {
+        List<L3Address> l3Addresses = null;
+        if (endpoint.getL3Address() != null) {
+            l3Addresses = new ArrayList<>(endpoint.getL3Address().size());
+            for (L3Address l3a : endpoint.getL3Address()) {
+                l3Addresses.add(new L3AddressBuilder()
+                    .setIpAddress(l3a.getIpAddress())
+                    .setL3Context(l3a.getL3Context())
+                    .build());
+            }
+        }
+        EndpointBuilder eb = new EndpointBuilder()
+            .setTenant(endpoint.getTenant())
+            .setEndpointGroup(endpoint.getEndpointGroup())
+            .setL2Context(endpoint.getL2Context())
+            .setMacAddress(endpoint.getMacAddress())
+            .setL3Address(l3Addresses)
+            .setCondition(endpoint.getCondition());
+        OfOverlayContext ofc = endpoint.getAugmentation(OfOverlayContext.class);
+        if (ofc != null)
+            eb.addAugmentation(OfOverlayContext.class, ofc);
+        return eb.build();
+    }
+
+    /**
+     * Get the complete endpoint object for the given key, reading it from
+     * the data store if we are only holding a summary
+     */
+    private Endpoint readEndpoint(EpKey key) {
+        if (!summarized.contains(key)) return endpoints.get(key);
+        InstanceIdentifier<Endpoint> iid = 
+                InstanceIdentifier.builder(Endpoints.class)
+                    .child(Endpoint.class, 
+                           new EndpointKey(key.getL2Context(), 
+                                           key.getMacAddress()))
+                    .build();
+        try {
+            Optional<Endpoint> r = dataProvider.newReadOnlyTransaction()
+                    .read(LogicalDatastoreType.OPERATIONAL, iid).get();
+            if (r.isPresent()) return r.get();
+        } catch (Exception e) {
+            LOG.error("Could not read endpoint {}", key, e);
+        }
+        return null;
+    }
+
+    private Collection<EpKey> getEpKeysForNode(NodeId nodeId) {
+        Map<EgKey, Set<EpKey>> nodeEps = endpointsByNode.get(nodeId);
+        if (nodeEps == null) return Collections.emptyList();
+        List<EpKey> result = new ArrayList<>();
+        for (Set<EpKey> eps : nodeEps.values()) {
+            result.addAll(eps);
+        }
+        return result;
+    }
+
     private boolean validEp(Endpoint endpoint) {
         return (endpoint != null && endpoint.getTenant() != null && 
                 endpoint.getEndpointGroup() != null &&
@@ -482,6 +664,45 @@ public class EndpointManager
         return SetUtils.getNestedSet(eg, map);
     }
     
+    /**
+     * Bring the entry for the given node in {@link #nodesByGroup} in line 
+     * with {@link #endpointsByNode}
+     */
+    private void updateNodesForGroup(NodeId location, EgKey eg) {
+        synchronized (nodesByGroup) {
+            Map<EgKey, Set<EpKey>> nodeEps = endpointsByNode.get(location);
+            Set<EpKey> eps = (nodeEps == null) ? null : nodeEps.get(eg);
+            boolean present = (eps != null && !eps.isEmpty());
+
+            Set<NodeId> nodes = nodesByGroup.get(eg);
+            if (nodes == null) nodes = Collections.emptySet();
+            if (present == nodes.contains(location)) return;
+
+            if (present) {
+                nodesByGroup.put(eg, ImmutableSet.<NodeId>builder()
+                                 .addAll(nodes)
+                                 .add(location)
+                                 .build());
+            } else if (nodes.size() == 1) {
+                nodesByGroup.remove(eg);
+            } else {
+                nodesByGroup.put(eg, ImmutableSet.copyOf(Sets.difference(nodes,
+                                       Collections.singleton(location))));
+            }
+        }
+    }
+
+    private CondIndex getCondIndex(NodeId location) {
+        CondIndex index = condsByNode.get(location);
+        if (index == null) {
+            index = new CondIndex();
+            CondIndex old = condsByNode.putIfAbsent(location, index);
+            if (old != null)
+                index = old;
+        }
+        return index;
+    }
+
     private static final ConcurrentMap<EgKey, Set<EpKey>> EMPTY_MAP =
             new ConcurrentHashMap<>();
 
@@ -493,8 +714,6 @@ public class EndpointManager
      * Update the endpoint indexes.  Set newEp to null to remove.
      */
     protected void updateEndpoint(Endpoint oldEp, Endpoint newEp) {
-        // XXX TODO only keep track of endpoints that are attached 
-        // to switches that are actually connected to us
         NodeId oldLoc = getLocation(oldEp);
         NodeId newLoc = getLocation(newEp);
 
@@ -510,8 +729,16 @@ public class EndpointManager
         boolean notifyOldEg = false;
         boolean notifyNewEg = false;
         
-        if (newEp != null)
-            endpoints.put(epKey, newEp);
+        Endpoint indexedEp = endpoints.get(epKey);
+        if (newEp != null) {
+            if (isLocal(newLoc)) {
+                endpoints.put(epKey, newEp);
+                summarized.remove(epKey);
+            } else {
+                endpoints.put(epKey, summarize(newEp));
+                summarized.add(epKey);
+            }
+        }
 
         if (oldLoc != null && oldKey != null &&
             (newLoc == null || !oldLoc.equals(newLoc) ||
@@ -522,6 +749,7 @@ public class EndpointManager
             eps.remove(epKey);
             map.remove(oldKey, Collections.emptySet());
             endpointsByNode.remove(oldLoc, EMPTY_MAP);
+            updateNodesForGroup(oldLoc, oldKey);
             notifyOldLoc = true;
         }
         if (oldKey != null &&
@@ -534,6 +762,7 @@ public class EndpointManager
         if (newLoc != null && newKey != null) {
             Set<EpKey> eps = getEpNGSet(newLoc, newKey);
             eps.add(epKey);
+            updateNodesForGroup(newLoc, newKey);
             LOG.debug("Endpoint {} added to node {}", epKey, newLoc);
             notifyNewLoc = true;
         }
@@ -544,8 +773,30 @@ public class EndpointManager
             notifyNewEg = true;
         }
 
-        if (newEp == null)
+        if (newEp == null) {
             endpoints.remove(epKey);
+            summarized.remove(epKey);
+        }
+
+        // a summary does not carry the port name
+        indexEndpointPort(epKey, oldEp != null ? oldEp : indexedEp, newEp);
+
+        // the condition index is reference counted, so remove whatever we
+        // previously indexed for this endpoint rather than trusting oldEp
+        EgKey indexedKey = getEgKey(indexedEp);
+        if (indexedKey != null) {
+            NodeId indexedLoc = getLocation(indexedEp);
+            List<ConditionName> conds = getCondsForEndpoint(indexedEp);
+            condsByGroup.remove(indexedKey, conds);
+            if (indexedLoc != null)
+                getCondIndex(indexedLoc).remove(indexedKey, conds);
+        }
+        if (newKey != null) {
+            List<ConditionName> conds = getCondsForEndpoint(newEp);
+            condsByGroup.add(newKey, conds);
+            if (newLoc != null)
+                getCondIndex(newLoc).add(newKey, conds);
+        }
         
         notifyEndpointUpdated(epKey);
 
@@ -559,6 +810,52 @@ public class EndpointManager
             notifyGroupEndpointUpdated(newKey, epKey);
     }
 
+    /**
+     * Reference-counted index of the distinct condition label sets present
+     * in each endpoint group
+     */
+    private static class CondIndex {
+        private final Map<EgKey, Map<Set<ConditionName>, Integer>> index =
+                new HashMap<>();
+
+        public synchronized void add(EgKey eg, List<ConditionName> conds) {
+            Map<Set<ConditionName>, Integer> counts = index.get(eg);
+            if (counts == null) {
+                counts = new HashMap<>();
+                index.put(eg, counts);
+            }
+            Set<ConditionName> key = ImmutableSet.copyOf(conds);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+
+        public synchronized void remove(EgKey eg, List<ConditionName> conds) {
+            Map<Set<ConditionName>, Integer> counts = index.get(eg);
+            if (counts == null) return;
+            Set<ConditionName> key = ImmutableSet.copyOf(conds);
+            Integer count = counts.get(key);
+            if (count == null) return;
+            if (count > 1) {
+                counts.put(key, count - 1);
+            } else {
+                counts.remove(key);
+                if (counts.isEmpty())
+                    index.remove(eg);
+            }
+        }
+
+        public synchronized Collection<List<ConditionName>> get(EgKey eg) {
+            Map<Set<ConditionName>, Integer> counts = index.get(eg);
+            if (counts == null) return Collections.emptyList();
+            ImmutableList.Builder<List<ConditionName>> result =
+                    ImmutableList.builder();
+            for (Set<ConditionName> conds : counts.keySet()) {
+                result.add(ImmutableList.copyOf(conds));
+            }
+            return result.build();
+        }
+    }
+
     private OfOverlayContextBuilder checkAugmentation(RegisterEndpointInput input) {
         OfOverlayContextBuilder ictxBuilder=new OfOverlayContextBuilder();
         OfOverlayContextInput ictx =null;
@@ -570,8 +867,8 @@ public class EndpointManager
         } else if(input.getPortName()!=null) {
             NodeInfo augmentation = fetchAugmentation(input.getPortName().getValue());
             if(augmentation != null) {
-                ictxBuilder.setNodeId(augmentation.getNode().getId());
-                ictxBuilder.setNodeConnectorId(augmentation.getNodeConnector().getId());
+                ictxBuilder.setNodeId(augmentation.getNodeId());
+                ictxBuilder.setNodeConnectorId(augmentation.getNodeConnectorId());
             }
         } else {
             ictxBuilder=null;
@@ -579,74 +876,86 @@ public class EndpointManager
         return ictxBuilder;
     }
 
-    // A wrapper class around node, noeConnector info so we can pass a final
-    // object inside OnSuccess anonymous inner class
+    /**
+     * The location of a named port in the inventory
+     */
+    @Immutable
     private static class NodeInfo {
-        NodeConnector nodeConnector;
-        Node node;
-
-        private NodeInfo() {
+        private final NodeId nodeId;
+        private final NodeConnectorId nodeConnectorId;
 
+        private NodeInfo(NodeId nodeId, NodeConnectorId nodeConnectorId) {
+            this.nodeId = nodeId;
+            this.nodeConnectorId = nodeConnectorId;
         }
 
-        private NodeInfo(NodeConnector nc, Node node) {
-            this.nodeConnector = nc;
-            this.node = node;
+        private NodeId getNodeId() {
+            return this.nodeId;
         }
 
-        private Node getNode() {
-            return this.node;
-        }
-
-        private NodeConnector getNodeConnector() {
-            return this.nodeConnector;
+        private NodeConnectorId getNodeConnectorId() {
+            return this.nodeConnectorId;
         }
+    }
 
-        public void setNodeConnector(NodeConnector nodeConnector) {
-            this.nodeConnector = nodeConnector;
-        }
+    private NodeInfo fetchAugmentation(String portName) {
+        return nodeConnectorsByPort.get(portName);
+    }
 
-        public void setNode(Node node) {
-            this.node = node;
-        }
+    private static String getPortName(NodeConnector nc) {
+        FlowCapableNodeConnector fcnc = 
+                nc.getAugmentation(FlowCapableNodeConnector.class);
+        if (fcnc == null) return null;
+        return fcnc.getName();
     }
 
-    private NodeInfo fetchAugmentation(String portName) {
-        NodeInfo nodeInfo=null;
+    private static String getPortName(Endpoint endpoint) {
+        if (endpoint == null || endpoint.getPortName() == null) return null;
+        return endpoint.getPortName().getValue();
+    }
 
-        if (dataProvider != null) {
+    /**
+     * Update the port name index for a node that was added, updated or
+     * removed.  Set oldNode or node to null for an add or remove
+     * respectively.
+     */
+    private void indexNodeConnectors(Node oldNode, Node node) {
+        Set<String> current = new HashSet<>();
+        if (node != null && node.getNodeConnector() != null) {
+            for (NodeConnector nc : node.getNodeConnector()) {
+                String portName = getPortName(nc);
+                if (portName == null) continue;
+                current.add(portName);
+                nodeConnectorsByPort.put(portName, 
+                                         new NodeInfo(node.getId(), nc.getId()));
+            }
+        }
+        if (oldNode != null && oldNode.getNodeConnector() != null) {
+            for (NodeConnector nc : oldNode.getNodeConnector()) {
+                String portName = getPortName(nc);
+                if (portName == null || current.contains(portName)) continue;
+                NodeInfo info = nodeConnectorsByPort.get(portName);
+                if (info != null && info.getNodeId().equals(oldNode.getId()))
+                    nodeConnectorsByPort.remove(portName, info);
+            }
+        }
+    }
 
-            Optional<Nodes> result;
-            try {
-                result = dataProvider
-                        .newReadOnlyTransaction().read(
-                                LogicalDatastoreType.OPERATIONAL, nodesIid).get();
-                if (result.isPresent()) {
-                    Nodes nodes = result.get();
-                    for (Node node : nodes.getNode()) {
-                        if (node.getNodeConnector() != null) {
-                            boolean found = false;
-                            for (NodeConnector nc : node.getNodeConnector()) {
-                                FlowCapableNodeConnector fcnc = nc
-                                        .getAugmentation(FlowCapableNodeConnector.class);
-                                if (fcnc.getName().equals(portName)) {
-                                    nodeInfo=new NodeInfo();
-                                    nodeInfo.setNode(node);
-                                    nodeInfo.setNodeConnector(nc);
-                                    found=true;
-                                    break;
-                                }
-                            }
-                            if(found) break;
-                        }
-                    }
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+    /**
+     * Update the index of endpoints by port name
+     */
+    private void indexEndpointPort(EpKey epKey, Endpoint oldEp, Endpoint newEp) {
+        String oldPort = getPortName(oldEp);
+        String newPort = getPortName(newEp);
+        if (oldPort != null && !oldPort.equals(newPort)) {
+            Set<EpKey> eps = endpointsByPort.get(oldPort);
+            if (eps != null) {
+                eps.remove(epKey);
+                endpointsByPort.remove(oldPort, Collections.emptySet());
             }
-         
         }
-        return nodeInfo;
+        if (newPort != null) {
+            SetUtils.getNestedSet(newPort, endpointsByPort).add(epKey);
+        }
     }
 }
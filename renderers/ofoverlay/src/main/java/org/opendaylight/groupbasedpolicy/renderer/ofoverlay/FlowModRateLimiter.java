@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limit the rate at which flow modifications are sent to switches, both
+ * for each switch and across all switches.  Each limit is a token bucket
+ * measured in flow mods per second that allows bursts of up to one
+ * second's worth of flow mods.  Writers split their changes into batches
+ * of at most {@link #getBatchSize()} flow mods and take the tokens for
+ * each batch before sending it, so a large change reaches the switch at
+ * the configured rate rather than as one burst.
+ *
+ * Writers that would exceed the limit block until they are allowed to
+ * proceed.  The number of flow mods blocked this way is the queue depth.
+ * Once it reaches the configured threshold the limiter reports that it is
+ * congested, so that callers can defer lower-priority work instead of 
+ * adding to it.  The threshold is not a bound: work that is never 
+ * deferred can still wait, one batch per writing thread.
+ */
+public class FlowModRateLimiter {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FlowModRateLimiter.class);
+
+    private volatile TokenBucket global;
+    private volatile double switchRate;
+    private volatile int maxQueueDepth;
+
+    private final ConcurrentHashMap<NodeId, TokenBucket> switchBuckets =
+            new ConcurrentHashMap<>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong throttleNanos = new AtomicLong();
+
+    /**
+     * Construct a limiter with no limits
+     */
+    public FlowModRateLimiter() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Construct a new limiter
+     * @param globalRate the maximum rate across all switches in flow mods
+     * per second, or 0 for no limit
+     * @param switchRate the maximum rate for each switch in flow mods
+     * per second, or 0 for no limit
+     * @param maxQueueDepth the number of waiting flow mods at which the
+     * limiter is congested, or 0 to never be congested
+     */
+    public FlowModRateLimiter(double globalRate, double switchRate,
+                              int maxQueueDepth) {
+        super();
+        setLimits(globalRate, switchRate, maxQueueDepth);
+    }
+
+    /**
+     * Change the limits.  See
+     * {@link #FlowModRateLimiter(double, double, int)}
+     */
+    public void setLimits(double globalRate, double switchRate,
+                          int maxQueueDepth) {
+        this.global = new TokenBucket(globalRate);
+        this.switchRate = switchRate;
+        this.maxQueueDepth = maxQueueDepth;
+        switchBuckets.clear();
+    }
+
+    /**
+     * Get the largest number of flow mods to send to a switch at once:
+     * one second's worth at the tightest limit, which is the capacity of
+     * the token bucket.
+     * @return the batch size, or {@link Integer#MAX_VALUE} if there is no
+     * limit
+     */
+    public int getBatchSize() {
+        double rate = global.getRate();
+        double sr = switchRate;
+        if (sr > 0 && (rate <= 0 || sr < rate))
+            rate = sr;
+        if (rate <= 0) return Integer.MAX_VALUE;
+        return (int)Math.max(1, Math.min(rate, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Wait until the given number of flow mods may be sent to the switch
+     * @param nodeId the switch
+     * @param flowMods the number of flow mods
+     * @throws InterruptedException
+     */
+    public void acquire(NodeId nodeId, int flowMods)
+            throws InterruptedException {
+        await(nodeId, flowMods, reserve(nodeId, flowMods));
+    }
+
+    /**
+     * Take the tokens for the given number of flow mods to the switch
+     * without waiting.  A caller that gets a nonzero wait must not send the
+     * flow mods until it has passed the wait to 
+     * {@link #await(NodeId, int, long)}.
+     * @param nodeId the switch
+     * @param flowMods the number of flow mods
+     * @return the time to wait before sending, in nanoseconds
+     */
+    public long reserve(NodeId nodeId, int flowMods) {
+        if (flowMods <= 0) return 0;
+        return Math.max(global.reserve(flowMods),
+                        getBucket(nodeId).reserve(flowMods));
+    }
+
+    /**
+     * Wait for flow mods reserved with {@link #reserve(NodeId, int)}.
+     * The flow mods count in the queue depth while waiting.
+     * @param nodeId the switch
+     * @param flowMods the number of flow mods
+     * @param wait the time to wait, in nanoseconds
+     * @throws InterruptedException
+     */
+    public void await(NodeId nodeId, int flowMods, long wait)
+            throws InterruptedException {
+        if (wait <= 0) return;
+        queueDepth.addAndGet(flowMods);
+        try {
+            LOG.debug("Throttling {} flow mods to {} for {}ms",
+                      flowMods, nodeId.getValue(),
+                      TimeUnit.NANOSECONDS.toMillis(wait));
+            throttleNanos.addAndGet(wait);
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } finally {
+            queueDepth.addAndGet(-flowMods);
+        }
+    }
+
+    /**
+     * Check whether the number of flow mods waiting has reached the
+     * threshold.  Callers should defer lower-priority updates while this 
+     * is the case.
+     * @return <code>true</code> if congested
+     */
+    public boolean isCongested() {
+        int max = maxQueueDepth;
+        return (max > 0 && queueDepth.get() >= max);
+    }
+
+    /**
+     * Stop tracking a switch
+     * @param nodeId the switch
+     */
+    public void removeSwitch(NodeId nodeId) {
+        switchBuckets.remove(nodeId);
+    }
+
+    /**
+     * @return the number of flow mods currently waiting to be sent
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the total time writers have been throttled, in milliseconds
+     */
+    public long getThrottleTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttleNanos.get());
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private TokenBucket getBucket(NodeId nodeId) {
+        TokenBucket bucket = switchBuckets.get(nodeId);
+        if (bucket == null) {
+            bucket = new TokenBucket(switchRate);
+            TokenBucket old = switchBuckets.putIfAbsent(nodeId, bucket);
+            if (old != null)
+                bucket = old;
+        }
+        return bucket;
+    }
+
+    /**
+     * A token bucket that hands out tokens on credit: a reservation always
+     * succeeds, and the caller waits until the bucket is out of debt
+     */
+    private static class TokenBucket {
+        private final double rate;
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        public TokenBucket(double rate) {
+            super();
+            this.rate = rate;
+            this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = rate;
+            this.tokens = rate;
+        }
+
+        /**
+         * @return the rate in tokens per second, or 0 for no limit
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * Take the given number of tokens
+         * @return the time to wait in nanoseconds
+         */
+        public synchronized long reserve(int n) {
+            if (tokensPerNano <= 0) return 0;
+            long now = System.nanoTime();
+            tokens = Math.min(capacity,
+                              tokens + (now - last) * tokensPerNano);
+            last = now;
+            tokens -= n;
+            if (tokens >= 0) return 0;
+            return (long)(-tokens / tokensPerNano);
+        }
+    }
+}
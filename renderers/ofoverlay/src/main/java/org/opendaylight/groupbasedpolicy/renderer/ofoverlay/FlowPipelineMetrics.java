@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.groupbasedpolicy.util.LatencyHistogram;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayOperational;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.FlowPipelineStats;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.FlowPipelineStatsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.CycleTimeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.NodeStats;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.NodeStatsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.TableStats;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.TableStatsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.node.stats.ConvergenceTimeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.table.stats.CommitTimeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.table.stats.ComputeTimeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.flow.pipeline.stats.table.stats.ReadTimeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Metrics for the flow pipeline: how long each flow table takes to read,
+ * compute and commit and how many flows it changes, how long each switch
+ * takes to converge, and how long each flow update cycle takes.  The
+ * metrics can be registered as JMX MBeans and published to the
+ * operational data store.
+ */
+public class FlowPipelineMetrics implements FlowPipelineMetricsMXBean {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FlowPipelineMetrics.class);
+
+    private static final String JMX_DOMAIN =
+            "org.opendaylight.groupbasedpolicy.renderer.ofoverlay";
+
+    private static final InstanceIdentifier<FlowPipelineStats> statsIid =
+            InstanceIdentifier.builder(OfOverlayOperational.class)
+                .child(FlowPipelineStats.class)
+                .build();
+
+    private final FlowModRateLimiter flowModLimiter;
+
+    private final AtomicLong cycles = new AtomicLong();
+    private final LatencyHistogram cycleTime = new LatencyHistogram();
+    private final AtomicLong switchUpdates = new AtomicLong();
+    private final AtomicLong switchFailures = new AtomicLong();
+    private final LatencyHistogram convergenceTime = new LatencyHistogram();
+
+    private final ConcurrentHashMap<String, TableMetrics> tables =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<NodeId, SwitchMetrics> switches =
+            new ConcurrentHashMap<>();
+    private final List<StageExecutor> stages = new CopyOnWriteArrayList<>();
+
+    private final List<ObjectName> mbeans = new CopyOnWriteArrayList<>();
+    private volatile boolean registered = false;
+
+    public FlowPipelineMetrics(FlowModRateLimiter flowModLimiter) {
+        super();
+        this.flowModLimiter = flowModLimiter;
+    }
+
+    /**
+     * Get the metrics for the given table, creating them if needed
+     * @param name the name of the table
+     * @return the {@link TableMetrics}
+     */
+    public TableMetrics getTable(String name) {
+        TableMetrics t = tables.get(name);
+        if (t == null) {
+            t = new TableMetrics();
+            TableMetrics old = tables.putIfAbsent(name, t);
+            if (old != null) return old;
+            if (registered)
+                register(objectName("FlowTable", name), t);
+        }
+        return t;
+    }
+
+    /**
+     * Add the executor for a stage of the renderer, so that its queue 
+     * metrics are registered along with the pipeline
+     * @param stage the executor
+     */
+    public void addStage(StageExecutor stage) {
+        stages.add(stage);
+        if (registered)
+            register(objectName("Stage", stage.getName()), stage);
+    }
+
+    /**
+     * Record the end of a flow update cycle
+     * @param nanos the duration of the cycle
+     */
+    public void cycleDone(long nanos) {
+        cycles.incrementAndGet();
+        cycleTime.record(nanos);
+    }
+
+    /**
+     * Record the end of an update to a switch
+     * @param nodeId the switch
+     * @param nanos the time since the start of the cycle
+     * @param success whether every table was written
+     */
+    public void switchDone(NodeId nodeId, long nanos, boolean success) {
+        SwitchMetrics s = switches.get(nodeId);
+        if (s == null) {
+            s = new SwitchMetrics();
+            SwitchMetrics old = switches.putIfAbsent(nodeId, s);
+            if (old != null) s = old;
+        }
+        switchUpdates.incrementAndGet();
+        s.updates.incrementAndGet();
+        if (!success) {
+            switchFailures.incrementAndGet();
+            s.failures.incrementAndGet();
+        }
+        convergenceTime.record(nanos);
+        s.convergenceTime.record(nanos);
+    }
+
+    /**
+     * Stop tracking a switch
+     * @param nodeId the switch
+     */
+    public void removeSwitch(NodeId nodeId) {
+        switches.remove(nodeId);
+    }
+
+    /**
+     * Register the MBeans for the pipeline, its tables and the renderer
+     * stages with the platform MBean server
+     */
+    public void registerMBeans() {
+        registered = true;
+        register(objectName("FlowPipeline", "pipeline"), this);
+        for (Entry<String, TableMetrics> e : tables.entrySet()) {
+            register(objectName("FlowTable", e.getKey()), e.getValue());
+        }
+        for (StageExecutor stage : stages) {
+            register(objectName("Stage", stage.getName()), stage);
+        }
+    }
+
+    /**
+     * Unregister any MBeans registered by {@link #registerMBeans()}
+     */
+    public void unregisterMBeans() {
+        registered = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mbeans) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                LOG.debug("Could not unregister MBean {}", name, e);
+            }
+        }
+        mbeans.clear();
+    }
+
+    /**
+     * Write a snapshot of the metrics to the operational data store
+     * @param dataBroker the data broker
+     */
+    public void publish(DataBroker dataBroker) {
+        if (dataBroker == null) return;
+        WriteTransaction t = dataBroker.newWriteOnlyTransaction();
+        t.put(LogicalDatastoreType.OPERATIONAL, statsIid, getStats(), true);
+        Futures.addCallback(t.submit(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                LOG.trace("Wrote flow pipeline statistics");
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.warn("Could not write flow pipeline statistics", t);
+            }
+        });
+    }
+
+    /**
+     * @return a snapshot of the metrics for the data store
+     */
+    public FlowPipelineStats getStats() {
+        List<TableStats> tableStats = new ArrayList<>();
+        for (Entry<String, TableMetrics> e : tables.entrySet()) {
+            TableMetrics m = e.getValue();
+            tableStats.add(new TableStatsBuilder()
+                .setName(e.getKey())
+                .setUpdates(big(m.updates.get()))
+                .setFailures(big(m.failures.get()))
+                .setFlowsAdded(big(m.flowsAdded.get()))
+                .setFlowsDeleted(big(m.flowsDeleted.get()))
+                .setFlowsUnchanged(big(m.flowsUnchanged.get()))
+                .setReadTime(new ReadTimeBuilder()
+                    .setCount(big(m.readTime.getCount()))
+                    .setMean(big(m.readTime.getMean()))
+                    .setP50(big(m.readTime.getPercentile(50)))
+                    .setP99(big(m.readTime.getPercentile(99)))
+                    .setMax(big(m.readTime.getMax()))
+                    .build())
+                .setComputeTime(new ComputeTimeBuilder()
+                    .setCount(big(m.computeTime.getCount()))
+                    .setMean(big(m.computeTime.getMean()))
+                    .setP50(big(m.computeTime.getPercentile(50)))
+                    .setP99(big(m.computeTime.getPercentile(99)))
+                    .setMax(big(m.computeTime.getMax()))
+                    .build())
+                .setCommitTime(new CommitTimeBuilder()
+                    .setCount(big(m.commitTime.getCount()))
+                    .setMean(big(m.commitTime.getMean()))
+                    .setP50(big(m.commitTime.getPercentile(50)))
+                    .setP99(big(m.commitTime.getPercentile(99)))
+                    .setMax(big(m.commitTime.getMax()))
+                    .build())
+                .build());
+        }
+        List<NodeStats> nodeStats = new ArrayList<>();
+        for (Entry<NodeId, SwitchMetrics> e : switches.entrySet()) {
+            SwitchMetrics m = e.getValue();
+            nodeStats.add(new NodeStatsBuilder()
+                .setNodeId(e.getKey())
+                .setUpdates(big(m.updates.get()))
+                .setFailures(big(m.failures.get()))
+                .setConvergenceTime(new ConvergenceTimeBuilder()
+                    .setCount(big(m.convergenceTime.getCount()))
+                    .setMean(big(m.convergenceTime.getMean()))
+                    .setP50(big(m.convergenceTime.getPercentile(50)))
+                    .setP99(big(m.convergenceTime.getPercentile(99)))
+                    .setMax(big(m.convergenceTime.getMax()))
+                    .build())
+                .build());
+        }
+        return new FlowPipelineStatsBuilder()
+            .setCycles(big(cycles.get()))
+            .setCycleTime(new CycleTimeBuilder()
+                .setCount(big(cycleTime.getCount()))
+                .setMean(big(cycleTime.getMean()))
+                .setP50(big(cycleTime.getPercentile(50)))
+                .setP99(big(cycleTime.getPercentile(99)))
+                .setMax(big(cycleTime.getMax()))
+                .build())
+            .setTableStats(tableStats)
+            .setNodeStats(nodeStats)
+            .build();
+    }
+
+    // *************************
+    // FlowPipelineMetricsMXBean
+    // *************************
+
+    @Override
+    public long getCycles() {
+        return cycles.get();
+    }
+
+    @Override
+    public long getCycleTimeMean() {
+        return cycleTime.getMean();
+    }
+
+    @Override
+    public long getCycleTime99thPercentile() {
+        return cycleTime.getPercentile(99);
+    }
+
+    @Override
+    public long getCycleTimeMax() {
+        return cycleTime.getMax();
+    }
+
+    @Override
+    public long getSwitchUpdates() {
+        return switchUpdates.get();
+    }
+
+    @Override
+    public long getSwitchUpdateFailures() {
+        return switchFailures.get();
+    }
+
+    @Override
+    public long getSwitchConvergenceTimeMean() {
+        return convergenceTime.getMean();
+    }
+
+    @Override
+    public long getSwitchConvergenceTime99thPercentile() {
+        return convergenceTime.getPercentile(99);
+    }
+
+    @Override
+    public long getSwitchConvergenceTimeMax() {
+        return convergenceTime.getMax();
+    }
+
+    @Override
+    public int getFlowModQueueDepth() {
+        return flowModLimiter.getQueueDepth();
+    }
+
+    @Override
+    public long getFlowModThrottleTimeMillis() {
+        return flowModLimiter.getThrottleTimeMillis();
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    private static ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + type +
+                                  ",name=" + ObjectName.quote(name));
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void register(ObjectName name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+            mbeans.add(name);
+        } catch (Exception e) {
+            LOG.warn("Could not register MBean {}", name, e);
+        }
+    }
+
+    /**
+     * Metrics for a flow table
+     */
+    public static class TableMetrics implements FlowTableMetricsMXBean {
+        private final AtomicLong updates = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong flowsAdded = new AtomicLong();
+        private final AtomicLong flowsDeleted = new AtomicLong();
+        private final AtomicLong flowsUnchanged = new AtomicLong();
+        private final LatencyHistogram readTime = new LatencyHistogram();
+        private final LatencyHistogram computeTime = new LatencyHistogram();
+        private final LatencyHistogram commitTime = new LatencyHistogram();
+
+        /**
+         * Record a successful update of the table
+         * @param readNanos the time to read the current table
+         * @param computeNanos the time to compute the changes
+         * @param commitNanos the time to write the changes, or 0 if there
+         * were none
+         * @param added the number of flows written
+         * @param deleted the number of flows deleted
+         * @param unchanged the number of existing flows left alone
+         */
+        public void updated(long readNanos, long computeNanos,
+                            long commitNanos, int added, int deleted,
+                            int unchanged) {
+            updates.incrementAndGet();
+            readTime.record(readNanos);
+            computeTime.record(computeNanos);
+            if (added + deleted > 0)
+                commitTime.record(commitNanos);
+            flowsAdded.addAndGet(added);
+            flowsDeleted.addAndGet(deleted);
+            flowsUnchanged.addAndGet(unchanged);
+        }
+
+        /**
+         * Record a failed update of the table
+         */
+        public void failed() {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public long getUpdates() {
+            return updates.get();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public long getFlowsAdded() {
+            return flowsAdded.get();
+        }
+
+        @Override
+        public long getFlowsDeleted() {
+            return flowsDeleted.get();
+        }
+
+        @Override
+        public long getFlowsUnchanged() {
+            return flowsUnchanged.get();
+        }
+
+        @Override
+        public long getReadTimeMean() {
+            return readTime.getMean();
+        }
+
+        @Override
+        public long getReadTime99thPercentile() {
+            return readTime.getPercentile(99);
+        }
+
+        @Override
+        public long getComputeTimeMean() {
+            return computeTime.getMean();
+        }
+
+        @Override
+        public long getComputeTime99thPercentile() {
+            return computeTime.getPercentile(99);
+        }
+
+        @Override
+        public long getCommitTimeMean() {
+            return commitTime.getMean();
+        }
+
+        @Override
+        public long getCommitTime99thPercentile() {
+            return commitTime.getPercentile(99);
+        }
+    }
+
+    /**
+     * Metrics for a switch
+     */
+    private static class SwitchMetrics {
+        private final AtomicLong updates = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final LatencyHistogram convergenceTime =
+                new LatencyHistogram();
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+/**
+ * JMX view of the metrics for the flow pipeline as a whole.  Times are in
+ * microseconds.
+ */
+public interface FlowPipelineMetricsMXBean {
+    public long getCycles();
+    public long getCycleTimeMean();
+    public long getCycleTime99thPercentile();
+    public long getCycleTimeMax();
+
+    public long getSwitchUpdates();
+    public long getSwitchUpdateFailures();
+    public long getSwitchConvergenceTimeMean();
+    public long getSwitchConvergenceTime99thPercentile();
+    public long getSwitchConvergenceTimeMax();
+
+    public int getFlowModQueueDepth();
+    public long getFlowModThrottleTimeMillis();
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+/**
+ * JMX view of the metrics for one flow table in the pipeline.  Times are
+ * in microseconds.
+ */
+public interface FlowTableMetricsMXBean {
+    public long getUpdates();
+    public long getFailures();
+    public long getFlowsAdded();
+    public long getFlowsDeleted();
+    public long getFlowsUnchanged();
+
+    public long getReadTimeMean();
+    public long getReadTime99thPercentile();
+    public long getComputeTimeMean();
+    public long getComputeTime99thPercentile();
+    public long getCommitTimeMean();
+    public long getCommitTime99thPercentile();
+}
@@ -8,17 +8,19 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.DataChangeListener;
 import org.opendaylight.controller.md.sal.common.api.data.AsyncDataBroker.DataChangeScope;
 import org.opendaylight.controller.md.sal.common.api.data.AsyncDataChangeEvent;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.sal.binding.api.BindingAwareBroker;
 import org.opendaylight.controller.sal.binding.api.RpcProviderRegistry;
 import org.opendaylight.groupbasedpolicy.resolver.PolicyResolver;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayConfig;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfoverlayService;
 import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
@@ -26,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -46,39 +49,87 @@ public class OFOverlayRenderer implements AutoCloseable, DataChangeListener {
     private final PolicyManager policyManager;
     private final SfcManager sfcManager;
 
-    private final ScheduledExecutorService executor;
+    /**
+     * Each stage gets its own executor, so that for example a flood of 
+     * data store notifications cannot hold up writing flows
+     */
+    private final StageExecutor datastoreExecutor;
+    private final StageExecutor policyExecutor;
+    private final StageExecutor flowComputeExecutor;
+    private final StageExecutor flowCommitExecutor;
+
+    private static final int NUM_CPU = 
+            Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_DATASTORE_THREADS = NUM_CPU;
+    private static final int DEFAULT_POLICY_THREADS = 2;
+    private static final int DEFAULT_FLOW_COMPUTE_THREADS = NUM_CPU;
+    private static final int DEFAULT_FLOW_COMMIT_THREADS = NUM_CPU * 2;
+
+    /**
+     * How often to write the flow pipeline statistics to the operational
+     * data store, in seconds
+     */
+    private static final long STATS_INTERVAL = 10;
 
     private static final InstanceIdentifier<OfOverlayConfig> configIid =
             InstanceIdentifier.builder(OfOverlayConfig.class).build();
 
     private OfOverlayConfig config;
     ListenerRegistration<DataChangeListener> configReg;
+    final BindingAwareBroker.RpcRegistration<OfoverlayService> rpcRegistration;
 
     public OFOverlayRenderer(DataBroker dataProvider,
                              RpcProviderRegistry rpcRegistry) {
         super();
         this.dataBroker = dataProvider;
 
-        int numCPU = Runtime.getRuntime().availableProcessors();
-        executor = Executors.newScheduledThreadPool(numCPU * 2);
+        datastoreExecutor = 
+                new StageExecutor("datastore", DEFAULT_DATASTORE_THREADS);
+        policyExecutor = 
+                new StageExecutor("policy", DEFAULT_POLICY_THREADS);
+        flowComputeExecutor = 
+                new StageExecutor("flow-compute", DEFAULT_FLOW_COMPUTE_THREADS);
+        flowCommitExecutor = 
+                new StageExecutor("flow-commit", DEFAULT_FLOW_COMMIT_THREADS);
 
-        switchManager = new SwitchManager(dataProvider, executor);
+        switchManager = new SwitchManager(dataProvider, datastoreExecutor);
         endpointManager = new EndpointManager(dataProvider, rpcRegistry,
-                                              executor, switchManager);
-        policyResolver = new PolicyResolver(dataProvider, executor);
+                                              datastoreExecutor, switchManager);
+        policyResolver = new PolicyResolver(dataProvider, policyExecutor);
 
         policyManager = new PolicyManager(dataProvider,
                                           policyResolver,
                                           switchManager,
                                           endpointManager,
                                           rpcRegistry,
-                                          executor);
+                                          flowComputeExecutor,
+                                          flowCommitExecutor);
+        for (StageExecutor e : getExecutors()) {
+            policyManager.getMetrics().addStage(e);
+        }
+        policyManager.getMetrics().registerMBeans();
+        datastoreExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    policyManager.getMetrics().publish(dataBroker);
+                } catch (Exception e) {
+                    LOG.warn("Could not publish flow pipeline statistics", e);
+                }
+            }
+        }, STATS_INTERVAL, STATS_INTERVAL, TimeUnit.SECONDS);
+        if (rpcRegistry != null) {
+            rpcRegistration = 
+                    rpcRegistry.addRpcImplementation(OfoverlayService.class, 
+                                                     policyManager.getTracer());
+        } else
+            rpcRegistration = null;
         // TODO Move SfcManager out out ofoverlay renderer -- should be something
         //       that's shared by renderers, not specific to ofoverlay
         sfcManager = new SfcManager(dataProvider,
                                     policyResolver,
                                     rpcRegistry,
-                                    executor);
+                                    datastoreExecutor);
 
 
         configReg =
@@ -91,14 +142,29 @@ public class OFOverlayRenderer implements AutoCloseable, DataChangeListener {
 
     }
 
+    /**
+     * Get the executors for each stage of the renderer.  Their queue 
+     * metrics are registered as JMX MBeans with the flow pipeline metrics.
+     * @return the executors
+     */
+    public List<StageExecutor> getExecutors() {
+        return ImmutableList.of(datastoreExecutor, policyExecutor,
+                                flowComputeExecutor, flowCommitExecutor);
+    }
+
     // *************
     // AutoCloseable
     // *************
 
     @Override
     public void close() throws Exception {
-        executor.shutdownNow();
+        for (StageExecutor e : getExecutors()) {
+            LOG.debug("Shutting down executor {}", e);
+            e.shutdownNow();
+        }
+        policyManager.getMetrics().unregisterMBeans();
         if (configReg != null) configReg.close();
+        if (rpcRegistration != null) rpcRegistration.close();
         if (policyResolver != null) policyResolver.close();
         if (switchManager != null) switchManager.close();
         if (endpointManager != null) endpointManager.close();
@@ -137,12 +203,34 @@ public class OFOverlayRenderer implements AutoCloseable, DataChangeListener {
             public void onFailure(Throwable t) {
                 LOG.error("Failed to read configuration", t);
             }
-        }, executor);
+        }, datastoreExecutor);
     }
 
     private void applyConfig() {
         switchManager.setEncapsulationFormat(config.getEncapsulationFormat());
         endpointManager.setLearningMode(config.getLearningMode());
         policyManager.setLearningMode(config.getLearningMode());
+        policyManager.setFlowModLimits(longValue(config.getGlobalFlowModRate()),
+                                       longValue(config.getFlowModRate()),
+                                       (int)longValue(config.getFlowModQueueDepth()));
+        policyManager.getTracer()
+            .setSampleRate((int)longValue(config.getTraceSampleRate()));
+        datastoreExecutor.setThreads(threads(config.getDatastoreThreads(),
+                                             DEFAULT_DATASTORE_THREADS));
+        policyExecutor.setThreads(threads(config.getPolicyThreads(),
+                                          DEFAULT_POLICY_THREADS));
+        flowComputeExecutor.setThreads(threads(config.getFlowComputeThreads(),
+                                               DEFAULT_FLOW_COMPUTE_THREADS));
+        flowCommitExecutor.setThreads(threads(config.getFlowCommitThreads(),
+                                              DEFAULT_FLOW_COMMIT_THREADS));
+    }
+
+    private static int threads(Integer value, int defaultValue) {
+        return (value == null || value.intValue() == 0) ? 
+                defaultValue : value.intValue();
+    }
+
+    private static long longValue(Long value) {
+        return (value == null) ? 0 : value.longValue();
     }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayOperational;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.DataPlaneOrdinal;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.DataPlaneOrdinalBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.of.overlay.operational.DataPlaneOrdinalKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Allocate ordinals suitable for use in the data plane for policy elements,
+ * switches and condition groups.
+ *
+ * Ordinals keyed by a string are persisted to the operational data store
+ * in batches and reloaded at startup so that a controller restart does not
+ * renumber everything.  Ordinals with other keys are only held in memory.
+ *
+ * An ordinal is reclaimed once it has gone unreferenced for a complete
+ * flow update cycle, that is, a cycle in which every ready switch was
+ * successfully synced and so no flow written by the renderer can still be
+ * using it.  Reclaimed ordinals go onto a free list and are handed out 
+ * again oldest first.
+ *
+ * Switches that are not ready are left out of a cycle, so their flows in
+ * the configuration data store are not rewritten.  If an ordinal used by
+ * those flows is reclaimed and reused, the stale flows can be replayed to
+ * the switch when it reconnects, until its first flow update replaces
+ * them.
+ */
+public class OrdinalAllocator {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(OrdinalAllocator.class);
+
+    /**
+     * The largest ordinal we will hand out.  Endpoint group ordinals are
+     * carried in the 24-bit VXLAN VNI, and 0xffffff is reserved in the
+     * condition group register to bypass policy enforcement.
+     */
+    public static final int MAX_ORDINAL = 0xfffffe;
+
+    private static final InstanceIdentifier<OfOverlayOperational> operIid =
+            InstanceIdentifier.builder(OfOverlayOperational.class).build();
+
+    private final DataBroker dataBroker;
+
+    private final ConcurrentHashMap<Object, Ordinal> ordinals =
+            new ConcurrentHashMap<>();
+
+    // The following are protected by the lock on this object
+    private final BitSet allocated = new BitSet();
+    private final ArrayDeque<Integer> freeList = new ArrayDeque<>();
+    private int next = 1;
+    private final Map<String, Integer> pendingWrites = new HashMap<>();
+    private final Set<String> pendingDeletes = new HashSet<>();
+
+    /**
+     * The current flow update cycle
+     */
+    private volatile long cycle = 0;
+
+    public OrdinalAllocator(DataBroker dataBroker) {
+        super();
+        this.dataBroker = dataBroker;
+        load();
+    }
+
+    /**
+     * Get the ordinal for the given key, allocating one if needed
+     * @param key the key.  String keys are persisted.
+     * @return the ordinal
+     */
+    public int getOrdinal(Object key) {
+        Ordinal ord = ordinals.get(key);
+        if (ord != null) {
+            // This pairs with sweep(), which sets reclaimed before it
+            // reads lastCycle.  Either sweep() sees our cycle and keeps
+            // the ordinal, or we see that it has been reclaimed and fall
+            // back to the lock.
+            ord.lastCycle = cycle;
+            if (!ord.reclaimed) return ord.value;
+        }
+        synchronized (this) {
+            ord = ordinals.get(key);
+            if (ord == null) {
+                ord = new Ordinal(allocate());
+                ordinals.put(key, ord);
+                if (key instanceof String) {
+                    pendingDeletes.remove(key);
+                    pendingWrites.put((String)key, ord.value);
+                }
+            }
+            ord.lastCycle = cycle;
+            return ord.value;
+        }
+    }
+
+    /**
+     * Start a new flow update cycle.  Any ordinal requested from now until
+     * the matching call to {@link #endCycle(long, boolean)} is considered 
+     * to be referenced in this cycle.  Cycles may overlap.
+     * @return the ID of the new cycle
+     */
+    public synchronized long beginCycle() {
+        cycle += 1;
+        return cycle;
+    }
+
+    /**
+     * Finish the most recent flow update cycle.  See 
+     * {@link #endCycle(long, boolean)}
+     */
+    public void endCycle(boolean complete) {
+        endCycle(cycle, complete);
+    }
+
+    /**
+     * Finish a flow update cycle and write out any changes to the data 
+     * store.
+     * @param id the ID of the cycle returned by {@link #beginCycle()}
+     * @param complete <code>true</code> if every ready switch was
+     * successfully synced in this cycle, in which case any ordinals not
+     * referenced since the cycle began are reclaimed
+     */
+    public void endCycle(long id, boolean complete) {
+        if (complete) sweep(id);
+        flush();
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private synchronized int allocate() {
+        Integer free = freeList.poll();
+        if (free != null) {
+            allocated.set(free.intValue());
+            return free.intValue();
+        }
+        while (next <= MAX_ORDINAL && allocated.get(next))
+            next += 1;
+        if (next > MAX_ORDINAL)
+            throw new IllegalStateException("Data plane ordinals exhausted");
+        allocated.set(next);
+        return next++;
+    }
+
+    private synchronized void sweep(long current) {
+        int reclaimed = 0;
+        Iterator<Entry<Object, Ordinal>> it = ordinals.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Object, Ordinal> e = it.next();
+            Ordinal ord = e.getValue();
+            if (ord.lastCycle >= current) continue;
+            ord.reclaimed = true;
+            if (ord.lastCycle >= current) {
+                // referenced concurrently by getOrdinal()
+                ord.reclaimed = false;
+                continue;
+            }
+            it.remove();
+            allocated.clear(e.getValue().value);
+            freeList.add(Integer.valueOf(e.getValue().value));
+            if (e.getKey() instanceof String) {
+                pendingWrites.remove(e.getKey());
+                pendingDeletes.add((String)e.getKey());
+            }
+            reclaimed += 1;
+        }
+        if (reclaimed > 0)
+            LOG.debug("Reclaimed {} data plane ordinals", reclaimed);
+    }
+
+    private void flush() {
+        if (dataBroker == null) return;
+        WriteTransaction t;
+        synchronized (this) {
+            if (pendingWrites.isEmpty() && pendingDeletes.isEmpty()) return;
+            t = dataBroker.newWriteOnlyTransaction();
+            for (Entry<String, Integer> e : pendingWrites.entrySet()) {
+                DataPlaneOrdinal dpo = new DataPlaneOrdinalBuilder()
+                    .setId(e.getKey())
+                    .setOrdinal(Long.valueOf(e.getValue().longValue()))
+                    .build();
+                t.put(LogicalDatastoreType.OPERATIONAL,
+                      ordinalIid(e.getKey()), dpo, true);
+            }
+            for (String id : pendingDeletes) {
+                t.delete(LogicalDatastoreType.OPERATIONAL, ordinalIid(id));
+            }
+            pendingWrites.clear();
+            pendingDeletes.clear();
+        }
+        Futures.addCallback(t.submit(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                LOG.trace("Wrote data plane ordinals");
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.error("Could not write data plane ordinals", t);
+            }
+        });
+    }
+
+    private void load() {
+        if (dataBroker == null) return;
+        ListenableFuture<Optional<OfOverlayOperational>> f =
+                dataBroker.newReadOnlyTransaction()
+                    .read(LogicalDatastoreType.OPERATIONAL, operIid);
+        Optional<OfOverlayOperational> r;
+        try {
+            r = f.get();
+        } catch (Exception e) {
+            LOG.error("Could not read data plane ordinals", e);
+            return;
+        }
+        if (!r.isPresent() || r.get().getDataPlaneOrdinal() == null) return;
+
+        synchronized (this) {
+            int max = 0;
+            for (DataPlaneOrdinal dpo : r.get().getDataPlaneOrdinal()) {
+                if (dpo.getId() == null || dpo.getOrdinal() == null) continue;
+                long value = dpo.getOrdinal().longValue();
+                if (value <= 0 || value > MAX_ORDINAL ||
+                    allocated.get((int)value)) {
+                    LOG.warn("Discarding invalid data plane ordinal {} for {}",
+                             value, dpo.getId());
+                    pendingDeletes.add(dpo.getId());
+                    continue;
+                }
+                ordinals.put(dpo.getId(), new Ordinal((int)value));
+                allocated.set((int)value);
+                max = Math.max(max, (int)value);
+            }
+            for (int i = 1; i < max; i++) {
+                if (!allocated.get(i))
+                    freeList.add(Integer.valueOf(i));
+            }
+            next = max + 1;
+        }
+        LOG.info("Loaded {} data plane ordinals", ordinals.size());
+    }
+
+    private static InstanceIdentifier<DataPlaneOrdinal> ordinalIid(String id) {
+        return InstanceIdentifier.builder(OfOverlayOperational.class)
+                .child(DataPlaneOrdinal.class, new DataPlaneOrdinalKey(id))
+                .build();
+    }
+
+    private static class Ordinal {
+        final int value;
+        volatile long lastCycle;
+        volatile boolean reclaimed = false;
+
+        public Ordinal(int value) {
+            super();
+            this.value = value;
+        }
+    }
+}
@@ -8,16 +8,17 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -27,6 +28,7 @@ import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
 import org.opendaylight.controller.sal.binding.api.RpcProviderRegistry;
 import org.opendaylight.groupbasedpolicy.endpoint.EpKey;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.ConvergenceTracer.Trace;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.DestinationMapper;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.GroupTable;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.OfTable;
@@ -45,6 +47,7 @@ import org.opendaylight.groupbasedpolicy.util.SetUtils;
 import org.opendaylight.groupbasedpolicy.util.SingletonTask;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.TenantId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.UniqueId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayConfig.LearningMode;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.SubjectFeatureDefinitions;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
@@ -53,6 +56,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 
 /**
  * Manage policies on switches by subscribing to updates from the 
@@ -66,13 +70,14 @@ public class PolicyManager
             LoggerFactory.getLogger(PolicyManager.class);
 
     private final SwitchManager switchManager;
+    private final EndpointManager endpointManager;
     private final PolicyResolver policyResolver;
     
     private final PolicyScope policyScope;
     
     private final AtomicReference<Dirty> dirty;
     
-    private final ScheduledExecutorService executor;
+    private final StageExecutor executor;
     private final SingletonTask flowUpdateTask;
 
     /**
@@ -87,34 +92,79 @@ public class PolicyManager
     private final static int FLOW_UPDATE_DELAY = 250;
 
     /**
-     * Counter used to allocate ordinal values for forwarding contexts
-     * and VNIDs
-     */
-    private final AtomicInteger policyOrdinal = new AtomicInteger(1);
-    
-    /**
-     * Keep track of currently-allocated ordinals
+     * Allocator for the ordinal values used in the data plane for
+     * forwarding contexts, VNIDs and condition groups
      */
     // XXX For the endpoint groups, we need a globally unique ordinal, so
     // should ultimately involve some sort of distributed agreement
-    // or a leader to allocate them.  For now we'll just use a counter and
-    // this local map.  Also theoretically need to garbage collect periodically
-    private final ConcurrentMap<String, Integer> ordinals = 
-            new ConcurrentHashMap<>();
-    // XXX - need to garbage collect
-    private final ConcurrentMap<ConditionGroup, Integer> cgOrdinals = 
-            new ConcurrentHashMap<>();
+    // or a leader to allocate them.  For now we'll just allocate them 
+    // locally and persist them.
+    private final OrdinalAllocator ordinals;
+
+    /**
+     * Limit on the rate of flow mods we send to the switches
+     */
+    private final FlowModRateLimiter flowModLimiter = new FlowModRateLimiter();
+
+    /**
+     * Metrics for the flow tables and switch updates
+     */
+    private final FlowPipelineMetrics metrics = 
+            new FlowPipelineMetrics(flowModLimiter);
+
+    /**
+     * Traces a sample of changes through to the switches
+     */
+    private final ConvergenceTracer tracer = new ConvergenceTracer();
+
+    /**
+     * Switches with a flow update currently running
+     */
+    private final Set<NodeId> updating = 
+            Collections.newSetFromMap(new ConcurrentHashMap<NodeId, Boolean>());
+
+    /**
+     * Switches that were skipped by a flow update cycle because they were
+     * still being updated, and so need another update once they finish
+     */
+    private final Set<NodeId> rerun = 
+            Collections.newSetFromMap(new ConcurrentHashMap<NodeId, Boolean>());
+
+    /**
+     * Switches whose last flow update succeeded
+     */
+    private final Set<NodeId> converged = 
+            Collections.newSetFromMap(new ConcurrentHashMap<NodeId, Boolean>());
             
     public PolicyManager(DataBroker dataBroker,
                          PolicyResolver policyResolver,
                          SwitchManager switchManager,
                          EndpointManager endpointManager, 
                          RpcProviderRegistry rpcRegistry,
-                         ScheduledExecutorService executor) {
+                         StageExecutor executor) {
+        this(dataBroker, policyResolver, switchManager, endpointManager,
+             rpcRegistry, executor, null);
+    }
+
+    /**
+     * @param executor the executor on which flows are computed
+     * @param commitExecutor the executor on which flow changes are written
+     * to the data store, or <code>null</code> to write them from the 
+     * thread that computed them
+     */
+    public PolicyManager(DataBroker dataBroker,
+                         PolicyResolver policyResolver,
+                         SwitchManager switchManager,
+                         EndpointManager endpointManager, 
+                         RpcProviderRegistry rpcRegistry,
+                         StageExecutor executor,
+                         ExecutorService commitExecutor) {
         super();
         this.switchManager = switchManager;
+        this.endpointManager = endpointManager;
         this.executor = executor;
         this.policyResolver = policyResolver;
+        this.ordinals = new OrdinalAllocator(dataBroker);
 
         if (dataBroker != null) {
             WriteTransaction t = dataBroker.newWriteOnlyTransaction();
@@ -128,11 +178,16 @@ public class PolicyManager
 
         OfTableCtx ctx = new OfTableCtx(dataBroker, rpcRegistry, 
                                         this, policyResolver, switchManager, 
-                                        endpointManager, executor);
+                                        endpointManager, executor,
+                                        commitExecutor);
+        // The destination mapper only writes broadcast flows for groups
+        // the group table has already committed, so the group table must
+        // come before it in the pipeline
+        GroupTable groupTable = new GroupTable(ctx);
         flowPipeline = ImmutableList.of(new PortSecurity(ctx),
-                                        new GroupTable(ctx),
+                                        groupTable,
                                         new SourceMapper(ctx),
-                                        new DestinationMapper(ctx),
+                                        new DestinationMapper(ctx, groupTable),
                                         new PolicyEnforcer(ctx));
 
         policyScope = policyResolver.registerListener(this);
@@ -178,12 +233,17 @@ public class PolicyManager
 //                LOG.error("Could not add switch {}", nodeId, t);
 //            }
 //        });
-        
+        converged.remove(nodeId);
+        dirty.get().addNode(nodeId);
+        scheduleUpdate();
     }
 
     @Override
     public void switchRemoved(NodeId sw) {
         // XXX TODO purge switch flows
+        flowModLimiter.removeSwitch(sw);
+        metrics.removeSwitch(sw);
+        converged.remove(sw);
         dirty.get().addNode(sw);
         scheduleUpdate();
     }
@@ -200,7 +260,16 @@ public class PolicyManager
     
     @Override
     public void endpointUpdated(EpKey epKey) {
-        dirty.get().addEndpoint(epKey);
+        Dirty d = dirty.get();
+        d.addEndpoint(epKey);
+        if (tracer.sample()) {
+            Endpoint ep = endpointManager.getEndpoint(epKey);
+            d.addTrace(tracer.startTrace(ConvergenceTracer.TRIGGER_ENDPOINT,
+                                         epKey.getL2Context().getValue() + 
+                                         "/" + 
+                                         epKey.getMacAddress().getValue(),
+                                         ep != null ? ep.getTimestamp() : null));
+        }
         scheduleUpdate();
     }
 
@@ -223,8 +292,14 @@ public class PolicyManager
     
     @Override
     public void policyUpdated(Set<EgKey> updatedConsumers) {
+        Dirty d = dirty.get();
         for (EgKey key : updatedConsumers) {
-            dirty.get().addEndpointGroup(key);
+            d.addEndpointGroup(key);
+        }
+        if (tracer.sample()) {
+            d.addTrace(tracer.startTrace(ConvergenceTracer.TRIGGER_POLICY,
+                                         updatedConsumers.size() + 
+                                         " endpoint groups", null));
         }
         scheduleUpdate();
     }
@@ -241,6 +316,40 @@ public class PolicyManager
         // No-op for now
     }
 
+    /**
+     * Set the limits on the rate at which flow mods are sent to switches.
+     * See {@link FlowModRateLimiter#setLimits(double, double, int)}
+     */
+    public void setFlowModLimits(double globalRate, double switchRate,
+                                 int maxQueueDepth) {
+        flowModLimiter.setLimits(globalRate, switchRate, maxQueueDepth);
+    }
+
+    /**
+     * Get the limiter that flow tables must use before sending flow mods
+     * to a switch
+     * @return the {@link FlowModRateLimiter}
+     */
+    public FlowModRateLimiter getFlowModLimiter() {
+        return flowModLimiter;
+    }
+
+    /**
+     * Get the metrics that flow tables record their updates in
+     * @return the {@link FlowPipelineMetrics}
+     */
+    public FlowPipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the tracer that follows changes through to the switches
+     * @return the {@link ConvergenceTracer}
+     */
+    public ConvergenceTracer getTracer() {
+        return tracer;
+    }
+
     /**
      * Get a unique ordinal for the given condition group, suitable for
      * use in the data plane.  This is unique only for this node, and not 
@@ -250,13 +359,9 @@ public class PolicyManager
      */
     public int getCondGroupOrdinal(final ConditionGroup cg) {
         if (cg == null) return 0;
-        Integer ord = cgOrdinals.get(cg);
-        if (ord == null) {
-            ord = policyOrdinal.getAndIncrement();
-            Integer old = cgOrdinals.putIfAbsent(cg, ord);
-            if (old != null) ord = old; 
-        }
-        return ord.intValue();
+        // keyed by the condition group's string ID so that the ordinal
+        // is persisted
+        return ordinals.getOrdinal("cg|" + cg.getId());
     }
     
     /**
@@ -279,14 +384,7 @@ public class PolicyManager
      * @return the 32-bit ordinal value
      */
     public int getContextOrdinal(final String id) throws Exception {
-
-        Integer ord = ordinals.get(id);
-        if (ord == null) {
-            ord = policyOrdinal.getAndIncrement();
-            Integer old = ordinals.putIfAbsent(id, ord);
-            if (old != null) ord = old;
-        }
-        return ord.intValue();
+        return ordinals.getOrdinal(id);
     }
     
     // **************
@@ -300,39 +398,153 @@ public class PolicyManager
         }
     }
     
+    /**
+     * The order in which switches are updated.  Switches that are 
+     * directly affected by the changes in a cycle go first, then those 
+     * that are affected indirectly or that failed to converge previously,
+     * and finally those that are already up to date.  The executor runs
+     * waiting updates in this order, including those left waiting from
+     * earlier cycles.
+     */
+    private static final int PRIORITY_DIRECT = 0;
+    private static final int PRIORITY_INDIRECT = 1;
+    private static final int PRIORITY_CONVERGED = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    private int getUpdatePriority(Dirty d, Set<NodeId> groupNodes, 
+                                  NodeId nodeId) {
+        if (d.getNodes().contains(nodeId) || 
+            d.getNodeEps().containsKey(nodeId))
+            return PRIORITY_DIRECT;
+        if (groupNodes.contains(nodeId) || !converged.contains(nodeId))
+            return PRIORITY_INDIRECT;
+        return PRIORITY_CONVERGED;
+    }
+
+    /**
+     * Keep track of the switches in a flow update cycle so that unused
+     * ordinals can be reclaimed once the whole cycle is done
+     */
+    private class UpdateCycle {
+        private final long id;
+        private final long start = System.nanoTime();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final Collection<Trace> traces;
+        private volatile boolean complete = true;
+
+        public UpdateCycle(long id, Collection<Trace> traces) {
+            super();
+            this.id = id;
+            this.traces = traces;
+        }
+
+        public void started(int switches) {
+            for (Trace trace : traces) {
+                trace.cycleStarted(switches);
+            }
+        }
+
+        public void switchDone(NodeId nodeId, boolean success) {
+            metrics.switchDone(nodeId, System.nanoTime() - start, success);
+            if (!success) complete = false;
+            for (Trace trace : traces) {
+                trace.switchDone();
+            }
+            if (remaining.decrementAndGet() == 0)
+                done();
+        }
+
+        public void done() {
+            ordinals.endCycle(id, complete);
+            long nanos = System.nanoTime() - start;
+            metrics.cycleDone(nanos);
+            for (Trace trace : traces) {
+                trace.cycleDone(complete);
+            }
+            LOG.debug("Flow update cycle {} completed in {}ms", id,
+                      TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
     /**
      * Update the flows on a particular switch
      */
-    private class SwitchFlowUpdateTask implements Callable<Void> {
+    private class SwitchFlowUpdateTask implements Runnable {
         private final Dirty dirty;
         private final NodeId nodeId;
+        private final UpdateCycle cycle;
 
-        public SwitchFlowUpdateTask(Dirty dirty, NodeId nodeId) {
+        public SwitchFlowUpdateTask(Dirty dirty, NodeId nodeId, 
+                                    UpdateCycle cycle) {
             super();
             this.dirty = dirty;
             this.nodeId = nodeId;
+            this.cycle = cycle;
         }
 
         @Override
-        public Void call() throws Exception {
-            if (!switchManager.isSwitchReady(nodeId)) return null;
+        public void run() {
+            boolean success = false;
+            try {
+                success = update();
+            } catch (Exception e) {
+                LOG.error("Failed to update flow tables for {}", 
+                          nodeId.getValue(), e);
+            } finally {
+                if (success) converged.add(nodeId);
+                else converged.remove(nodeId);
+                updating.remove(nodeId);
+                cycle.switchDone(nodeId, success);
+                if (rerun.remove(nodeId)) {
+                    PolicyManager.this.dirty.get().addNode(nodeId);
+                    scheduleUpdate();
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> if every flow table was written
+         */
+        private boolean update() throws Exception {
+            if (!switchManager.isSwitchReady(nodeId)) return false;
             PolicyInfo info = policyResolver.getCurrentPolicy();
-            if (info == null) return null;
+            if (info == null) return false;
+            boolean success = true;
+            boolean first = true;
             for (OfTable table : flowPipeline) {
+                // The pipeline is in priority order.  When too many flow
+                // mods are already waiting, defer the remaining tables 
+                // to a later update rather than queueing more.  The first
+                // table is always written, so this is a threshold rather
+                // than a bound on the waiting flow mods.
+                if (!first && flowModLimiter.isCongested()) {
+                    LOG.debug("Deferring update of {} from table {}",
+                              nodeId.getValue(), 
+                              table.getClass().getSimpleName());
+                    PolicyManager.this.dirty.get().addNode(nodeId);
+                    scheduleUpdate();
+                    return false;
+                }
+                first = false;
                 try {
                     table.update(nodeId, info, dirty);
                 } catch (Exception e) {
                     LOG.error("Failed to write flow table {}", 
                               table.getClass().getSimpleName(), e);
+                    metrics.getTable(table.getClass().getSimpleName())
+                        .failed();
+                    success = false;
                 }
             }
-            return null;
+            return success;
         }
     }
 
     /**
-     * Update all flows on all switches as needed.  Note that this will block
-     * one of the threads on the executor.
+     * Start updating the flows on all switches as needed, most urgent
+     * first.  This does not wait for the switch updates to finish, so a
+     * switch that is slow to update does not hold up the next cycle for
+     * the others; it is simply updated again once it finishes.
      * @author readams
      */
     private class FlowUpdateTask implements Runnable {
@@ -341,22 +553,59 @@ public class PolicyManager
             LOG.debug("Beginning flow update task");
 
             Dirty d = dirty.getAndSet(new Dirty());
-            CompletionService<Void> ecs
-                = new ExecutorCompletionService<Void>(executor);
-            int n = 0;
+            UpdateCycle cycle = new UpdateCycle(ordinals.beginCycle(),
+                                                d.getTraces());
+
+            Set<NodeId> groupNodes = new HashSet<>();
+            for (EgKey eg : Sets.union(d.getGroups(), 
+                                       d.getGroupEps().keySet())) {
+                groupNodes.addAll(endpointManager.getNodesForGroup(eg));
+            }
+
+            List<List<NodeId>> queues = new ArrayList<>(PRIORITY_COUNT);
+            for (int i = 0; i < PRIORITY_COUNT; i++)
+                queues.add(new ArrayList<NodeId>());
             for (NodeId node : switchManager.getReadySwitches()) {
-                SwitchFlowUpdateTask swut = new SwitchFlowUpdateTask(d, node);
-                ecs.submit(swut);
-                n += 1;
+                queues.get(getUpdatePriority(d, groupNodes, node)).add(node);
             }
-            for (int i = 0; i < n; i++) {
-                try {
-                    ecs.take().get();
-                } catch (InterruptedException | ExecutionException e) {
-                    LOG.error("Failed to update flow tables", e);
+
+            // Only reclaim unreferenced ordinals if every switch is known
+            // to have been fully rewritten in this cycle
+            int count = 0;
+            for (List<NodeId> queue : queues) {
+                Iterator<NodeId> it = queue.iterator();
+                while (it.hasNext()) {
+                    NodeId node = it.next();
+                    if (updating.add(node)) {
+                        count += 1;
+                        continue;
+                    }
+                    // Still busy with a previous cycle
+                    cycle.complete = false;
+                    rerun.add(node);
+                    if (updating.add(node)) {
+                        // finished in the meantime
+                        rerun.remove(node);
+                        count += 1;
+                    } else {
+                        it.remove();
+                    }
+                }
+            }
+
+            cycle.started(count);
+            if (count == 0) {
+                cycle.complete = false;
+                cycle.done();
+                return;
+            }
+            cycle.remaining.set(count);
+            for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+                for (NodeId node : queues.get(priority)) {
+                    executor.execute(new SwitchFlowUpdateTask(d, node, cycle),
+                                     priority);
                 }
             }
-            LOG.debug("Flow update completed");
         }
     }
     
@@ -369,6 +618,7 @@ public class PolicyManager
         private Set<EgKey> groups;
         private ConcurrentMap<EgKey, Set<EpKey>> groupEps;
         private ConcurrentMap<NodeId, Set<EpKey>> nodeEps;
+        private Collection<Trace> traces;
         
         public Dirty() {
             ConcurrentHashMap<EpKey,Boolean> epmap = new ConcurrentHashMap<>();
@@ -380,6 +630,7 @@ public class PolicyManager
 
             groupEps = new ConcurrentHashMap<>();
             nodeEps = new ConcurrentHashMap<>();
+            traces = new ConcurrentLinkedQueue<>();
         }
         
         public void addEndpointGroupEp(EgKey egKey, EpKey epKey) {
@@ -398,6 +649,9 @@ public class PolicyManager
         public void addEndpoint(EpKey epKey) {
             endpoints.add(epKey);
         }
+        public void addTrace(Trace trace) {
+            if (trace != null) traces.add(trace);
+        }
 
         public Set<EpKey> getEndpoints() {
             return endpoints;
@@ -418,6 +672,10 @@ public class PolicyManager
         public ConcurrentMap<NodeId, Set<EpKey>> getNodeEps() {
             return nodeEps;
         }
+
+        public Collection<Trace> getTraces() {
+            return traces;
+        }
         
     }
 }
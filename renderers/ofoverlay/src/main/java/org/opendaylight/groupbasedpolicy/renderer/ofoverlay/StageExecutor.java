@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An executor for one stage of the renderer, such as datastore callbacks
+ * or flow computation.  Each stage gets its own named threads so that a
+ * backlog in one stage cannot starve the others, and keeps simple queue
+ * metrics so that a backlog can be spotted.
+ * 
+ * Tasks submitted with {@link #execute(Runnable, int)} wait in a priority
+ * queue, so that when the threads are busy the most urgent task runs 
+ * next rather than the oldest one.
+ */
+public class StageExecutor extends ScheduledThreadPoolExecutor 
+    implements StageExecutorMXBean {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StageExecutor.class);
+
+    private final String name;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final PriorityBlockingQueue<PrioritizedTask> prioritized =
+            new PriorityBlockingQueue<>();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+    /**
+     * Create a new stage executor
+     * @param name the name of the stage, used to name its threads
+     * @param threads the number of threads
+     */
+    public StageExecutor(final String name, int threads) {
+        super(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ofoverlay-" + name + "-" +
+                                         count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.name = name;
+    }
+
+    /**
+     * Change the number of threads.  Values less than 1 are ignored.
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1 || threads == getCorePoolSize()) return;
+        LOG.info("Setting {} executor to {} threads", name, threads);
+        setCorePoolSize(threads);
+    }
+
+    /**
+     * Execute a task ahead of any waiting task with a larger priority
+     * value.  Tasks with the same priority run in the order they were 
+     * submitted.
+     * @param command the task to run
+     * @param priority the priority, with lower values running first
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null) throw new NullPointerException();
+        PrioritizedTask task = 
+                new PrioritizedTask(command, priority, 
+                                    sequence.getAndIncrement());
+        prioritized.add(task);
+        try {
+            // Each entry in the priority queue has exactly one runner in 
+            // the executor queue, which runs whichever entry is most 
+            // urgent by the time it gets a thread
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    PrioritizedTask next = prioritized.poll();
+                    if (next != null) next.command.run();
+                }
+            });
+        } catch (RuntimeException e) {
+            prioritized.remove(task);
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " [threads=" + getThreads() +
+               ", active=" + getActiveCount() +
+               ", queued=" + getQueueDepth() +
+               ", peakQueued=" + getPeakQueueDepth() +
+               ", submitted=" + getSubmittedTaskCount() +
+               ", completed=" + getCompletedTaskCount() + "]";
+    }
+
+    // *******************
+    // StageExecutorMXBean
+    // *******************
+
+    /**
+     * @return the name of the stage
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of threads
+     */
+    @Override
+    public int getThreads() {
+        return getCorePoolSize();
+    }
+
+    /**
+     * @return the number of tasks waiting to run, including delayed tasks
+     */
+    @Override
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the largest number of tasks seen waiting to run
+     */
+    @Override
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * @return the total number of tasks submitted
+     */
+    @Override
+    public long getSubmittedTaskCount() {
+        return submitted.get();
+    }
+
+    // ****************************
+    // ScheduledThreadPoolExecutor
+    // ****************************
+
+    @Override
+    protected <V> RunnableScheduledFuture<V>
+        decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+        taskQueued();
+        return task;
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V>
+        decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+        taskQueued();
+        return task;
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private static class PrioritizedTask 
+        implements Comparable<PrioritizedTask> {
+        private final Runnable command;
+        private final int priority;
+        private final long seq;
+
+        public PrioritizedTask(Runnable command, int priority, long seq) {
+            super();
+            this.command = command;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask o) {
+            if (priority != o.priority)
+                return (priority < o.priority) ? -1 : 1;
+            return (seq < o.seq) ? -1 : ((seq == o.seq) ? 0 : 1);
+        }
+    }
+
+    private void taskQueued() {
+        submitted.incrementAndGet();
+        int depth = getQueue().size() + 1;
+        int peak;
+        while (depth > (peak = peakQueueDepth.get())) {
+            if (peakQueueDepth.compareAndSet(peak, depth)) break;
+        }
+    }
+}
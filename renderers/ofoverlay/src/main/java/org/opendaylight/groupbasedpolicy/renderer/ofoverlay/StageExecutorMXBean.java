@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+/**
+ * JMX view of the queue metrics for one stage of the renderer
+ */
+public interface StageExecutorMXBean {
+    public String getName();
+    public int getThreads();
+    public int getActiveCount();
+    public int getQueueDepth();
+    public int getPeakQueueDepth();
+    public long getSubmittedTaskCount();
+    public long getCompletedTaskCount();
+}
@@ -9,7 +9,9 @@
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.opendaylight.controller.md.sal.binding.api.ReadWriteTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
@@ -43,42 +45,99 @@ public abstract class FlowTable extends OfTable {
     // OfTable
     // *******
 
+    /**
+     * Bring the table up to date, writing at most one batch of flow mods
+     * from the rate limiter per transaction.  Each batch is computed from
+     * a fresh read of the table, so it picks up where the one before it
+     * left off, with the flow adds ahead of the deletes.
+     */
     @Override
     public void update(NodeId nodeId, PolicyInfo policyInfo,
                        Dirty dirty) throws Exception {
-        ReadWriteTransaction t = ctx.dataBroker.newReadWriteTransaction();
-        InstanceIdentifier<Table> tiid =
-                FlowUtils.createTablePath(nodeId, getTableId());
-        Optional<Table> r =
-                t.read(LogicalDatastoreType.CONFIGURATION, tiid).get();
-
-        // Unfortunately, we need to construct a unique string ID for each
-        // flow which is redundant with all the information in the flow itself
-        // We'll build this map so at least we don't have to be O(n^2)
-        HashMap<String, FlowCtx> flowMap = new HashMap<>();
-
-        if (r.isPresent()) {
-            Table curTable = (Table)r.get();
-
-            if (curTable.getFlow() != null) {
-                for (Flow f : curTable.getFlow()) {
-                    flowMap.put(f.getId().getValue(), new FlowCtx(f));
+        int batch = ctx.policyManager.getFlowModLimiter().getBatchSize();
+        long readNanos = 0;
+        long computeNanos = 0;
+        long commitNanos = 0;
+        int totalAdded = 0;
+        int totalDeleted = 0;
+        int unchanged = -1;
+        int lastPending = Integer.MAX_VALUE;
+        boolean reserved = false;
+        while (true) {
+            long start = System.nanoTime();
+            ReadWriteTransaction t = ctx.dataBroker.newReadWriteTransaction();
+            InstanceIdentifier<Table> tiid =
+                    FlowUtils.createTablePath(nodeId, getTableId());
+            Optional<Table> r =
+                    t.read(LogicalDatastoreType.CONFIGURATION, tiid).get();
+
+            // Unfortunately, we need to construct a unique string ID for each
+            // flow which is redundant with all the information in the flow 
+            // itself.  We'll build this map so at least we don't have to be
+            // O(n^2)
+            FlowMap flowMap = new FlowMap(batch);
+
+            if (r.isPresent()) {
+                Table curTable = (Table)r.get();
+
+                if (curTable.getFlow() != null) {
+                    for (Flow f : curTable.getFlow()) {
+                        flowMap.put(f.getId().getValue(), new FlowCtx(f));
+                    }
                 }
             }
-        }
 
-        sync(t, tiid, flowMap, nodeId, policyInfo, dirty);
+            long read = System.nanoTime();
 
-        for (FlowCtx fx : flowMap.values()) {
-            if (!fx.visited) {
+            sync(t, tiid, flowMap, nodeId, policyInfo, dirty);
+
+            int added = flowMap.added.size();
+            int deleted = 0;
+            int stale = 0;
+            for (FlowCtx fx : flowMap.values()) {
+                if (fx.visited) continue;
+                stale += 1;
+                if (added + deleted >= batch) continue;
                 t.delete(LogicalDatastoreType.CONFIGURATION,
                          FlowUtils.createFlowPath(tiid, fx.f.getKey()));
+                deleted += 1;
             }
-        }
+            // flows left for later batches
+            int pending = flowMap.deferred + stale - deleted;
+            if (unchanged < 0)
+                unchanged = flowMap.size() - stale;
+            long computed = System.nanoTime();
+            readNanos += read - start;
+            computeNanos += computed - read;
+
+            if (added + deleted == 0) {
+                t.cancel();
+                break;
+            }
+            if (!reserved) {
+                reserved = true;
+                // if throttled, start over from a fresh read once the 
+                // tokens are available
+                if (!reserve(nodeId, t, added + deleted)) continue;
+            }
+            commit(t);
+            reserved = false;
+            commitNanos += System.nanoTime() - computed;
+            totalAdded += added;
+            totalDeleted += deleted;
 
-        t.submit().get();
-        //ListenableFuture<Void> result = t.submit();
-        //Futures.addCallback(result, updateCallback);
+            if (pending == 0) break;
+            if (pending >= lastPending) {
+                // the table is changing under us; leave the rest to the
+                // next update rather than chasing it
+                LOG.warn("Table {} on {} is not converging, {} flow mods " + 
+                         "left", getTableId(), nodeId.getValue(), pending);
+                break;
+            }
+            lastPending = pending;
+        }
+        metrics.updated(readNanos, computeNanos, commitNanos,
+                        totalAdded, totalDeleted, unchanged);
     }
 
     // *********
@@ -117,10 +176,13 @@ public abstract class FlowTable extends OfTable {
 
     /**
      * "Visit" a flow ID by checking if it already exists and if so marking
-     * the {@link FlowCtx} visited bit.
+     * the {@link FlowCtx} visited bit.  When the map is a {@link FlowMap},
+     * a flow that needs to be added is recorded in it so that we can count
+     * the flow mods, and once its batch is full the flow is deferred to a
+     * later batch instead.
      * @param flowMap the map containing the existing flows for this table
      * @param flowId the ID for the flow
-     * @return <code>true</code> if the flow needs to be added
+     * @return <code>true</code> if the flow needs to be added now
      */
     protected static boolean visit(Map<String, FlowCtx> flowMap,
                                    String flowId) {
@@ -129,6 +191,15 @@ public abstract class FlowTable extends OfTable {
             c.visited = true;
             return false;
         }
+        if (flowMap instanceof FlowMap) {
+            FlowMap fm = (FlowMap)flowMap;
+            if (fm.added.contains(flowId)) return true;
+            if (fm.added.size() >= fm.batch) {
+                fm.deferred += 1;
+                return false;
+            }
+            fm.added.add(flowId);
+        }
         return true;
     }
 
@@ -170,6 +241,23 @@ public abstract class FlowTable extends OfTable {
         }
     }
 
+    /**
+     * The existing flows for a table, along with the IDs of the flows
+     * added by a sync and the number deferred to later batches
+     */
+    protected static class FlowMap extends HashMap<String, FlowCtx> {
+        private static final long serialVersionUID = 1L;
+
+        final int batch;
+        final Set<String> added = new HashSet<>();
+        int deferred = 0;
+
+        public FlowMap(int batch) {
+            super();
+            this.batch = batch;
+        }
+    }
+
     /**
      * Context object for keeping track of flow state
      */
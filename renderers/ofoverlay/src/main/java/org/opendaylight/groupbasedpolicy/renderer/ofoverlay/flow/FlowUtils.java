@@ -10,6 +10,8 @@ package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.Uri;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
@@ -117,6 +119,9 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflowplugin.extension.ni
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflowplugin.extension.nicira.match.rev140714.nxm.nx.tun.id.grouping.NxmNxTunIdBuilder;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.InetAddresses;
 
@@ -136,6 +141,11 @@ public final class FlowUtils {
      * IPv6 ethertype
      */
     public static final Long IPv6 = Long.valueOf(0x86DD);
+
+    /**
+     * Maximum number of distinct register load instruction sets to cache
+     */
+    private static final int REG_LOAD_CACHE_SIZE = 65536;
     
     /**
      * Creates an Instance Identifier (path) for node with specified id
@@ -261,7 +271,7 @@ public final class FlowUtils {
     public static Instruction applyActionIns(Action... actions) {
         return new ApplyActionsCaseBuilder()
             .setApplyActions(new ApplyActionsBuilder()
-                .setAction(actionList(actions))
+                .setAction(ImmutableList.copyOf(actionList(actions)))
                 .build())
             .build();
     }
@@ -275,7 +285,86 @@ public final class FlowUtils {
                 .setInstruction(i)
                 .build());
         }
-        return new InstructionsBuilder().setInstruction(ins).build();
+        return new InstructionsBuilder()
+            .setInstruction(ImmutableList.copyOf(ins))
+            .build();
+    }
+
+    /**
+     * Get an instruction set that loads the given values into registers
+     * and then goes to the given table.  The result is immutable and
+     * shared between all flows that load the same values.
+     * @param tableId the table to go to
+     * @param loads the register values to load, in order
+     * @return the {@link Instructions}
+     */
+    public static Instructions loadRegInstructions(short tableId,
+                                                   RegLoad... loads) {
+        return regLoadInstructions
+                .getUnchecked(new RegLoadKey(tableId, loads));
+    }
+
+    /**
+     * Get an instruction set that outputs to the port in the given
+     * register.  The result is immutable and shared.
+     * @param reg the register containing the output port
+     * @return the {@link Instructions}
+     */
+    public static Instructions outputRegInstructions(Class<? extends NxmNxReg> reg) {
+        Instructions ins = outputRegInstructions.get(reg);
+        if (ins == null) {
+            ins = instructions(applyActionIns(nxOutputRegAction(reg)));
+            Instructions old = outputRegInstructions.putIfAbsent(reg, ins);
+            if (old != null) ins = old;
+        }
+        return ins;
+    }
+
+    private static final LoadingCache<RegLoadKey, Instructions> regLoadInstructions =
+            CacheBuilder.newBuilder()
+                .maximumSize(REG_LOAD_CACHE_SIZE)
+                .build(new CacheLoader<RegLoadKey, Instructions>() {
+                    @Override
+                    public Instructions load(RegLoadKey key) {
+                        Action[] actions = new Action[key.loads.length];
+                        for (int i = 0; i < key.loads.length; i++) {
+                            RegLoad l = key.loads[i];
+                            actions[i] = 
+                                    nxLoadRegAction(l.reg, 
+                                                    BigInteger.valueOf(l.value));
+                        }
+                        return instructions(applyActionIns(actions),
+                                            gotoTableIns(key.tableId));
+                    }
+                });
+
+    private static final ConcurrentHashMap<Class<? extends NxmNxReg>, 
+                                           Instructions> outputRegInstructions =
+            new ConcurrentHashMap<>();
+
+    private static final class RegLoadKey {
+        final short tableId;
+        final RegLoad[] loads;
+
+        public RegLoadKey(short tableId, RegLoad[] loads) {
+            super();
+            this.tableId = tableId;
+            this.loads = loads;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tableId + Arrays.hashCode(loads);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof RegLoadKey)) return false;
+            RegLoadKey other = (RegLoadKey) obj;
+            return tableId == other.tableId && 
+                    Arrays.equals(loads, other.loads);
+        }
     }
 
     public static Instructions dropInstructions() {
@@ -483,6 +572,33 @@ public final class FlowUtils {
         }
     }
     
+    /**
+     * A value to load into a register
+     */
+    public static final class RegLoad {
+        final Class<? extends NxmNxReg> reg;
+        final long value;
+        public RegLoad(Class<? extends NxmNxReg> reg, long value) {
+            super();
+            this.reg = reg;
+            this.value = value;
+        }
+        public static RegLoad of(Class<? extends NxmNxReg> reg, long value) {
+            return new RegLoad(reg, value);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * reg.hashCode() + (int) (value ^ (value >>> 32));
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof RegLoad)) return false;
+            RegLoad other = (RegLoad) obj;
+            return reg.equals(other.reg) && value == other.value;
+        }
+    }
+    
     public static void addNxRegMatch(MatchBuilder match,
                                      RegMatch... matches) {
         ArrayList<ExtensionList> extensions = new ArrayList<>();
@@ -10,7 +10,11 @@ package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
 import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
@@ -45,6 +49,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
 
 import static org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.FlowUtils.*;
@@ -57,10 +62,40 @@ public class GroupTable extends OfTable {
     private static final Logger LOG =
             LoggerFactory.getLogger(GroupTable.class);
 
+    /**
+     * The group IDs that have been successfully committed to the data store
+     * for each node
+     */
+    private final ConcurrentHashMap<NodeId, Set<GroupId>> committedGroups =
+            new ConcurrentHashMap<>();
+
     public GroupTable(OfTableCtx ctx) {
         super(ctx);
     }
 
+    /**
+     * Check whether the given group has been committed to the node by a
+     * previous call to {@link #update(NodeId, PolicyInfo, Dirty)}.  Flow
+     * tables that direct traffic to a group must not write those flows
+     * until the group exists.
+     * @param nodeId the node to check
+     * @param groupId the group ID to check
+     * @return <code>true</code> if the group exists on the node
+     */
+    public boolean groupExists(NodeId nodeId, GroupId groupId) {
+        Set<GroupId> groups = committedGroups.get(nodeId);
+        return (groups != null && groups.contains(groupId));
+    }
+
+    /**
+     * Record the set of groups that now exist on the node
+     * @param nodeId the node
+     * @param groups the group IDs
+     */
+    protected void groupsCommitted(NodeId nodeId, Set<GroupId> groups) {
+        committedGroups.put(nodeId, ImmutableSet.copyOf(groups));
+    }
+
     @Override
     public void update(NodeId nodeId, PolicyInfo policyInfo, Dirty dirty)
             throws Exception {
@@ -68,19 +103,27 @@ public class GroupTable extends OfTable {
         // tables unfortunately, so we have to get the whole goddamned node.
         // Since this is happening concurrently with other things that are
         // working in subtrees of nodes, we have to do two transactions
+        long start = System.nanoTime();
         ReadOnlyTransaction t = ctx.dataBroker.newReadOnlyTransaction();
         InstanceIdentifier<Node> niid = createNodePath(nodeId);
         Optional<Node> r =
                 t.read(LogicalDatastoreType.CONFIGURATION, niid).get();
-        if (!r.isPresent()) return;
+        if (!r.isPresent()) {
+            committedGroups.remove(nodeId);
+            return;
+        }
         FlowCapableNode fcn = r.get().getAugmentation(FlowCapableNode.class);
-        if (fcn == null) return;
+        if (fcn == null) {
+            committedGroups.remove(nodeId);
+            return;
+        }
 
         HashMap<GroupId, GroupCtx> groupMap = new HashMap<>();
 
         if (fcn.getGroup() != null) {
             for (Group g : fcn.getGroup()) {
                 GroupCtx gctx = new GroupCtx(g.getGroupId());
+                gctx.exists = true;
                 groupMap.put(g.getGroupId(), gctx);
 
                 Buckets bs = g.getBuckets();
@@ -91,27 +134,98 @@ public class GroupTable extends OfTable {
             }
         }
 
+        long read = System.nanoTime();
+
         sync(nodeId, policyInfo, dirty, groupMap);
 
-        WriteTransaction wt = ctx.dataBroker.newWriteOnlyTransaction();
-        boolean wrote = syncGroupToStore(wt, nodeId, groupMap);
-        if (wrote)
-            wt.submit().get();
+        long computed = System.nanoTime();
+
+        // write the changes in batches of at most the rate limiter's 
+        // batch size, taking the tokens for each batch
+        int batch = ctx.policyManager.getFlowModLimiter().getBatchSize();
+        while (true) {
+            WriteTransaction wt = ctx.dataBroker.newWriteOnlyTransaction();
+            List<GroupCtx> synced = new ArrayList<>();
+            int groupMods = 
+                    syncGroupToStore(wt, nodeId, groupMap, batch, synced);
+            if (groupMods == 0) {
+                wt.cancel();
+                break;
+            }
+            if (!reserve(nodeId, wt, groupMods)) {
+                // throttled, so write the batch again into a new
+                // transaction now that the tokens are available
+                wt = ctx.dataBroker.newWriteOnlyTransaction();
+                synced.clear();
+                syncGroupToStore(wt, nodeId, groupMap, batch, synced);
+            }
+            commit(wt);
+            for (GroupCtx gctx : synced) {
+                gctx.synced = true;
+            }
+        }
+
+        int written = 0;
+        int deleted = 0;
+        int unchanged = 0;
+        for (GroupCtx gctx : groupMap.values()) {
+            if (!gctx.visited) deleted += 1;
+            else if (gctx.changed) written += 1;
+            else unchanged += 1;
+        }
+        metrics.updated(read - start, computed - read,
+                        System.nanoTime() - computed,
+                        written, deleted, unchanged);
+
+        HashSet<GroupId> groups = new HashSet<>();
+        for (GroupCtx gctx : groupMap.values()) {
+            if (gctx.exists) groups.add(gctx.groupId);
+        }
+        groupsCommitted(nodeId, groups);
     }
 
-    protected boolean syncGroupToStore(WriteTransaction wt,
-                                       NodeId nodeId,
-                                       HashMap<GroupId, GroupCtx> groupMap) {
-        boolean wrote = false;
+    /**
+     * Write the changes to the group tables to the transaction, and mark
+     * the groups that are changed
+     * @return the number of group mods written
+     */
+    protected int syncGroupToStore(WriteTransaction wt,
+                                   NodeId nodeId,
+                                   HashMap<GroupId, GroupCtx> groupMap) {
+        return syncGroupToStore(wt, nodeId, groupMap, Integer.MAX_VALUE,
+                                new ArrayList<GroupCtx>());
+    }
+
+    /**
+     * Write the changes to the groups that have not been synced yet to
+     * the transaction, leaving out groups whose changes would take the
+     * batch over the given number of group mods.  The changes to one group
+     * are never split, so a batch always holds at least one group.
+     * @param batch the largest number of group mods to write
+     * @param synced the groups whose changes were written are added here
+     * @return the number of group mods written
+     */
+    protected int syncGroupToStore(WriteTransaction wt,
+                                   NodeId nodeId,
+                                   HashMap<GroupId, GroupCtx> groupMap,
+                                   int batch, List<GroupCtx> synced) {
+        int wrote = 0;
         for (GroupCtx gctx : groupMap.values()) {
+            if (gctx.synced) continue;
             InstanceIdentifier<Group> giid =
                     createGroupPath(nodeId, gctx.groupId);
             if (!gctx.visited) {
+                if (wrote > 0 && wrote + 1 > batch) continue;
                 // Remove group table
-                wrote = true;
+                wrote += 1;
+                gctx.exists = false;
+                gctx.changed = true;
                 wt.delete(LogicalDatastoreType.CONFIGURATION, giid);
+                synced.add(gctx);
             } else {
                 ArrayList<Bucket> buckets = new ArrayList<>();
+                ArrayList<InstanceIdentifier<Bucket>> removed = 
+                        new ArrayList<>();
 
                 // update group table
                 for (BucketCtx bctx : gctx.bucketMap.values()) {
@@ -124,8 +238,7 @@ public class GroupTable extends OfTable {
                                              bid);
                     if (!bctx.visited) {
                         // remove bucket
-                        wrote = true;
-                        wt.delete(LogicalDatastoreType.CONFIGURATION, biid);
+                        removed.add(biid);
                     } else if (bctx.b == null) {
                         // new bucket
                         buckets.add(bctx.newb);
@@ -136,6 +249,15 @@ public class GroupTable extends OfTable {
                         buckets.add(bctx.newb);
                     }
                 }
+                int mods = removed.size() + (buckets.isEmpty() ? 0 : 1);
+                gctx.changed = (mods > 0);
+                if (mods == 0) continue;
+                if (wrote > 0 && wrote + mods > batch) continue;
+                wrote += mods;
+                synced.add(gctx);
+                for (InstanceIdentifier<Bucket> biid : removed) {
+                    wt.delete(LogicalDatastoreType.CONFIGURATION, biid);
+                }
                 if (buckets.size() > 0) {
                     GroupBuilder gb = new GroupBuilder()
                         .setGroupId(gctx.groupId)
@@ -143,7 +265,7 @@ public class GroupTable extends OfTable {
                         .setBuckets(new BucketsBuilder()
                         .setBucket(buckets)
                         .build());
-                    wrote = true;
+                    gctx.exists = true;
                     wt.merge(LogicalDatastoreType.CONFIGURATION,
                              giid, gb.build());
                 }
@@ -253,6 +375,9 @@ public class GroupTable extends OfTable {
         GroupId groupId;
         Map<BucketId, BucketCtx> bucketMap = new HashMap<>();
         boolean visited = false;
+        boolean exists = false;
+        boolean changed = false;
+        boolean synced = false;
 
         public GroupCtx(GroupId groupId) {
             super();
@@ -8,11 +8,16 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
 import org.opendaylight.controller.sal.binding.api.RpcProviderRegistry;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.EndpointManager;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.FlowModRateLimiter;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.FlowPipelineMetrics.TableMetrics;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.PolicyManager;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.PolicyManager.Dirty;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.SwitchManager;
@@ -34,10 +39,13 @@ public abstract class OfTable {
             LoggerFactory.getLogger(OfTable.class);
 
     protected final OfTableCtx ctx;
+    protected final TableMetrics metrics;
 
     public OfTable(OfTableCtx ctx) {
         super();
         this.ctx = ctx;
+        this.metrics = ctx.policyManager.getMetrics()
+                .getTable(getClass().getSimpleName());
     }
 
     /**
@@ -54,6 +62,7 @@ public abstract class OfTable {
         protected final PolicyResolver policyResolver;
     
         protected final ScheduledExecutorService executor;
+        protected final ExecutorService commitExecutor;
     
         public OfTableCtx(DataBroker dataBroker,
                           RpcProviderRegistry rpcRegistry,
@@ -62,6 +71,23 @@ public abstract class OfTable {
                           SwitchManager switchManager,
                           EndpointManager endpointManager,
                           ScheduledExecutorService executor) {
+            this(dataBroker, rpcRegistry, policyManager, policyResolver,
+                 switchManager, endpointManager, executor, null);
+        }
+
+        /**
+         * @param commitExecutor the executor on which to write flow 
+         * changes to the data store, or <code>null</code> to write them
+         * from the thread that computed them
+         */
+        public OfTableCtx(DataBroker dataBroker,
+                          RpcProviderRegistry rpcRegistry,
+                          PolicyManager policyManager,
+                          PolicyResolver policyResolver,
+                          SwitchManager switchManager,
+                          EndpointManager endpointManager,
+                          ScheduledExecutorService executor,
+                          ExecutorService commitExecutor) {
             super();
             this.dataBroker = dataBroker;
             this.rpcRegistry = rpcRegistry;
@@ -70,10 +96,60 @@ public abstract class OfTable {
             this.epManager = endpointManager;
             this.policyResolver = policyResolver;
             this.executor = executor;
+            this.commitExecutor = commitExecutor;
         }
     
     }
 
+    /**
+     * Take the flow mod rate limit tokens for a transaction that has been
+     * built but not yet submitted.  If the switch or the controller is
+     * over its limit, the transaction is cancelled and this waits for the
+     * tokens on the calling thread with no transaction open, so that 
+     * throttling never holds a data store transaction; the caller must 
+     * then rebuild the transaction and commit it without reserving again.
+     * Callers should keep each transaction to at most
+     * {@link FlowModRateLimiter#getBatchSize()} mods so that the writes are 
+     * paced rather than postponed.
+     * @param nodeId the switch being written
+     * @param t the transaction
+     * @param flowMods the number of flow or group mods in the transaction
+     * @return <code>true</code> if the transaction may be committed now, or
+     * <code>false</code> if it was cancelled and must be rebuilt
+     * @throws InterruptedException
+     */
+    protected boolean reserve(NodeId nodeId,
+                              WriteTransaction t,
+                              int flowMods) throws InterruptedException {
+        FlowModRateLimiter limiter = ctx.policyManager.getFlowModLimiter();
+        long wait = limiter.reserve(nodeId, flowMods);
+        if (wait <= 0) return true;
+        t.cancel();
+        limiter.await(nodeId, flowMods, wait);
+        return false;
+    }
+
+    /**
+     * Write a transaction to the data store.  The submit runs on the
+     * commit executor if there is one, and this waits until the write
+     * completes.
+     * @param t the transaction
+     * @throws Exception
+     */
+    protected void commit(final WriteTransaction t) throws Exception {
+        Callable<Void> c = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                t.submit().get();
+                return null;
+            }
+        };
+        if (ctx.commitExecutor == null)
+            c.call();
+        else
+            ctx.commitExecutor.submit(c).get();
+    }
+
     // *******
     // OfTable
     // *******
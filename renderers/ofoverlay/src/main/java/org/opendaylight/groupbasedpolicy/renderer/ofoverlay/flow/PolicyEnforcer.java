@@ -8,6 +8,7 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,7 +36,6 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.M
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ConditionName;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.TenantId;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.HasDirection.Direction;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.has.classifier.refs.ClassifierRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.instance.ParameterValue;
@@ -54,6 +54,12 @@ import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+
 import static org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.FlowUtils.*;
 
 /**
@@ -67,6 +73,23 @@ public class PolicyEnforcer extends FlowTable {
 
     public static final short TABLE_ID = 3;
 
+    /**
+     * The match templates for each classifier instance.  Keys are held
+     * weakly and compared by identity, so an entry lives only as long as
+     * the tenant version that contains the classifier instance.
+     */
+    private final LoadingCache<ClassifierInstance, 
+                               Optional<List<Match>>> classifierMatches =
+            CacheBuilder.newBuilder()
+                .weakKeys()
+                .build(new CacheLoader<ClassifierInstance, 
+                                       Optional<List<Match>>>() {
+                    @Override
+                    public Optional<List<Match>> load(ClassifierInstance ci) {
+                        return compileClassifier(ci);
+                    }
+                });
+
     public PolicyEnforcer(OfTable.OfTableCtx ctx) {
         super(ctx);
     }
@@ -85,7 +108,11 @@ public class PolicyEnforcer extends FlowTable {
         allowFromTunnel(t, tiid, flowMap, nodeId);
 
         HashSet<CgPair> visitedPairs = new HashSet<>();
+        HashMap<EgKey, Set<ConditionGroup>> peerCgs = new HashMap<>();
 
+        // Work at the granularity of distinct condition groups rather than
+        // individual endpoints: all endpoints in an endpoint group with the
+        // same condition group produce identical policy flows
         for (EgKey sepg : ctx.epManager.getGroupsForNode(nodeId)) {
             // Allow traffic within the same endpoint group if the policy
             // specifies
@@ -101,28 +128,25 @@ public class PolicyEnforcer extends FlowTable {
                 allowSameEpg(t, tiid, flowMap, nodeId, sepgId);
             }
 
-            for (Endpoint src : ctx.epManager.getEPsForNode(nodeId, sepg)) {
-                if (src.getTenant() == null || src.getEndpointGroup() == null)
-                    continue;
-                
-                List<ConditionName> conds = 
-                        ctx.epManager.getCondsForEndpoint(src);
-                ConditionGroup scg = policyInfo.getEgCondGroup(sepg, conds);
+            Set<ConditionGroup> scgs = 
+                    getCondGroups(policyInfo, sepg, 
+                                  ctx.epManager.getCondsForNode(nodeId, sepg));
+            Set<EgKey> peers = policyInfo.getPeers(sepg);
+            for (ConditionGroup scg : scgs) {
                 int scgId = ctx.policyManager.getCondGroupOrdinal(scg);
-                
-                Set<EgKey> peers = policyInfo.getPeers(sepg);
+
                 for (EgKey depg : peers) {
                     int depgId = 
                             ctx.policyManager.getContextOrdinal(depg.getTenantId(), 
                                                                 depg.getEgId());
-                
-                    for (Endpoint dst : ctx.epManager.getEndpointsForGroup(depg)) {
-                
-                        conds = ctx.epManager.getCondsForEndpoint(dst);
-                        ConditionGroup dcg = 
-                                policyInfo.getEgCondGroup(new EgKey(dst.getTenant(), 
-                                                                    dst.getEndpointGroup()),
-                                                          conds);
+                    Set<ConditionGroup> dcgs = peerCgs.get(depg);
+                    if (dcgs == null) {
+                        dcgs = getCondGroups(policyInfo, depg, 
+                                             ctx.epManager.getCondsForGroup(depg));
+                        peerCgs.put(depg, dcgs);
+                    }
+
+                    for (ConditionGroup dcg : dcgs) {
                         int dcgId = ctx.policyManager.getCondGroupOrdinal(dcg);
                         
                         CgPair p = new CgPair(depgId, sepgId, dcgId, scgId);
@@ -136,12 +160,26 @@ public class PolicyEnforcer extends FlowTable {
                         visitedPairs.add(p);
                         syncPolicy(t, tiid, flowMap, nodeId, policyInfo, 
                                    p, sepg, depg, scg, dcg);
-                        
                     }
                 }
             }
         }
     }
+
+    /**
+     * Resolve the distinct condition lists in use in an endpoint group to
+     * the set of distinct condition groups they map to under the current
+     * policy.
+     */
+    private static Set<ConditionGroup> 
+            getCondGroups(PolicyInfo policyInfo, EgKey eg,
+                          Collection<List<ConditionName>> condLists) {
+        HashSet<ConditionGroup> cgs = new HashSet<>();
+        for (List<ConditionName> conds : condLists) {
+            cgs.add(policyInfo.getEgCondGroup(eg, conds));
+        }
+        return cgs;
+    }
     
     private void allowSameEpg(ReadWriteTransaction t, 
                               InstanceIdentifier<Table> tiid,
@@ -159,7 +197,7 @@ public class PolicyEnforcer extends FlowTable {
                 .setId(flowId)
                 .setMatch(mb.build())
                 .setPriority(65000)
-                .setInstructions(instructions(applyActionIns(nxOutputRegAction(NxmNxReg7.class))));
+                .setInstructions(outputRegInstructions(NxmNxReg7.class));
             writeFlow(t, tiid, flow.build());
         }
     }
@@ -181,7 +219,7 @@ public class PolicyEnforcer extends FlowTable {
                 .setId(flowId)
                 .setMatch(mb.build())
                 .setPriority(65000)
-                .setInstructions(instructions(applyActionIns(nxOutputRegAction(NxmNxReg7.class))));
+                .setInstructions(outputRegInstructions(NxmNxReg7.class));
             writeFlow(t, tiid, flow.build());
         }
     }
@@ -203,21 +241,32 @@ public class PolicyEnforcer extends FlowTable {
             TenantId tenantId = rg.getContractTenant().getId();
             IndexedTenant tenant = ctx.policyResolver.getTenant(tenantId); 
             for (Rule r : rg.getRules()) {
-                syncDirection(t, tiid, flowMap, nodeId, tenant,
-                                    p, r, Direction.In, priority);
-                syncDirection(t, tiid, flowMap, nodeId, tenant,
-                                    p, r, Direction.Out, priority);
+                int flows = 
+                        syncDirection(t, tiid, flowMap, nodeId, tenant,
+                                      p, r, Direction.In, priority);
+                flows += syncDirection(t, tiid, flowMap, nodeId, tenant,
+                                       p, r, Direction.Out, priority);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Rule {} renders {} flows for EPGs {}|{} " + 
+                              "and {}|{} on {}", r.getName().getValue(), 
+                              flows, p.sepg, p.scgId, p.depg, p.dcgId, 
+                              nodeId.getValue());
                 
                 priority -= 1;
             }
         }
     }
     
-    private void syncDirection(ReadWriteTransaction t, 
-                               InstanceIdentifier<Table> tiid,
-                               Map<String, FlowCtx> flowMap, NodeId nodeId,
-                               IndexedTenant contractTenant,
-                               CgPair p, Rule r, Direction d, int priority) {
+    /**
+     * Render the flows for one direction of a rule
+     * @return the number of flows the rule renders in this direction
+     */
+    private int syncDirection(ReadWriteTransaction t, 
+                              InstanceIdentifier<Table> tiid,
+                              Map<String, FlowCtx> flowMap, NodeId nodeId,
+                              IndexedTenant contractTenant,
+                              CgPair p, Rule r, Direction d, int priority) {
+        int flows = 0;
         for (ClassifierRef cr : r.getClassifierRef()) {
             if (cr.getDirection() != null && 
                 !cr.getDirection().equals(Direction.Bidirectional) && 
@@ -228,7 +277,7 @@ public class PolicyEnforcer extends FlowTable {
             // XXX - TODO - implement connection tracking (requires openflow 
             // extension and data plane support)
 
-            MatchBuilder baseMatch = new MatchBuilder();
+            RegMatch[] regMatches;
 
             if (d.equals(Direction.In)) {
                 idb.append(p.sepg)
@@ -240,11 +289,12 @@ public class PolicyEnforcer extends FlowTable {
                     .append(p.dcgId)
                     .append("|")
                     .append(priority);
-                addNxRegMatch(baseMatch, 
-                              RegMatch.of(NxmNxReg0.class,Long.valueOf(p.sepg)),
-                              RegMatch.of(NxmNxReg1.class,Long.valueOf(p.scgId)),
-                              RegMatch.of(NxmNxReg2.class,Long.valueOf(p.depg)),
-                              RegMatch.of(NxmNxReg3.class,Long.valueOf(p.dcgId)));
+                regMatches = new RegMatch[] {
+                    RegMatch.of(NxmNxReg0.class,Long.valueOf(p.sepg)),
+                    RegMatch.of(NxmNxReg1.class,Long.valueOf(p.scgId)),
+                    RegMatch.of(NxmNxReg2.class,Long.valueOf(p.depg)),
+                    RegMatch.of(NxmNxReg3.class,Long.valueOf(p.dcgId))
+                };
             } else {
                 idb.append(p.depg)
                     .append("|")
@@ -255,11 +305,12 @@ public class PolicyEnforcer extends FlowTable {
                     .append(p.scgId)
                     .append("|")
                     .append(priority);                
-                addNxRegMatch(baseMatch, 
-                              RegMatch.of(NxmNxReg0.class,Long.valueOf(p.depg)),
-                              RegMatch.of(NxmNxReg1.class,Long.valueOf(p.dcgId)),
-                              RegMatch.of(NxmNxReg2.class,Long.valueOf(p.sepg)),
-                              RegMatch.of(NxmNxReg3.class,Long.valueOf(p.scgId)));
+                regMatches = new RegMatch[] {
+                    RegMatch.of(NxmNxReg0.class,Long.valueOf(p.depg)),
+                    RegMatch.of(NxmNxReg1.class,Long.valueOf(p.dcgId)),
+                    RegMatch.of(NxmNxReg2.class,Long.valueOf(p.sepg)),
+                    RegMatch.of(NxmNxReg3.class,Long.valueOf(p.scgId))
+                };
             }
 
 
@@ -268,45 +319,81 @@ public class PolicyEnforcer extends FlowTable {
                 // XXX TODO fail the match and raise an exception
                 LOG.warn("Classifier instance {} not found", 
                          cr.getName().getValue());
-                return;
-            }
-            Classifier cfier = SubjectFeatures
-                    .getClassifier(ci.getClassifierDefinitionId());
-            if (cfier == null) {
-                // XXX TODO fail the match and raise an exception
-                LOG.warn("Classifier definition {} not found", 
-                         ci.getClassifierDefinitionId().getValue());
-                return;
+                return flows;
             }
+            Optional<List<Match>> templates = 
+                    classifierMatches.getUnchecked(ci);
+            if (!templates.isPresent()) return flows;
 
-            List<MatchBuilder> matches = Collections.singletonList(baseMatch);
-            Map<String,Object> params = new HashMap<>();
-            for (ParameterValue v : ci.getParameterValue()) {
-                if (v.getName() == null) continue;
-                if (v.getIntValue() != null) {
-                    params.put(v.getName().getValue(), v.getIntValue());
-                } else if (v.getStringValue() != null) {
-                    params.put(v.getName().getValue(), v.getStringValue());
-                }
-            }
-            
-            matches = cfier.updateMatch(matches, params);
             String baseId = idb.toString();
             FlowBuilder flow = base()
                     .setPriority(Integer.valueOf(priority));
-            for (MatchBuilder match : matches) {
+            for (Match template : templates.get()) {
+                MatchBuilder match = new MatchBuilder(template);
+                addNxRegMatch(match, regMatches);
                 Match m = match.build();
                 FlowId flowId = new FlowId(baseId + "|" + m.toString());
                 if (visit(flowMap, flowId.getValue())) {
                     flow.setMatch(m)
                         .setId(flowId)
                         .setPriority(Integer.valueOf(priority))
-                        .setInstructions(instructions(applyActionIns(nxOutputRegAction(NxmNxReg7.class))));
+                        .setInstructions(outputRegInstructions(NxmNxReg7.class));
                     writeFlow(t, tiid, flow.build());
                 }
             }
+            flows += templates.get().size();
         } 
+        return flows;
+    }
+
+    /**
+     * Run the classifier for a classifier instance once to produce the
+     * list of match field templates it contributes.  The register matches
+     * for each pair of condition groups are overlaid on these templates.
+     * @return the templates, or absent if the classifier definition is
+     * not known or the classifier rejects the parameters
+     */
+    private static Optional<List<Match>> compileClassifier(ClassifierInstance ci) {
+        Classifier cfier = SubjectFeatures
+                .getClassifier(ci.getClassifierDefinitionId());
+        if (cfier == null) {
+            // XXX TODO fail the match and raise an exception
+            LOG.warn("Classifier definition {} not found", 
+                     ci.getClassifierDefinitionId().getValue());
+            return Optional.absent();
+        }
 
+        Map<String,Object> params = new HashMap<>();
+        if (ci.getParameterValue() != null) {
+            for (ParameterValue v : ci.getParameterValue()) {
+                if (v.getName() == null) continue;
+                if (v.getIntValue() != null) {
+                    params.put(v.getName().getValue(), v.getIntValue());
+                } else if (v.getStringValue() != null) {
+                    params.put(v.getName().getValue(), v.getStringValue());
+                } else if (v.getRangeValue() != null) {
+                    params.put(v.getName().getValue(), v.getRangeValue());
+                }
+            }
+        }
+
+        List<MatchBuilder> matches;
+        try {
+            cfier.validate(params);
+            matches = cfier.updateMatch(Collections
+                                            .singletonList(new MatchBuilder()), 
+                                        params);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Classifier instance {} rejected, the rules using " + 
+                      "it are not rendered: {}", 
+                      ci.getName().getValue(), e.getMessage());
+            return Optional.absent();
+        }
+        ImmutableList.Builder<Match> templates = ImmutableList.builder();
+        for (MatchBuilder match : matches) {
+            templates.add(match.build());
+        }
+        return Optional.<List<Match>>of(templates.build());
     }
 
     @Immutable
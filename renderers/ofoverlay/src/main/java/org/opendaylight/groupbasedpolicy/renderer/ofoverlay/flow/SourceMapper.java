@@ -8,20 +8,20 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
-import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 
 import org.opendaylight.controller.md.sal.binding.api.ReadWriteTransaction;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.PolicyManager.Dirty;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.FlowUtils.RegLoad;
 import org.opendaylight.groupbasedpolicy.resolver.ConditionGroup;
 import org.opendaylight.groupbasedpolicy.resolver.EgKey;
 import org.opendaylight.groupbasedpolicy.resolver.IndexedTenant;
 import org.opendaylight.groupbasedpolicy.resolver.PolicyInfo;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.Action;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Instructions;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ConditionName;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
@@ -113,28 +113,14 @@ public class SourceMapper extends FlowTable {
                     MatchBuilder mb = new MatchBuilder()
                         .setInPort(tunPort);
                     addNxTunIdMatch(mb, egId);
-                    Action segReg = nxLoadRegAction(NxmNxReg0.class, 
-                                                    BigInteger.valueOf(egId));
                     // set condition group register to all ones to bypass
                     // policy enforcement
-                    Action scgReg = nxLoadRegAction(NxmNxReg1.class,
-                                                    BigInteger.valueOf(0xffffff));
-                    Action bdReg = nxLoadRegAction(NxmNxReg4.class, 
-                                                   BigInteger.valueOf(bdId));
-                    Action fdReg = nxLoadRegAction(NxmNxReg5.class, 
-                                                   BigInteger.valueOf(fdId));
-                    Action vrfReg = nxLoadRegAction(NxmNxReg6.class, 
-                                                    BigInteger.valueOf(l3Id));
                     FlowBuilder flowb = base()
                         .setId(flowid)
                         .setPriority(Integer.valueOf(150))
                         .setMatch(mb.build())
-                        .setInstructions(instructions(applyActionIns(segReg,
-                                                                     scgReg,
-                                                                     bdReg,
-                                                                     fdReg,
-                                                                     vrfReg),
-                                                      gotoTableIns((short)(TABLE_ID + 1))));
+                        .setInstructions(sourceInstructions(egId, 0xffffff,
+                                                            bdId, fdId, l3Id));
                     writeFlow(t, tiid, flowb.build());
                 }
             }
@@ -185,16 +171,6 @@ public class SourceMapper extends FlowTable {
             .append(cgId)
             .toString());
         if (visit(flowMap, flowid.getValue())) {
-            Action segReg = nxLoadRegAction(NxmNxReg0.class, 
-                                            BigInteger.valueOf(egId));
-            Action scgReg = nxLoadRegAction(NxmNxReg1.class, 
-                                            BigInteger.valueOf(cgId));
-            Action bdReg = nxLoadRegAction(NxmNxReg4.class, 
-                                           BigInteger.valueOf(bdId));
-            Action fdReg = nxLoadRegAction(NxmNxReg5.class, 
-                                           BigInteger.valueOf(fdId));
-            Action vrfReg = nxLoadRegAction(NxmNxReg6.class, 
-                                            BigInteger.valueOf(l3Id));
             FlowBuilder flowb = base()
                 .setPriority(Integer.valueOf(100))
                 .setId(flowid)
@@ -203,13 +179,24 @@ public class SourceMapper extends FlowTable {
                                                     null, null))
                     .setInPort(ofc.getNodeConnectorId())
                     .build())
-                .setInstructions(instructions(applyActionIns(segReg,
-                                                             scgReg,
-                                                             bdReg,
-                                                             fdReg,
-                                                             vrfReg),
-                                              gotoTableIns((short)(TABLE_ID + 1))));
+                .setInstructions(sourceInstructions(egId, cgId, 
+                                                    bdId, fdId, l3Id));
             writeFlow(t, tiid, flowb.build());
         }
     }
+
+    /**
+     * Get the shared instructions that set the source registers and go
+     * to the next table
+     */
+    private static Instructions sourceInstructions(int egId, int cgId,
+                                                   int bdId, int fdId,
+                                                   int l3Id) {
+        return loadRegInstructions((short)(TABLE_ID + 1),
+                                   RegLoad.of(NxmNxReg0.class, egId),
+                                   RegLoad.of(NxmNxReg1.class, cgId),
+                                   RegLoad.of(NxmNxReg4.class, bdId),
+                                   RegLoad.of(NxmNxReg5.class, fdId),
+                                   RegLoad.of(NxmNxReg6.class, l3Id));
+    }
 }
@@ -33,6 +33,17 @@ public abstract class Classifier {
      */
     public abstract ClassifierDefinition getClassDef();
     
+    /**
+     * Check that the parameters of a classifier instance can be rendered.
+     * Instances that fail are rejected, and the rules that use them are 
+     * not rendered.
+     * @param params the parameters for the classifier instance
+     * @throws IllegalArgumentException describing why the parameters are 
+     * rejected
+     */
+    public void validate(Map<String, Object> params) {
+    }
+
     /**
      * Construct a set of matches that will apply to the traffic.  Augment
      * the existing list of matches or add new matches.  It's important
@@ -40,6 +51,8 @@ public abstract class Classifier {
      * @param matches The existing matches
      * @param params the parameters for the classifier instance
      * @return the updated list of matches (may be a different length)
+     * @throws IllegalArgumentException if the parameters are rejected by
+     * {@link #validate(Map)}
      */
     public abstract List<MatchBuilder> updateMatch(List<MatchBuilder> matches,
                                                    Map<String, Object> params);
@@ -8,9 +8,13 @@
 
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sf;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.concurrent.Immutable;
+
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.PortNumber;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ClassifierDefinitionId;
@@ -20,6 +24,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.definition.Parameter.IsRequired;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.definition.Parameter.Type;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.definition.ParameterBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.instance.parameter.value.RangeValue;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.definitions.ClassifierDefinition;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.definitions.ClassifierDefinitionBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.layer._4.match.TcpMatchBuilder;
@@ -29,10 +34,22 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 /**
- * Match against TCP or UDP, and source and/or destination ports
+ * Match against TCP or UDP, and source and/or destination ports.  Port
+ * ranges are expanded into the minimal set of prefix-masked port blocks.
+ * The flow match model has no TCP or UDP port mask, so each block is 
+ * written as its individual ports, and classifier instances whose ranges
+ * would need too many flows are rejected.
  * @author readams
  */
 public class L4Classifier extends IpProtoClassifier {
+    /**
+     * The maximum number of port matches a single classifier instance
+     * may expand to.  A classifier instance that would exceed this is 
+     * rejected by {@link #validate(Map)} rather than filling the switch 
+     * tables.
+     */
+    public static final int MAX_PORT_MATCHES = 1024;
+
     public static final ClassifierDefinitionId ID = 
             new ClassifierDefinitionId("4250ab32-e8b8-445a-aebb-e1bd2cdd291f");
     private static final String SPORT = "sourceport";
@@ -101,32 +118,170 @@ public class L4Classifier extends IpProtoClassifier {
         else
             matches = super.updateMatch(matches, tcp);            
 
-        Long sport = null;
-        Long dport = null;
-        t = params.get(SPORT);
-        if (t != null && (t instanceof Long))
-            sport = (Long)t;
-        t = params.get(DPORT);
-        if (t != null && (t instanceof Long))
-            dport = (Long)t;
+        List<Integer> sports = getPorts(params, SPORT, SPORT_RANGE);
+        List<Integer> dports = getPorts(params, DPORT, DPORT_RANGE);
+        checkCount(sports, dports);
 
+        ArrayList<MatchBuilder> r = new ArrayList<>();
         for (MatchBuilder b : matches) {
-            if ("UDP".equals(type)) {
-                UdpMatchBuilder m = new UdpMatchBuilder();
-                if (sport != null)
-                    m.setUdpSourcePort(new PortNumber(sport.intValue()));
-                if (dport != null)
-                    m.setUdpDestinationPort(new PortNumber(dport.intValue()));
-                b.setLayer4Match(m.build());
-            } else {
-                TcpMatchBuilder m = new TcpMatchBuilder();
-                if (sport != null)
-                    m.setTcpSourcePort(new PortNumber(sport.intValue()));
-                if (dport != null)
-                    m.setTcpDestinationPort(new PortNumber(dport.intValue()));
-                b.setLayer4Match(m.build());
+            for (Integer sport : sports) {
+                for (Integer dport : dports) {
+                    MatchBuilder nb = new MatchBuilder(b.build());
+                    if ("UDP".equals(type)) {
+                        UdpMatchBuilder m = new UdpMatchBuilder();
+                        if (sport != null)
+                            m.setUdpSourcePort(new PortNumber(sport));
+                        if (dport != null)
+                            m.setUdpDestinationPort(new PortNumber(dport));
+                        nb.setLayer4Match(m.build());
+                    } else {
+                        TcpMatchBuilder m = new TcpMatchBuilder();
+                        if (sport != null)
+                            m.setTcpSourcePort(new PortNumber(sport));
+                        if (dport != null)
+                            m.setTcpDestinationPort(new PortNumber(dport));
+                        nb.setLayer4Match(m.build());
+                    }
+                    r.add(nb);
+                }
             }
         }
-        return matches;
+        return r;
+    }
+
+    @Override
+    public void validate(Map<String, Object> params) {
+        checkCount(getPorts(params, SPORT, SPORT_RANGE),
+                   getPorts(params, DPORT, DPORT_RANGE));
+    }
+
+    /**
+     * Check the number of matches the port lists expand to.  Only 
+     * constraining both ports produces a cross product.
+     */
+    private static void checkCount(List<Integer> sports,
+                                   List<Integer> dports) {
+        long count = (long)sports.size() * dports.size();
+        if (count > MAX_PORT_MATCHES)
+            throw new IllegalArgumentException("Port ranges expand to " + 
+                                               count + " matches per flow, " +
+                                               "more than the limit of " + 
+                                               MAX_PORT_MATCHES);
+    }
+
+    /**
+     * Get the ports to match for a port parameter and its range
+     * parameter.  An exact port takes precedence over a range.
+     * @return the list of ports.  A list containing only <code>null</code>
+     * means any port.
+     * @throws IllegalArgumentException if a port or range is invalid
+     */
+    private static List<Integer> getPorts(Map<String, Object> params,
+                                          String portParam, 
+                                          String rangeParam) {
+        Object t = params.get(portParam);
+        if (t != null && (t instanceof Long))
+            return Collections.singletonList(Integer.valueOf(checkPort((Long)t)));
+
+        t = params.get(rangeParam);
+        if (t == null || !(t instanceof RangeValue))
+            return Collections.<Integer>singletonList(null);
+        RangeValue range = (RangeValue)t;
+        if (range.getMin() == null || range.getMax() == null)
+            throw new IllegalArgumentException(rangeParam + " is incomplete");
+        int min = checkPort(range.getMin());
+        int max = checkPort(range.getMax());
+        if (min > max)
+            throw new IllegalArgumentException(rangeParam + " is empty");
+
+        List<PortMask> blocks = expandRange(min, max);
+        if (blocks.size() == 1 && blocks.get(0).getMask() == 0)
+            // the whole port space
+            return Collections.<Integer>singletonList(null);
+
+        List<Integer> ports = new ArrayList<>();
+        for (PortMask pm : blocks) {
+            // The flow match model has no port mask, so each block is
+            // written as its individual ports
+            for (int port = pm.getPort(); port <= pm.getMaxPort(); port++) {
+                ports.add(Integer.valueOf(port));
+            }
+        }
+        return ports;
+    }
+
+    private static int checkPort(Long port) {
+        if (port.longValue() < 0 || port.longValue() > 0xffff)
+            throw new IllegalArgumentException("Invalid port " + port);
+        return port.intValue();
+    }
+
+    /**
+     * Cover the port range [min, max] with the minimal set of
+     * prefix-masked port blocks
+     * @param min the first port in the range
+     * @param max the last port in the range
+     * @return the blocks in ascending order
+     */
+    public static List<PortMask> expandRange(int min, int max) {
+        List<PortMask> result = new ArrayList<>();
+        int start = min;
+        while (start <= max) {
+            // the largest aligned block starting here that fits
+            int size = (start == 0) ? 0x10000 : Integer.lowestOneBit(start);
+            while (start + size - 1 > max)
+                size >>= 1;
+            result.add(new PortMask(start, 0xffff & ~(size - 1)));
+            start += size;
+        }
+        return result;
+    }
+
+    /**
+     * A block of ports sharing a common prefix
+     */
+    @Immutable
+    public static final class PortMask {
+        private final int port;
+        private final int mask;
+
+        public PortMask(int port, int mask) {
+            super();
+            this.port = port;
+            this.mask = mask;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public int getMask() {
+            return mask;
+        }
+
+        /**
+         * @return the last port in the block
+         */
+        public int getMaxPort() {
+            return port | (~mask & 0xffff);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * port + mask;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof PortMask)) return false;
+            PortMask other = (PortMask) obj;
+            return port == other.port && mask == other.mask;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/0x%04x", port, mask);
+        }
     }
 }
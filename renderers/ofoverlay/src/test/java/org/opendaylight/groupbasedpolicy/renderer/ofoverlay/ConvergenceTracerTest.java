@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.ConvergenceTracer.Trace;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.GetConvergenceTracesInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.GetConvergenceTracesOutput;
+
+import static org.junit.Assert.*;
+
+public class ConvergenceTracerTest {
+
+    @Test
+    public void testSample() {
+        ConvergenceTracer tracer = new ConvergenceTracer();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(tracer.sample());
+        }
+
+        tracer.setSampleRate(4);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (tracer.sample()) sampled += 1;
+        }
+        assertEquals(25, sampled);
+    }
+
+    @Test
+    public void testTrace() throws Exception {
+        ConvergenceTracer tracer = new ConvergenceTracer();
+        Trace t = tracer.startTrace(ConvergenceTracer.TRIGGER_ENDPOINT,
+                                    "ep", System.currentTimeMillis() - 5);
+        // not recorded until the cycle is done
+        assertEquals(0, tracer.getTraces(10).size());
+        assertEquals(-1, t.getQueueMicros());
+
+        t.cycleStarted(2);
+        t.switchDone();
+        t.switchDone();
+        t.cycleDone(true);
+
+        List<Trace> traces = tracer.getTraces(10);
+        assertEquals(1, traces.size());
+        assertSame(t, traces.get(0));
+        assertTrue(t.isComplete());
+        assertEquals(2, t.getSwitches());
+        assertTrue(t.getRegistrationMillis().longValue() >= 5);
+        assertTrue(t.getQueueMicros() >= 0);
+        assertTrue(t.getFirstSwitchMicros() >= t.getQueueMicros());
+        assertTrue(t.getAllSwitchesMicros() >= t.getFirstSwitchMicros());
+    }
+
+    @Test
+    public void testRing() throws Exception {
+        ConvergenceTracer tracer = new ConvergenceTracer();
+        int total = ConvergenceTracer.RING_SIZE + 10;
+        for (int i = 0; i < total; i++) {
+            Trace t = tracer.startTrace(ConvergenceTracer.TRIGGER_POLICY,
+                                        "p" + i, null);
+            t.cycleStarted(0);
+            t.cycleDone(false);
+        }
+
+        List<Trace> traces = tracer.getTraces(Integer.MAX_VALUE);
+        assertEquals(ConvergenceTracer.RING_SIZE, traces.size());
+        // newest first
+        assertEquals("p" + (total - 1), traces.get(0).getSubject());
+        assertEquals("p10", traces.get(traces.size() - 1).getSubject());
+
+        GetConvergenceTracesOutput output = tracer
+            .getConvergenceTraces(new GetConvergenceTracesInputBuilder()
+                .setMaxTraces(3L)
+                .build())
+            .get().getResult();
+        assertEquals(3, output.getConvergenceTrace().size());
+        assertNull(output.getConvergenceTrace().get(0).getRegistrationLatency());
+        assertNull(output.getConvergenceTrace().get(0).getFirstSwitchLatency());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.groupbasedpolicy.endpoint.EpKey;
+import org.opendaylight.groupbasedpolicy.resolver.EgKey;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.IpAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.EndpointGroupId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.L2BridgeDomainId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.L3ContextId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.Name;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.TenantId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoint.fields.L3AddressBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayContext;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+
+import static org.junit.Assert.*;
+
+public class EndpointManagerTest {
+    MockSwitchManager switchManager;
+    EndpointManager endpointManager;
+
+    TenantId tid = new TenantId("1118c691-8520-47ad-80b8-4cf5e3fe3302");
+    EndpointGroupId eg = new EndpointGroupId("36136a2f-b7bd-4cbc-a6d4-d3c1de5bb3d2");
+    L2BridgeDomainId bd = new L2BridgeDomainId("c95182ba-7807-43f8-98f7-6c7c720b7639");
+    L3ContextId l3c = new L3ContextId("2cf51ee4-e996-467e-a277-2d380334a91d");
+    NodeId nodeId = new NodeId("openflow:1");
+    NodeId remoteNodeId = new NodeId("openflow:2");
+
+    @Before
+    public void setup() {
+        switchManager = new MockSwitchManager();
+        switchManager.addSwitch(nodeId, new NodeConnectorId("openflow:1:42"),
+                                Collections.<NodeConnectorId>emptySet(), null);
+        endpointManager = new EndpointManager(null, null, null, switchManager);
+    }
+
+    private Endpoint endpoint(NodeId node, String mac, String ip) {
+        OfOverlayContext ofc = new OfOverlayContextBuilder()
+            .setNodeId(node)
+            .setNodeConnectorId(new NodeConnectorId(node.getValue() + ":5"))
+            .build();
+        return new EndpointBuilder()
+            .setL2Context(bd)
+            .setTenant(tid)
+            .setEndpointGroup(eg)
+            .setMacAddress(new MacAddress(mac))
+            .setPortName(new Name("tap" + mac))
+            .setL3Address(Collections.singletonList(new L3AddressBuilder()
+                .setL3Context(l3c)
+                .setIpAddress(new IpAddress(new Ipv4Address(ip)))
+                .build()))
+            .addAugmentation(OfOverlayContext.class, ofc)
+            .build();
+    }
+
+    @Test
+    public void testLocality() {
+        Endpoint local = endpoint(nodeId, "00:00:00:00:00:01", "10.0.0.1");
+        Endpoint remote = endpoint(remoteNodeId, "00:00:00:00:00:02", "10.0.0.2");
+        endpointManager.updateEndpoint(null, local);
+        endpointManager.updateEndpoint(null, remote);
+
+        // local endpoints are kept in full
+        assertEquals(local, endpointManager
+                     .getEndpoint(new EpKey(bd, local.getMacAddress())));
+
+        // remote endpoints keep only what's needed to reach them
+        Endpoint summary = endpointManager
+                .getEndpoint(new EpKey(bd, remote.getMacAddress()));
+        assertNotNull(summary);
+        assertNull(summary.getPortName());
+        assertEquals(remote.getMacAddress(), summary.getMacAddress());
+        assertEquals(remote.getL3Address(), summary.getL3Address());
+        assertEquals(remote.getAugmentation(OfOverlayContext.class),
+                     summary.getAugmentation(OfOverlayContext.class));
+
+        EgKey egKey = new EgKey(tid, eg);
+        assertEquals(2, endpointManager.getEndpointsForGroup(egKey).size());
+        assertEquals(2, endpointManager.getNodesForGroup(egKey).size());
+        assertEquals(1, endpointManager.getEPsForNode(remoteNodeId, egKey).size());
+
+        endpointManager.updateEndpoint(remote, null);
+        assertNull(endpointManager
+                   .getEndpoint(new EpKey(bd, remote.getMacAddress())));
+        assertEquals(1, endpointManager.getEndpointsForGroup(egKey).size());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+
+import static org.junit.Assert.*;
+
+public class FlowModRateLimiterTest {
+    NodeId nodeId = new NodeId("openflow:1");
+
+    @Test
+    public void testUnlimited() throws Exception {
+        FlowModRateLimiter limiter = new FlowModRateLimiter();
+        limiter.acquire(nodeId, 1000000);
+        assertEquals(0, limiter.getThrottleTimeMillis());
+        assertEquals(0, limiter.getQueueDepth());
+        assertFalse(limiter.isCongested());
+    }
+
+    @Test
+    public void testSwitchLimit() throws Exception {
+        FlowModRateLimiter limiter = new FlowModRateLimiter(0, 1000, 0);
+        // the initial burst is free
+        limiter.acquire(nodeId, 1000);
+        assertEquals(0, limiter.getThrottleTimeMillis());
+
+        long start = System.nanoTime();
+        limiter.acquire(nodeId, 100);
+        assertTrue(System.nanoTime() - start >= 50000000L);
+        assertTrue(limiter.getThrottleTimeMillis() > 0);
+
+        // other switches have their own bucket
+        long throttled = limiter.getThrottleTimeMillis();
+        limiter.acquire(new NodeId("openflow:2"), 1000);
+        assertEquals(throttled, limiter.getThrottleTimeMillis());
+    }
+
+    @Test
+    public void testBatchSize() {
+        assertEquals(Integer.MAX_VALUE, 
+                     new FlowModRateLimiter().getBatchSize());
+        assertEquals(1000, new FlowModRateLimiter(0, 1000, 0).getBatchSize());
+        assertEquals(500, new FlowModRateLimiter(500, 1000, 0).getBatchSize());
+        assertEquals(200, new FlowModRateLimiter(500, 200, 0).getBatchSize());
+    }
+}
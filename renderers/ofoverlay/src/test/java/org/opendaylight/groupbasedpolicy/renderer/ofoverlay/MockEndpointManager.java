@@ -23,4 +23,8 @@ public class MockEndpointManager extends EndpointManager {
     public void addEndpoint(Endpoint ep) {
         updateEndpoint(null, ep);
     }
+
+    public void removeEndpoint(Endpoint ep) {
+        updateEndpoint(ep, null);
+    }
 }
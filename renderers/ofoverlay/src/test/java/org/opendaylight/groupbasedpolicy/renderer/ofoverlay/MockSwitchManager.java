@@ -35,4 +35,11 @@ public class MockSwitchManager extends SwitchManager {
             listener.switchReady(node);
         }
     }
+
+    public void removeSwitch(NodeId node) {
+        switches.remove(node);
+        for (SwitchListener listener : listeners) {
+            listener.switchRemoved(node);
+        }
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrdinalAllocatorTest {
+    OrdinalAllocator allocator;
+
+    @Before
+    public void setup() {
+        allocator = new OrdinalAllocator(null);
+    }
+
+    @Test
+    public void testStable() {
+        int a = allocator.getOrdinal("a");
+        int b = allocator.getOrdinal("b");
+        assertNotEquals(a, b);
+        assertTrue(a > 0);
+        assertTrue(b > 0);
+        assertEquals(a, allocator.getOrdinal("a"));
+        assertEquals(b, allocator.getOrdinal("b"));
+    }
+
+    @Test
+    public void testReclaim() {
+        allocator.beginCycle();
+        int a = allocator.getOrdinal("a");
+        int b = allocator.getOrdinal("b");
+        allocator.endCycle(true);
+
+        // "b" is not referenced in this cycle and is reclaimed
+        allocator.beginCycle();
+        assertEquals(a, allocator.getOrdinal("a"));
+        allocator.endCycle(true);
+
+        allocator.beginCycle();
+        assertEquals(a, allocator.getOrdinal("a"));
+        assertEquals(b, allocator.getOrdinal("c"));
+        allocator.endCycle(true);
+    }
+
+    @Test
+    public void testIncompleteCycle() {
+        allocator.beginCycle();
+        int a = allocator.getOrdinal("a");
+        int b = allocator.getOrdinal("b");
+        allocator.endCycle(true);
+
+        // nothing is reclaimed if the cycle did not complete
+        allocator.beginCycle();
+        assertEquals(a, allocator.getOrdinal("a"));
+        allocator.endCycle(false);
+
+        allocator.beginCycle();
+        assertEquals(b, allocator.getOrdinal("b"));
+        assertNotEquals(b, allocator.getOrdinal("c"));
+        allocator.endCycle(true);
+    }
+
+    @Test
+    public void testOverlappingCycles() {
+        allocator.beginCycle();
+        int a = allocator.getOrdinal("a");
+        int b = allocator.getOrdinal("b");
+        allocator.endCycle(true);
+
+        long first = allocator.beginCycle();
+        assertEquals(a, allocator.getOrdinal("a"));
+        // a new cycle starts before the first one finishes
+        long second = allocator.beginCycle();
+        int c = allocator.getOrdinal("c");
+        allocator.endCycle(first, true);
+
+        // "c" was allocated in the later cycle and is still live
+        allocator.beginCycle();
+        assertEquals(c, allocator.getOrdinal("c"));
+        assertEquals(b, allocator.getOrdinal("d"));
+        allocator.endCycle(second, false);
+    }
+}
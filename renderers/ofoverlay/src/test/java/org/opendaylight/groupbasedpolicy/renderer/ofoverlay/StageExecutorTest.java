@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.junit.Assert.*;
+
+public class StageExecutorTest {
+    StageExecutor executor;
+
+    @Before
+    public void setup() {
+        executor = new StageExecutor("test", 1);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testQueueMetrics() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        Future<String> name = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return Thread.currentThread().getName();
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {}
+        });
+
+        assertTrue(executor.getPeakQueueDepth() >= 2);
+        assertEquals(3, executor.getSubmittedTaskCount());
+
+        latch.countDown();
+        assertEquals("ofoverlay-test-1", name.get(1, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(3, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testSetThreads() {
+        executor.setThreads(4);
+        assertEquals(4, executor.getCorePoolSize());
+        executor.setThreads(0);
+        assertEquals(4, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+
+        // While the only thread is busy, queue up converged switches 
+        // before directly affected ones, as a later cycle would
+        final List<String> order = 
+                Collections.synchronizedList(new ArrayList<String>());
+        String[][] tasks = {{"converged1", "2"}, {"indirect1", "1"}, 
+                            {"converged2", "2"}, {"direct1", "0"}, 
+                            {"direct2", "0"}};
+        for (final String[] task : tasks) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(task[0]);
+                }
+            }, Integer.parseInt(task[1]));
+        }
+
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of("direct1", "direct2", "indirect1",
+                                      "converged1", "converged2"), 
+                     order);
+    }
+}
@@ -29,6 +29,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.ta
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCase;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.GoToTableCase;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.GroupId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoint.fields.L3AddressBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointBuilder;
@@ -57,6 +58,8 @@ public class DestinationMapperTest extends FlowTableTest {
     protected static final Logger LOG =
             LoggerFactory.getLogger(DestinationMapperTest.class);
 
+    GroupTable groupTable;
+
     NodeConnectorId remoteTunnelId =
             new NodeConnectorId(remoteNodeId.getValue() + ":101");
 
@@ -64,7 +67,8 @@ public class DestinationMapperTest extends FlowTableTest {
     @Before
     public void setup() throws Exception {
         initCtx();
-        table = new DestinationMapper(ctx);
+        groupTable = new GroupTable(ctx);
+        table = new DestinationMapper(ctx, groupTable);
         super.setup();
     }
 
@@ -79,6 +83,10 @@ public class DestinationMapperTest extends FlowTableTest {
     private void verifyDMap(Endpoint remoteEp,
                             Endpoint localEp) throws Exception {
 
+        int fdId = policyManager.getContextOrdinal(tid, fd);
+        groupTable.groupsCommitted(nodeId, 
+                                   Collections.singleton(new GroupId(Long.valueOf(fdId))));
+
         ReadWriteTransaction t = dosync(null);
         ArgumentCaptor<Flow> ac = ArgumentCaptor.forClass(Flow.class);
         verify(t, atLeastOnce()).put(eq(LogicalDatastoreType.CONFIGURATION),
@@ -230,11 +238,7 @@ public class DestinationMapperTest extends FlowTableTest {
             }
         }
 
-        //This assertion no longer holds true, due to GroupTable=null in TestFlow pipeline and
-        // DestinationMapper now checking for GroupTable entries. Flows will not be written.
-        // TODO: alagalah to resolve correct unit tests.
-        //        assertEquals(9, count);
-        assertEquals(8, count);
+        assertEquals(9, count);
 
         t = dosync(flowMap);
         verify(t, never()).put(any(LogicalDatastoreType.class),
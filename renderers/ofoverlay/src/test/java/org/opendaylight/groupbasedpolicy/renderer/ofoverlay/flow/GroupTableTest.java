@@ -13,6 +13,7 @@ import java.util.HashMap;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.GroupTable.BucketCtx;
 import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.GroupTable.GroupCtx;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.IpAddress;
@@ -27,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Objects;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 public class GroupTableTest extends OfTableTest {
     protected static final Logger LOG = 
@@ -45,8 +47,7 @@ public class GroupTableTest extends OfTableTest {
         table = new GroupTable(ctx);
     }
     
-    @Test
-    public void testGroup() throws Exception {
+    private void addEndpointsAndSwitches() throws Exception {
         Endpoint localEp = localEP().build();
         endpointManager.addEndpoint(localEp);
         Endpoint remoteEp = remoteEP(remoteNodeId).build();
@@ -64,6 +65,11 @@ public class GroupTableTest extends OfTableTest {
                                     .build());
 
         policyResolver.addTenant(baseTenant().build());
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        addEndpointsAndSwitches();
 
         HashMap<GroupId, GroupCtx> groupMap = new HashMap<>();
         table.sync(nodeId, ctx.policyResolver.getCurrentPolicy(), 
@@ -90,4 +96,28 @@ public class GroupTableTest extends OfTableTest {
         }
         assertEquals(2, count);
     }
+
+    @Test
+    public void testSyncGroupToStore() throws Exception {
+        addEndpointsAndSwitches();
+
+        HashMap<GroupId, GroupCtx> groupMap = new HashMap<>();
+        GroupCtx stale = new GroupCtx(new GroupId(Long.valueOf(1000)));
+        stale.exists = true;
+        groupMap.put(stale.groupId, stale);
+        GroupCtx empty = new GroupCtx(new GroupId(Long.valueOf(1001)));
+        empty.exists = true;
+        empty.visited = true;
+        groupMap.put(empty.groupId, empty);
+        table.sync(nodeId, ctx.policyResolver.getCurrentPolicy(), 
+                   null, groupMap);
+
+        WriteTransaction wt = mock(WriteTransaction.class);
+        // one merge for the new group, and one delete for the stale one
+        assertEquals(2, table.syncGroupToStore(wt, nodeId, groupMap));
+        int fdId = ctx.policyManager.getContextOrdinal(tid, fd);
+        assertTrue(groupMap.get(new GroupId(Long.valueOf(fdId))).changed);
+        assertFalse(stale.changed || stale.exists);
+        assertFalse(empty.changed);
+    }
 }
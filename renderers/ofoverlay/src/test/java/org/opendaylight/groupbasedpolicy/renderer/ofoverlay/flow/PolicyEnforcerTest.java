@@ -193,6 +193,38 @@ public class PolicyEnforcerTest extends FlowTableTest {
                                any(Flow.class), anyBoolean());
     }
 
+    @Test
+    public void testPeerCondGroupDedup() throws Exception {
+        Endpoint ep1 = localEP().build();
+        endpointManager.addEndpoint(ep1);
+        for (int i = 0; i < 20; i++) {
+            Endpoint remote = remoteEP(remoteNodeId)
+                .setMacAddress(new MacAddress(String.format("00:00:00:00:01:%02x", i)))
+                .setEndpointGroup(eg2)
+                .build();
+            endpointManager.addEndpoint(remote);
+        }
+        policyResolver.addTenant(baseTenant().build());
+
+        assertEquals(1, endpointManager.getCondsForGroup(new EgKey(tid, eg2)).size());
+        assertEquals(1, endpointManager.getCondsForNode(nodeId, new EgKey(tid, eg)).size());
+
+        ReadWriteTransaction t = dosync(null);
+        ArgumentCaptor<Flow> ac = ArgumentCaptor.forClass(Flow.class);
+        verify(t, atLeastOnce()).put(eq(LogicalDatastoreType.CONFIGURATION), 
+                                     Matchers.<InstanceIdentifier<Flow>>any(),
+                                     ac.capture(), anyBoolean());
+        int count = 0;
+        for (Flow f : ac.getAllValues()) {
+            if (f.getMatch() != null &&
+                f.getMatch().getEthernetMatch() != null)
+                count += 1;
+        }
+        // one flow per ethertype per direction, regardless of the number 
+        // of endpoints in the peer group
+        assertEquals(4, count);
+    }
+
     @Test
     public void testConditions() throws Exception {
         Condition cond1 = new ConditionBuilder()
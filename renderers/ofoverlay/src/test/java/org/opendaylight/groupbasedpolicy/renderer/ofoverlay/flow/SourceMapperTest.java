@@ -9,6 +9,7 @@
 package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
@@ -23,6 +24,7 @@ import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.flow.FlowTable.FlowC
 import org.opendaylight.groupbasedpolicy.resolver.ConditionGroup;
 import org.opendaylight.groupbasedpolicy.resolver.EgKey;
 import org.opendaylight.groupbasedpolicy.resolver.PolicyInfo;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCase;
@@ -123,5 +125,29 @@ public class SourceMapperTest extends FlowTableTest {
                                Matchers.<InstanceIdentifier<Flow>>any(), 
                                any(Flow.class), anyBoolean());
     }
+
+    @Test
+    public void testSharedInstructions() throws Exception {
+        endpointManager.addEndpoint(localEP().build());
+        endpointManager.addEndpoint(localEP()
+            .setMacAddress(new MacAddress("00:00:00:00:00:03"))
+            .build());
+        policyResolver.addTenant(baseTenant().build());
+
+        ReadWriteTransaction t = dosync(null);
+        ArgumentCaptor<Flow> ac = ArgumentCaptor.forClass(Flow.class);
+        verify(t, times(3)).put(eq(LogicalDatastoreType.CONFIGURATION), 
+                                Matchers.<InstanceIdentifier<Flow>>any(),
+                                ac.capture(), anyBoolean());
+
+        List<Flow> epFlows = new ArrayList<>();
+        for (Flow f : ac.getAllValues()) {
+            if (f.getMatch() != null) epFlows.add(f);
+        }
+        assertEquals(2, epFlows.size());
+        // endpoints with the same context share one instruction set
+        assertSame(epFlows.get(0).getInstructions(), 
+                   epFlows.get(1).getInstructions());
+    }
     
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sf;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sf.L4Classifier.PortMask;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.instance.parameter.value.RangeValueBuilder;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.junit.Assert.*;
+
+public class L4ClassifierTest {
+    L4Classifier classifier = new L4Classifier();
+
+    @Test
+    public void testExpandRange() {
+        assertEquals(ImmutableList.of(new PortMask(80, 0xffff)),
+                     L4Classifier.expandRange(80, 80));
+        assertEquals(ImmutableList.of(new PortMask(0, 0)),
+                     L4Classifier.expandRange(0, 0xffff));
+        assertEquals(ImmutableList.of(new PortMask(1024, 0xfc00),
+                                      new PortMask(2048, 0xf800),
+                                      new PortMask(4096, 0xf000),
+                                      new PortMask(8192, 0xe000),
+                                      new PortMask(16384, 0xc000),
+                                      new PortMask(32768, 0x8000)),
+                     L4Classifier.expandRange(1024, 0xffff));
+        assertEquals(ImmutableList.of(new PortMask(1, 0xffff),
+                                      new PortMask(2, 0xfffe),
+                                      new PortMask(4, 0xfffe),
+                                      new PortMask(6, 0xffff)),
+                     L4Classifier.expandRange(1, 6));
+    }
+
+    private List<MatchBuilder> match(Map<String, Object> params) {
+        params.put("type", "TCP");
+        return classifier.updateMatch(Collections.singletonList(new MatchBuilder()),
+                                      params);
+    }
+
+    @Test
+    public void testRanges() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("destport_range", new RangeValueBuilder()
+            .setMin(Long.valueOf(8080))
+            .setMax(Long.valueOf(8083))
+            .build());
+        // IPv4 and IPv6 for each port
+        assertEquals(8, match(params).size());
+
+        // exact port takes precedence over the range
+        params.put("destport", Long.valueOf(80));
+        assertEquals(2, match(params).size());
+
+        // cross product of source and destination ranges
+        params.remove("destport");
+        params.put("sourceport_range", new RangeValueBuilder()
+            .setMin(Long.valueOf(1000))
+            .setMax(Long.valueOf(1001))
+            .build());
+        assertEquals(16, match(params).size());
+    }
+
+    @Test
+    public void testLimits() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("destport_range", new RangeValueBuilder()
+            .setMin(Long.valueOf(0))
+            .setMax(Long.valueOf(0xffff))
+            .build());
+        // the whole port space needs no port match
+        classifier.validate(params);
+        assertEquals(2, match(params).size());
+
+        params.put("destport_range", new RangeValueBuilder()
+            .setMin(Long.valueOf(1024))
+            .setMax(Long.valueOf(0xffff))
+            .build());
+        assertRejected(params);
+
+        params.put("destport_range", new RangeValueBuilder()
+            .setMin(Long.valueOf(90))
+            .setMax(Long.valueOf(80))
+            .build());
+        assertRejected(params);
+    }
+
+    private void assertRejected(Map<String, Object> params) {
+        try {
+            classifier.validate(params);
+            fail("Expected the parameters to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            match(params);
+            fail("Expected the parameters to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
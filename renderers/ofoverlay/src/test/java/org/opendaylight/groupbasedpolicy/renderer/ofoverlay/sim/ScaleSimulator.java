@@ -0,0 +1,586 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.MockEndpointManager;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.MockSwitchManager;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.PolicyManager;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.StageExecutor;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sf.L4Classifier;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sf.SubjectFeatures;
+import org.opendaylight.groupbasedpolicy.resolver.MockPolicyResolver;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.IpAddress;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.IpPrefix;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.Ipv4Prefix;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ActionName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ClassifierName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ClauseName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ContractId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.EndpointGroupId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.L2BridgeDomainId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.L2FloodDomainId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.L3ContextId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.ParameterName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.SelectorName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.SubjectName;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.SubnetId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.common.rev140421.TenantId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoint.fields.L3AddressBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.Endpoint;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.endpoint.rev140421.endpoints.EndpointBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayContext;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.ofoverlay.rev140528.OfOverlayNodeConfigBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.has.action.refs.ActionRefBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.has.classifier.refs.ClassifierRefBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.subject.feature.instance.ParameterValueBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.Tenant;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.TenantBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.Contract;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.ContractBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.EndpointGroup;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.EndpointGroupBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.L2BridgeDomainBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.L2FloodDomainBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.L3ContextBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.Subnet;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.SubjectFeatureInstancesBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.SubnetBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.contract.ClauseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.contract.SubjectBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.contract.subject.RuleBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.endpoint.group.ConsumerNamedSelectorBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.endpoint.group.ProviderNamedSelectorBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.subject.feature.instances.ActionInstanceBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.subject.feature.instances.ClassifierInstance;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.policy.rev140421.tenants.tenant.subject.feature.instances.ClassifierInstanceBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Drive the real ofoverlay flow pipeline at scale to see how long it takes
+ * to converge.  The simulator models a number of switches, each with a
+ * number of endpoints spread across endpoint groups that are wired
+ * together with contracts, on top of the mock switch, endpoint and policy
+ * managers and an in-memory data store.
+ *
+ * Each scenario makes a change, then waits for the policy manager to go
+ * idle and reports the time taken, the flow and group mods written, the
+ * memory allocated and the peak heap.  Note that convergence time
+ * includes the policy manager's batching delay.
+ *
+ * Run with {@link #main(String[])} giving any of the {@link Scenario}
+ * parameters as <code>name=value</code>.
+ */
+public class ScaleSimulator implements AutoCloseable {
+    private static final long CONVERGENCE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    private static final long QUIET_PERIOD = 50;
+
+    /**
+     * The parameters of a simulation
+     */
+    public static class Scenario {
+        /**
+         * The number of switches
+         */
+        public int switches = 10;
+        /**
+         * The number of endpoints initially on each switch
+         */
+        public int endpointsPerSwitch = 20;
+        /**
+         * The number of endpoint groups
+         */
+        public int groups = 4;
+        /**
+         * The number of contracts between the endpoint groups
+         */
+        public int contracts = 2;
+        /**
+         * The number of endpoints each switch gains in a boot storm
+         */
+        public int bootStormEndpoints = 10;
+        /**
+         * The number of switches that flap
+         */
+        public int flapSwitches = 2;
+        /**
+         * The number of flow computation threads
+         */
+        public int threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * The outcome of one scenario
+     */
+    public static class Result {
+        private final String name;
+        private final long convergenceMillis;
+        private final long writes;
+        private final int flows;
+        private final int groups;
+        private final long allocatedBytes;
+        private final long peakHeapBytes;
+
+        public Result(String name, long convergenceMillis, long writes,
+                      int flows, int groups, long allocatedBytes,
+                      long peakHeapBytes) {
+            super();
+            this.name = name;
+            this.convergenceMillis = convergenceMillis;
+            this.writes = writes;
+            this.flows = flows;
+            this.groups = groups;
+            this.allocatedBytes = allocatedBytes;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+        /**
+         * @return the time until the flow pipeline went idle
+         */
+        public long getConvergenceMillis() {
+            return convergenceMillis;
+        }
+        /**
+         * @return the flow and group mods written to the data store
+         */
+        public long getWrites() {
+            return writes;
+        }
+        public double getWritesPerSecond() {
+            if (convergenceMillis <= 0) return writes;
+            return writes * 1000.0 / convergenceMillis;
+        }
+        /**
+         * @return the number of flows in the data store afterwards
+         */
+        public int getFlows() {
+            return flows;
+        }
+        /**
+         * @return the number of groups in the data store afterwards
+         */
+        public int getGroups() {
+            return groups;
+        }
+        /**
+         * @return bytes allocated by all threads, or -1 if not supported
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+        /**
+         * @return the peak heap usage
+         */
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s converged=%dms writes=%d (%.0f/s) " +
+                                 "flows=%d groups=%d allocated=%dKB " +
+                                 "peakHeap=%dKB",
+                                 name, convergenceMillis, writes,
+                                 getWritesPerSecond(), flows, groups,
+                                 allocatedBytes / 1024, peakHeapBytes / 1024);
+        }
+    }
+
+    private final Scenario scenario;
+
+    private final SimDataBroker dataStore = new SimDataBroker();
+    private final MockSwitchManager switchManager = new MockSwitchManager();
+    private final MockEndpointManager endpointManager = new MockEndpointManager();
+    private final MockPolicyResolver policyResolver = new MockPolicyResolver();
+    private final StageExecutor computeExecutor;
+    private final StageExecutor commitExecutor;
+    private final PolicyManager policyManager;
+
+    private final TenantId tid = new TenantId(uuid("tenant"));
+    private final L3ContextId l3c = new L3ContextId(uuid("l3c"));
+    private final L2BridgeDomainId bd = new L2BridgeDomainId(uuid("bd"));
+    private final L2FloodDomainId fd = new L2FloodDomainId(uuid("fd"));
+
+    private final List<NodeId> nodes = new ArrayList<>();
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private int portBase = 80;
+
+    public ScaleSimulator(Scenario scenario) {
+        super();
+        this.scenario = scenario;
+        computeExecutor = new StageExecutor("sim-compute", scenario.threads);
+        commitExecutor = new StageExecutor("sim-commit", scenario.threads * 2);
+        policyManager = new PolicyManager(dataStore.getDataBroker(),
+                                          policyResolver,
+                                          switchManager,
+                                          endpointManager,
+                                          null,
+                                          computeExecutor,
+                                          commitExecutor);
+    }
+
+    /**
+     * Bring up every switch with its initial endpoints and policy
+     */
+    public Result bootstrap() throws InterruptedException {
+        return measure("bootstrap", new Runnable() {
+            @Override
+            public void run() {
+                policyResolver.addTenant(tenant());
+                for (int s = 1; s <= scenario.switches; s++) {
+                    NodeId node = new NodeId("openflow:" + s);
+                    nodes.add(node);
+                    addSwitch(node, s);
+                    for (int i = 0; i < scenario.endpointsPerSwitch; i++) {
+                        addEndpoint(node);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Attach a burst of new endpoints to every switch at once, as when
+     * many VMs boot together
+     */
+    public Result bootStorm() throws InterruptedException {
+        return measure("boot-storm", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < scenario.bootStormEndpoints; i++) {
+                    for (NodeId node : nodes) {
+                        addEndpoint(node);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Change the classifiers in every contract
+     */
+    public Result policyEdit() throws InterruptedException {
+        return measure("policy-edit", new Runnable() {
+            @Override
+            public void run() {
+                portBase += 1000;
+                policyResolver.addTenant(tenant());
+            }
+        });
+    }
+
+    /**
+     * Disconnect some switches and bring them back
+     */
+    public Result switchFlap() throws InterruptedException {
+        final int count = Math.min(scenario.flapSwitches, nodes.size());
+        return measure("switch-flap", new Runnable() {
+            @Override
+            public void run() {
+                for (int s = 0; s < count; s++) {
+                    switchManager.removeSwitch(nodes.get(s));
+                }
+                for (int s = 0; s < count; s++) {
+                    addSwitch(nodes.get(s), s + 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the in-memory data store
+     */
+    public SimDataBroker getDataStore() {
+        return dataStore;
+    }
+
+    @Override
+    public void close() {
+        computeExecutor.shutdownNow();
+        commitExecutor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Scenario scenario = new Scenario();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) usage(arg);
+            try {
+                Scenario.class.getField(kv[0])
+                    .setInt(scenario, Integer.parseInt(kv[1]));
+            } catch (NoSuchFieldException | NumberFormatException e) {
+                usage(arg);
+            }
+        }
+        System.out.println(String.format("Simulating %d switches with %d " +
+                                         "endpoints each in %d groups " +
+                                         "with %d contracts",
+                                         scenario.switches,
+                                         scenario.endpointsPerSwitch,
+                                         scenario.groups,
+                                         scenario.contracts));
+        try (ScaleSimulator sim = new ScaleSimulator(scenario)) {
+            System.out.println(sim.bootstrap());
+            System.out.println(sim.bootStorm());
+            System.out.println(sim.policyEdit());
+            System.out.println(sim.switchFlap());
+        }
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private static void usage(String arg) {
+        StringBuilder sb = new StringBuilder();
+        for (java.lang.reflect.Field f : Scenario.class.getFields()) {
+            sb.append(" [").append(f.getName()).append("=N]");
+        }
+        System.err.println("Invalid argument " + arg);
+        System.err.println("Usage: ScaleSimulator" + sb);
+        System.exit(1);
+    }
+
+    private Result measure(String name, Runnable churn)
+            throws InterruptedException {
+        long writes = dataStore.getWriteCount();
+        long allocated = getAllocatedBytes();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        churn.run();
+        long end = awaitConvergence();
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peakHeap += pool.getPeakUsage().getUsed();
+        }
+        long allocatedAfter = getAllocatedBytes();
+        return new Result(name,
+                          TimeUnit.NANOSECONDS.toMillis(end - start),
+                          dataStore.getWriteCount() - writes,
+                          dataStore.getFlowCount(),
+                          dataStore.getGroupCount(),
+                          (allocated < 0 || allocatedAfter < 0) ?
+                              -1 : allocatedAfter - allocated,
+                          peakHeap);
+    }
+
+    private boolean isIdle() {
+        return computeExecutor.getActiveCount() == 0 &&
+               computeExecutor.getQueueDepth() == 0 &&
+               commitExecutor.getActiveCount() == 0 &&
+               commitExecutor.getQueueDepth() == 0;
+    }
+
+    /**
+     * Wait for the flow pipeline to stay idle for a while
+     * @return the time at which it went idle
+     */
+    private long awaitConvergence() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            if (isIdle()) {
+                long idle = System.nanoTime();
+                Thread.sleep(QUIET_PERIOD);
+                if (isIdle()) return idle;
+            } else {
+                Thread.sleep(5);
+            }
+        }
+        throw new IllegalStateException("Flow pipeline did not converge");
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean t =
+                (com.sun.management.ThreadMXBean)threads;
+        if (!t.isThreadAllocatedMemorySupported() ||
+            !t.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for (long bytes : t.getThreadAllocatedBytes(t.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static String uuid(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes()).toString();
+    }
+
+    private static EndpointGroupId egId(int g) {
+        return new EndpointGroupId(uuid("eg" + g));
+    }
+
+    private static ContractId contractId(int c) {
+        return new ContractId(uuid("contract" + c));
+    }
+
+    private static String groupPrefix(int g) {
+        return (10 + g / 256) + "." + (g % 256);
+    }
+
+    private void addSwitch(NodeId node, int s) {
+        switchManager.addSwitch(node,
+                                new NodeConnectorId(node.getValue() + ":1"),
+                                Collections.<NodeConnectorId>emptySet(),
+                                new OfOverlayNodeConfigBuilder()
+                                    .setTunnelIp(new IpAddress(new Ipv4Address("192.168." +
+                                                                               (s / 256) + "." +
+                                                                               (s % 256))))
+                                    .build());
+    }
+
+    private void addEndpoint(NodeId node) {
+        int n = endpoints.size();
+        int g = n % scenario.groups;
+        // host index within the group, skipping the router address
+        int h = n / scenario.groups + 2;
+        OfOverlayContext ofc = new OfOverlayContextBuilder()
+            .setNodeId(node)
+            .setNodeConnectorId(new NodeConnectorId(node.getValue() + ":" +
+                                                    (n + 2)))
+            .build();
+        Endpoint ep = new EndpointBuilder()
+            .setTenant(tid)
+            .setEndpointGroup(egId(g))
+            .setL2Context(bd)
+            .setMacAddress(new MacAddress(String.format("02:00:%02x:%02x:%02x:%02x",
+                                                        (n >> 24) & 0xff,
+                                                        (n >> 16) & 0xff,
+                                                        (n >> 8) & 0xff,
+                                                        n & 0xff)))
+            .setL3Address(ImmutableList.of(new L3AddressBuilder()
+                .setL3Context(l3c)
+                .setIpAddress(new IpAddress(new Ipv4Address(groupPrefix(g) + "." +
+                                                            (h / 256) + "." +
+                                                            (h % 256))))
+                .build()))
+            .addAugmentation(OfOverlayContext.class, ofc)
+            .build();
+        endpoints.add(ep);
+        endpointManager.addEndpoint(ep);
+    }
+
+    /**
+     * Build the tenant.  Endpoint group g consumes contract g and provides
+     * contract g+1, modulo the number of contracts, and each contract
+     * allows a different TCP port.
+     */
+    private Tenant tenant() {
+        List<EndpointGroup> egs = new ArrayList<>();
+        List<Subnet> subnets = new ArrayList<>();
+        for (int g = 0; g < scenario.groups; g++) {
+            SubnetId sub = new SubnetId(uuid("subnet" + g));
+            subnets.add(new SubnetBuilder()
+                .setId(sub)
+                .setParent(fd)
+                .setIpPrefix(new IpPrefix(new Ipv4Prefix(groupPrefix(g) + ".0.0/16")))
+                .setVirtualRouterIp(new IpAddress(new Ipv4Address(groupPrefix(g) + ".0.1")))
+                .build());
+            egs.add(new EndpointGroupBuilder()
+                .setId(egId(g))
+                .setNetworkDomain(sub)
+                .setConsumerNamedSelector(ImmutableList.of(new ConsumerNamedSelectorBuilder()
+                    .setName(new SelectorName("cns"))
+                    .setContract(ImmutableList.of(contractId(g % scenario.contracts)))
+                    .build()))
+                .setProviderNamedSelector(ImmutableList.of(new ProviderNamedSelectorBuilder()
+                    .setName(new SelectorName("pns"))
+                    .setContract(ImmutableList.of(contractId((g + 1) % scenario.contracts)))
+                    .build()))
+                .build());
+        }
+
+        List<Contract> contracts = new ArrayList<>();
+        List<ClassifierInstance> classifiers = new ArrayList<>();
+        for (int c = 0; c < scenario.contracts; c++) {
+            ClassifierName cname = new ClassifierName("tcp_" + c);
+            classifiers.add(new ClassifierInstanceBuilder()
+                .setName(cname)
+                .setClassifierDefinitionId(L4Classifier.ID)
+                .setParameterValue(ImmutableList.of(new ParameterValueBuilder()
+                        .setName(new ParameterName("destport"))
+                        .setIntValue(Long.valueOf(portBase + c))
+                        .build(),
+                    new ParameterValueBuilder()
+                        .setName(new ParameterName("type"))
+                        .setStringValue("TCP")
+                        .build()))
+                .build());
+            contracts.add(new ContractBuilder()
+                .setId(contractId(c))
+                .setSubject(ImmutableList.of(new SubjectBuilder()
+                    .setName(new SubjectName("s1"))
+                    .setRule(ImmutableList.of(new RuleBuilder()
+                        .setActionRef(ImmutableList.of(new ActionRefBuilder()
+                            .setName(new ActionName("allow"))
+                            .build()))
+                        .setClassifierRef(ImmutableList.of(new ClassifierRefBuilder()
+                            .setName(cname)
+                            .build()))
+                        .build()))
+                    .build()))
+                .setClause(ImmutableList.of(new ClauseBuilder()
+                    .setName(new ClauseName("clause"))
+                    .setSubjectRefs(ImmutableList.of(new SubjectName("s1")))
+                    .build()))
+                .build());
+        }
+
+        return new TenantBuilder()
+            .setId(tid)
+            .setEndpointGroup(egs)
+            .setL3Context(ImmutableList.of(new L3ContextBuilder()
+                .setId(l3c)
+                .build()))
+            .setL2BridgeDomain(ImmutableList.of(new L2BridgeDomainBuilder()
+                .setId(bd)
+                .setParent(l3c)
+                .build()))
+            .setL2FloodDomain(ImmutableList.of(new L2FloodDomainBuilder()
+                .setId(fd)
+                .setParent(bd)
+                .build()))
+            .setSubnet(subnets)
+            .setSubjectFeatureInstances(new SubjectFeatureInstancesBuilder()
+                .setClassifierInstance(classifiers)
+                .setActionInstance(ImmutableList.of(new ActionInstanceBuilder()
+                    .setName(new ActionName("allow"))
+                    .setActionDefinitionId(SubjectFeatures.ALLOW.getId())
+                    .build()))
+                .build())
+            .setContract(contracts)
+            .build();
+    }
+}
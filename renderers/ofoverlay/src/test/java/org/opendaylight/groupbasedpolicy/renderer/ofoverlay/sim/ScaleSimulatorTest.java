@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sim;
+
+import org.junit.Test;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sim.ScaleSimulator.Result;
+import org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sim.ScaleSimulator.Scenario;
+
+import static org.junit.Assert.*;
+
+public class ScaleSimulatorTest {
+
+    @Test
+    public void testSmallScenario() throws Exception {
+        Scenario scenario = new Scenario();
+        scenario.switches = 3;
+        scenario.endpointsPerSwitch = 2;
+        scenario.groups = 2;
+        scenario.contracts = 1;
+        scenario.bootStormEndpoints = 1;
+        scenario.flapSwitches = 1;
+        scenario.threads = 2;
+
+        try (ScaleSimulator sim = new ScaleSimulator(scenario)) {
+            Result r = sim.bootstrap();
+            assertTrue(r.getWrites() > 0);
+            int flows = r.getFlows();
+            assertTrue(flows > 0);
+            assertTrue(r.getGroups() > 0);
+
+            // new endpoints need new flows
+            r = sim.bootStorm();
+            assertTrue(r.getWrites() > 0);
+            assertTrue(r.getFlows() > flows);
+            flows = r.getFlows();
+
+            // a flap with no other changes ends where it started
+            r = sim.switchFlap();
+            assertEquals(flows, r.getFlows());
+
+            r = sim.policyEdit();
+            assertTrue(r.getWrites() > 0);
+        }
+    }
+}
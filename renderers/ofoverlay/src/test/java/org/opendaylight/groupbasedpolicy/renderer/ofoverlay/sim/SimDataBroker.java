@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2014 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.groupbasedpolicy.renderer.ofoverlay.sim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.binding.api.ReadWriteTransaction;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.group.BucketsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.group.buckets.Bucket;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.group.buckets.BucketKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.groups.Group;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.groups.GroupBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.group.types.rev131018.groups.GroupKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * An in-memory stand-in for the data broker that is just smart enough
+ * for the ofoverlay flow pipeline.  Flows and groups written to the
+ * configuration data store are kept per switch and assembled into tables
+ * and nodes when read back.  Anything else is stored by its exact path.
+ *
+ * Transactions are applied atomically when submitted and always succeed.
+ */
+public class SimDataBroker {
+    private final DataBroker dataBroker;
+
+    // The following are protected by the lock on this object
+    private final Map<NodeId, Map<Short, Map<FlowKey, Flow>>> flows =
+            new HashMap<>();
+    private final Map<NodeId, Map<GroupKey, Group>> groups = new HashMap<>();
+    private final Map<LogicalDatastoreType, Map<InstanceIdentifier<?>, DataObject>>
+        other = new HashMap<>();
+
+    private final AtomicLong submits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public SimDataBroker() {
+        super();
+        dataBroker = mock(DataBroker.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) 
+                    throws Throwable {
+                switch (invocation.getMethod().getName()) {
+                case "newReadOnlyTransaction":
+                    return mock(ReadOnlyTransaction.class, new SimTransaction());
+                case "newReadWriteTransaction":
+                    return mock(ReadWriteTransaction.class, new SimTransaction());
+                case "newWriteOnlyTransaction":
+                    return mock(WriteTransaction.class, new SimTransaction());
+                default:
+                    return RETURNS_DEFAULTS.answer(invocation);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the data broker backed by this store
+     */
+    public DataBroker getDataBroker() {
+        return dataBroker;
+    }
+
+    /**
+     * @return the number of transactions submitted
+     */
+    public long getSubmitCount() {
+        return submits.get();
+    }
+
+    /**
+     * @return the number of writes and deletes in submitted transactions
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * @return the number of flows currently in the store
+     */
+    public synchronized int getFlowCount() {
+        int count = 0;
+        for (Map<Short, Map<FlowKey, Flow>> tables : flows.values()) {
+            for (Map<FlowKey, Flow> table : tables.values()) {
+                count += table.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of flows currently in the store for the switch
+     */
+    public synchronized int getFlowCount(NodeId nodeId) {
+        int count = 0;
+        Map<Short, Map<FlowKey, Flow>> tables = flows.get(nodeId);
+        if (tables != null) {
+            for (Map<FlowKey, Flow> table : tables.values()) {
+                count += table.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of groups currently in the store
+     */
+    public synchronized int getGroupCount() {
+        int count = 0;
+        for (Map<GroupKey, Group> g : groups.values()) {
+            count += g.size();
+        }
+        return count;
+    }
+
+    // **************
+    // Implementation
+    // **************
+
+    private enum OpType {
+        PUT, MERGE, DELETE
+    }
+
+    private static class Op {
+        final OpType type;
+        final LogicalDatastoreType store;
+        final InstanceIdentifier<?> iid;
+        final DataObject data;
+
+        public Op(OpType type, LogicalDatastoreType store,
+                  InstanceIdentifier<?> iid, DataObject data) {
+            super();
+            this.type = type;
+            this.store = store;
+            this.iid = iid;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Answers every call made on a transaction mock
+     */
+    private class SimTransaction implements Answer<Object> {
+        private final List<Op> ops = new ArrayList<>();
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+            case "read":
+                return Futures.immediateCheckedFuture(read((LogicalDatastoreType)args[0],
+                                                           (InstanceIdentifier<?>)args[1]));
+            case "put":
+                ops.add(new Op(OpType.PUT, (LogicalDatastoreType)args[0],
+                               (InstanceIdentifier<?>)args[1],
+                               (DataObject)args[2]));
+                return null;
+            case "merge":
+                ops.add(new Op(OpType.MERGE, (LogicalDatastoreType)args[0],
+                               (InstanceIdentifier<?>)args[1],
+                               (DataObject)args[2]));
+                return null;
+            case "delete":
+                ops.add(new Op(OpType.DELETE, (LogicalDatastoreType)args[0],
+                               (InstanceIdentifier<?>)args[1], null));
+                return null;
+            case "submit":
+                apply(ops);
+                return Futures.immediateCheckedFuture(null);
+            case "cancel":
+                ops.clear();
+                return Boolean.TRUE;
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        }
+    }
+
+    private synchronized void apply(List<Op> ops) {
+        submits.incrementAndGet();
+        writes.addAndGet(ops.size());
+        for (Op op : ops) {
+            Class<?> target = op.iid.getTargetType();
+            if (op.store == LogicalDatastoreType.CONFIGURATION &&
+                Flow.class.equals(target)) {
+                applyFlow(op);
+            } else if (op.store == LogicalDatastoreType.CONFIGURATION &&
+                       Group.class.equals(target)) {
+                applyGroup(op);
+            } else if (op.store == LogicalDatastoreType.CONFIGURATION &&
+                       Bucket.class.equals(target)) {
+                applyBucket(op);
+            } else {
+                Map<InstanceIdentifier<?>, DataObject> m = other.get(op.store);
+                if (m == null) {
+                    m = new HashMap<>();
+                    other.put(op.store, m);
+                }
+                if (op.type == OpType.DELETE)
+                    m.remove(op.iid);
+                else
+                    m.put(op.iid, op.data);
+            }
+        }
+    }
+
+    private void applyFlow(Op op) {
+        NodeId nodeId = op.iid.firstKeyOf(Node.class, NodeKey.class).getId();
+        Short tableId = op.iid.firstKeyOf(Table.class, TableKey.class).getId();
+        FlowKey key = op.iid.firstKeyOf(Flow.class, FlowKey.class);
+        Map<Short, Map<FlowKey, Flow>> tables = flows.get(nodeId);
+        if (tables == null) {
+            tables = new HashMap<>();
+            flows.put(nodeId, tables);
+        }
+        Map<FlowKey, Flow> table = tables.get(tableId);
+        if (table == null) {
+            table = new LinkedHashMap<>();
+            tables.put(tableId, table);
+        }
+        if (op.type == OpType.DELETE)
+            table.remove(key);
+        else
+            table.put(key, (Flow)op.data);
+    }
+
+    private Map<GroupKey, Group> getGroups(InstanceIdentifier<?> iid) {
+        NodeId nodeId = iid.firstKeyOf(Node.class, NodeKey.class).getId();
+        Map<GroupKey, Group> g = groups.get(nodeId);
+        if (g == null) {
+            g = new LinkedHashMap<>();
+            groups.put(nodeId, g);
+        }
+        return g;
+    }
+
+    private void applyGroup(Op op) {
+        Map<GroupKey, Group> g = getGroups(op.iid);
+        GroupKey key = op.iid.firstKeyOf(Group.class, GroupKey.class);
+        Group old = g.get(key);
+        Group group = (Group)op.data;
+        if (op.type == OpType.DELETE) {
+            g.remove(key);
+        } else if (op.type == OpType.PUT || old == null) {
+            g.put(key, group);
+        } else {
+            // merge the buckets into the existing group
+            Map<BucketKey, Bucket> buckets = new LinkedHashMap<>();
+            for (Group src : new Group[] {old, group}) {
+                if (src.getBuckets() == null ||
+                    src.getBuckets().getBucket() == null) continue;
+                for (Bucket b : src.getBuckets().getBucket()) {
+                    buckets.put(new BucketKey(b.getBucketId()), b);
+                }
+            }
+            g.put(key, new GroupBuilder(group)
+                .setBuckets(new BucketsBuilder()
+                    .setBucket(new ArrayList<>(buckets.values()))
+                    .build())
+                .build());
+        }
+    }
+
+    private void applyBucket(Op op) {
+        if (op.type != OpType.DELETE) return;
+        Map<GroupKey, Group> g = getGroups(op.iid);
+        GroupKey key = op.iid.firstKeyOf(Group.class, GroupKey.class);
+        BucketKey bkey = op.iid.firstKeyOf(Bucket.class, BucketKey.class);
+        Group old = g.get(key);
+        if (old == null || old.getBuckets() == null ||
+            old.getBuckets().getBucket() == null) return;
+        List<Bucket> buckets = new ArrayList<>();
+        for (Bucket b : old.getBuckets().getBucket()) {
+            if (!bkey.getBucketId().equals(b.getBucketId()))
+                buckets.add(b);
+        }
+        g.put(key, new GroupBuilder(old)
+            .setBuckets(new BucketsBuilder().setBucket(buckets).build())
+            .build());
+    }
+
+    private synchronized Optional<DataObject> read(LogicalDatastoreType store,
+                                                   InstanceIdentifier<?> iid) {
+        Class<?> target = iid.getTargetType();
+        if (store == LogicalDatastoreType.CONFIGURATION &&
+            Table.class.equals(target)) {
+            NodeId nodeId = iid.firstKeyOf(Node.class, NodeKey.class).getId();
+            Short tableId = iid.firstKeyOf(Table.class, TableKey.class).getId();
+            Map<Short, Map<FlowKey, Flow>> tables = flows.get(nodeId);
+            if (tables == null || !tables.containsKey(tableId))
+                return Optional.absent();
+            return Optional.<DataObject>of(new TableBuilder()
+                .setId(tableId)
+                .setFlow(new ArrayList<>(tables.get(tableId).values()))
+                .build());
+        } else if (store == LogicalDatastoreType.CONFIGURATION &&
+                   Node.class.equals(target)) {
+            // the node exists once anything has been written under it
+            NodeId nodeId = iid.firstKeyOf(Node.class, NodeKey.class).getId();
+            if (!flows.containsKey(nodeId) && !groups.containsKey(nodeId))
+                return Optional.absent();
+            List<Group> g = new ArrayList<>();
+            if (groups.containsKey(nodeId))
+                g.addAll(groups.get(nodeId).values());
+            return Optional.<DataObject>of(new NodeBuilder()
+                .setId(nodeId)
+                .addAugmentation(FlowCapableNode.class,
+                                 new FlowCapableNodeBuilder()
+                                     .setGroup(g)
+                                     .build())
+                .build());
+        }
+        Map<InstanceIdentifier<?>, DataObject> m = other.get(store);
+        if (m == null) return Optional.absent();
+        return Optional.fromNullable(m.get(iid));
+    }
+}
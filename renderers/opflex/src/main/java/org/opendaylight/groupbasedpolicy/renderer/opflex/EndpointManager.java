@@ -18,6 +18,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.DataChangeListener;
@@ -83,6 +84,12 @@ public class EndpointManager
     protected static final Logger LOG =
             LoggerFactory.getLogger(EndpointManager.class);
 
+    /*
+     * How long to hold off sending updates to an agent whose connection
+     * isn't keeping up, in seconds
+     */
+    private static final long WRITABLE_WAIT = 5;
+
     private static final InstanceIdentifier<Endpoint> endpointsIid =
             InstanceIdentifier.builder(Endpoints.class)
                 .child(Endpoint.class).build();
@@ -347,6 +354,10 @@ public class EndpointManager
             paramList.add(params);
             request.setParams(paramList);
             try {
+                if (!agent.awaitWritable(WRITABLE_WAIT, TimeUnit.SECONDS)) {
+                    LOG.warn("Agent {} isn't keeping up with updates",
+                            agent.getIdentifier());
+                }
                 agent.sendRequest(request);
             }
             catch (Throwable t) {
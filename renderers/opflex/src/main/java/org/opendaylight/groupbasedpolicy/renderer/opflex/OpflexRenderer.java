@@ -53,6 +53,7 @@ public class OpflexRenderer implements AutoCloseable {
         MessageUtils.setMit(new AgentOvsMit());
 
         connectionService = new OpflexConnectionService(dataProvider, executor);
+        connectionService.getDispatchMetrics().registerMBeans();
 
         endpointManager = new EndpointManager(dataProvider, rpcRegistry,
                                               executor, connectionService, mitLibrary);
@@ -76,7 +77,10 @@ public class OpflexRenderer implements AutoCloseable {
         if (configReg != null) configReg.close();
         if (policyResolver != null) policyResolver.close();
         if (policyManager != null) policyManager.close();
-        if (connectionService != null) connectionService.close();
+        if (connectionService != null) {
+            connectionService.getDispatchMetrics().unregisterMBeans();
+            connectionService.close();
+        }
         if (endpointManager != null) endpointManager.close();
     }
 
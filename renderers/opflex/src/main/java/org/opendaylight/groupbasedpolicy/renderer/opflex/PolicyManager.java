@@ -17,6 +17,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcEndpoint;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcBroker;
@@ -66,6 +67,12 @@ public class PolicyManager
     private static final Logger LOG =
             LoggerFactory.getLogger(PolicyManager.class);
 
+    /*
+     * How long to hold off sending updates to an agent whose connection
+     * isn't keeping up, in seconds
+     */
+    private static final long WRITABLE_WAIT = 5;
+
     private static final String UKNOWN_POLICY = "unknown policy name";
 
     /*
@@ -238,6 +245,10 @@ public class PolicyManager
             paramsList.add(params);
             request.setParams(paramsList);
             try {
+                if (!agent.awaitWritable(WRITABLE_WAIT, TimeUnit.SECONDS)) {
+                    LOG.warn("Agent {} isn't keeping up with updates",
+                            agent.getIdentifier());
+                }
                 agent.sendRequest(request);
             }
             catch (Throwable t) {
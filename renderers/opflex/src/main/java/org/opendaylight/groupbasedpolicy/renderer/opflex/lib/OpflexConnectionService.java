@@ -9,13 +9,17 @@
  */
 package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
 
+import io.netty.channel.Channel;
+
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
@@ -29,11 +33,14 @@ import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcEndpoint;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcBroker;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcMessage;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcMessageMap;
+import org.opendaylight.groupbasedpolicy.jsonrpc.RpcSerialization;
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.IdentityRequest;
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.IdentityResponse;
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.OpflexError;
+import org.opendaylight.groupbasedpolicy.util.SerialExecutor;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.DiscoveryDefinitions;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.DiscoveryDefinitionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.Serialization;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.EndpointRegistry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.EndpointRegistryBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.Observer;
@@ -47,6 +54,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -60,6 +69,13 @@ import com.google.common.util.concurrent.ListenableFuture;
  * connection/discovery using dedicated servers. Servers and connections are
  * maintained in dedicated client and server maps.
  *
+ * As the {@link RpcBroker}, it hands each request to the callbacks
+ * subscribed to its method on a worker thread, so the Netty threads never
+ * run them. Requests from one agent are dispatched one at a time, in the
+ * order they arrived, while requests from different agents are dispatched
+ * in parallel. The subscriptions are kept in an immutable map that is
+ * replaced on each change, so dispatching takes no locks.
+ *
  * @author tbachman
  *
  */
@@ -85,7 +101,11 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
     String domain;
     private ConcurrentMap<String, OpflexAgent> opflexAgents = null;
     private ConcurrentMap<String, OpflexRpcServer> opflexServers = null;
-    private ConcurrentMap<String, List<RpcCallback>> brokerMap = null;
+    private volatile Map<String, List<RpcCallback>> brokerMap = null;
+    private final ConcurrentMap<JsonRpcEndpoint, SerialExecutor> dispatchQueues =
+            new ConcurrentHashMap<JsonRpcEndpoint, SerialExecutor>();
+    private volatile Executor dispatchExecutor;
+    private final RpcDispatchMetrics dispatchMetrics = new RpcDispatchMetrics();
 
     private DiscoveryDefinitions currentIdentities;
     private final DataBroker dataProvider;
@@ -98,6 +118,7 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
             ScheduledExecutorService executor) {
         this.dataProvider = salDataProvider;
         this.executor = executor;
+        this.dispatchExecutor = executor;
 
         this.opflexAgents = new ConcurrentHashMap<String, OpflexAgent>();
         this.opflexServers = new ConcurrentHashMap<String, OpflexRpcServer>();
@@ -160,7 +181,7 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
 
         if (identities != null) {
             Map<String, OpflexRpcServer> servers = new ConcurrentHashMap<String, OpflexRpcServer>();
-            List<String> addList = getPolicyRepositories(identities
+            Map<String, RpcSerialization> addList = getPolicyRepositories(identities
                     .getPolicyRepository());
             addServerList(servers, addList, Role.POLICY_REPOSITORY);
             addList = getEndpointRegistries(identities.getEndpointRegistry());
@@ -183,57 +204,91 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
 
     }
 
-    private List<String> getPolicyRepositories(
+    private Map<String, RpcSerialization> getPolicyRepositories(
             List<PolicyRepository> repositories) {
-        List<String> identityList = new ArrayList<String>();
+        Map<String, RpcSerialization> identityMap = new LinkedHashMap<String, RpcSerialization>();
         if (repositories == null)
             return null;
         for (PolicyRepository pr : repositories) {
             String identity = pr.getId() + ":" + pr.getPort().toString();
-            identityList.add(identity);
+            identityMap.put(identity, getSerialization(identity, pr.getSerializationType()));
         }
-        return identityList;
+        return identityMap;
     }
 
-    private List<String> getEndpointRegistries(List<EndpointRegistry> registries) {
-        List<String> identityList = new ArrayList<String>();
+    private Map<String, RpcSerialization> getEndpointRegistries(List<EndpointRegistry> registries) {
+        Map<String, RpcSerialization> identityMap = new LinkedHashMap<String, RpcSerialization>();
         if (registries == null)
             return null;
         for (EndpointRegistry epr : registries) {
             String identity = epr.getId() + ":" + epr.getPort().toString();
-            identityList.add(identity);
+            identityMap.put(identity, getSerialization(identity, epr.getSerializationType()));
         }
-        return identityList;
+        return identityMap;
     }
 
-    private List<String> getObservers(List<Observer> observers) {
-        List<String> identityList = new ArrayList<String>();
+    private Map<String, RpcSerialization> getObservers(List<Observer> observers) {
+        Map<String, RpcSerialization> identityMap = new LinkedHashMap<String, RpcSerialization>();
         if (observers == null)
             return null;
         for (Observer o : observers) {
             String identity = o.getId() + ":" + o.getPort().toString();
-            identityList.add(identity);
+            identityMap.put(identity, getSerialization(identity, o.getSerializationType()));
+        }
+        return identityMap;
+    }
+
+    /**
+     * Map the configured serialization onto the encodings the RPC servers
+     * support. The binary serialization is Smile; XML isn't supported, so
+     * those servers use JSON.
+     */
+    static RpcSerialization getSerialization(String identity, Serialization type) {
+        if (type == null) {
+            return RpcSerialization.JSON;
+        }
+        switch (type) {
+            case Binary:
+                return RpcSerialization.SMILE;
+            case Xml:
+                logger.warn("XML serialization isn't supported, using JSON for {}", identity);
+                return RpcSerialization.JSON;
+            default:
+                return RpcSerialization.JSON;
         }
-        return identityList;
+    }
+
+    /**
+     * Map a server's encoding back onto the configured serialization
+     */
+    static Serialization getSerializationType(RpcSerialization serialization) {
+        return (serialization == RpcSerialization.SMILE) ?
+                Serialization.Binary : Serialization.Json;
     }
 
     private void addServerList(Map<String, OpflexRpcServer> servers,
-            List<String> idList, Role role) {
+            Map<String, RpcSerialization> idList, Role role) {
         if (idList == null || idList.size() <= 0)
             return;
 
-        for (String id : idList) {
+        for (Map.Entry<String, RpcSerialization> entry : idList.entrySet()) {
+            String id = entry.getKey();
             List<Role> roles = new ArrayList<Role>();
             OpflexRpcServer srv = servers.get(id);
             if (srv != null) {
                 roles = srv.getRoles();
                 servers.remove(id);
+                if (srv.getSerialization() != entry.getValue()) {
+                    logger.warn("Conflicting serializations for {}, using {}",
+                            id, entry.getValue());
+                }
             }
 
             roles.add(role);
             srv = new OpflexRpcServer(domain, id, roles);
             srv.setConnectionService(this);
             srv.setRpcBroker(this);
+            srv.setSerialization(entry.getValue());
             servers.put(id, srv);
         }
 
@@ -277,7 +332,24 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
      * Start the {@link OpflexConnectionService}
      */
     public synchronized void createBroker() {
-        brokerMap = new ConcurrentHashMap<String, List<RpcCallback>>();
+        brokerMap = ImmutableMap.of();
+    }
+
+    /**
+     * Set the executor that runs the callbacks for published messages.
+     * It defaults to the executor the service was created with.
+     *
+     * @param dispatchExecutor The executor
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    /**
+     * @return The latency metrics for the dispatched requests
+     */
+    public RpcDispatchMetrics getDispatchMetrics() {
+        return dispatchMetrics;
     }
 
     public ConcurrentMap<String, OpflexAgent> getOpflexAgents() {
@@ -517,14 +589,17 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
             if (srv.getRoles().contains(Role.ENDPOINT_REGISTRY)) {
                 erb.setId(srv.getAddress());
                 erb.setPort(srv.getPort());
+                erb.setSerializationType(getSerializationType(srv.getSerialization()));
             }
             if (srv.getRoles().contains(Role.POLICY_REPOSITORY)) {
                 prb.setId(srv.getAddress());
                 prb.setPort(srv.getPort());
+                prb.setSerializationType(getSerializationType(srv.getSerialization()));
             }
             if (srv.getRoles().contains(Role.OBSERVER)) {
                 ob.setId(srv.getAddress());
                 ob.setPort(srv.getPort());
+                ob.setSerializationType(getSerializationType(srv.getSerialization()));
             }
 
         }
@@ -567,45 +642,111 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
     }
 
     /**
-     * Subscribe to a given {@link RpcMessage}. We synchronize this method to
-     * ensure consistency, and because subscriptions aren't a frequent event.
-     * The list is a copy on write list to ensure that anyone using a list has a
-     * usable copy
+     * Subscribe to a given {@link RpcMessage}. Subscriptions are rare, so
+     * they are synchronized with each other, and each one replaces the
+     * map with an updated copy. Publishers always see a consistent map
+     * without having to lock it.
      */
     @Override
     public synchronized void subscribe(RpcMessage message, RpcCallback callback) {
 
+        List<RpcCallback> cbList = brokerMap.get(message.getName());
+        if (cbList != null && cbList.contains(callback)) {
+            return;
+        }
+        ImmutableList.Builder<RpcCallback> cbBuilder = ImmutableList.builder();
+        if (cbList != null) {
+            cbBuilder.addAll(cbList);
+        }
+        cbBuilder.add(callback);
+
         /*
-         * Create a new list, replacing the old
+         * Create a new map, replacing the old
          */
-        List<RpcCallback> cbList = brokerMap.get(message.getName());
-        if (cbList == null) {
-            cbList = new CopyOnWriteArrayList<RpcCallback>();
-            cbList.add(callback);
-            brokerMap.put(message.getName(), cbList);
-        } else if (!cbList.contains(callback)) {
-            cbList.add(callback);
-            brokerMap.replace(message.getName(), cbList);
+        ImmutableMap.Builder<String, List<RpcCallback>> mapBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, List<RpcCallback>> e : brokerMap.entrySet()) {
+            if (!e.getKey().equals(message.getName())) {
+                mapBuilder.put(e);
+            }
         }
+        mapBuilder.put(message.getName(), cbBuilder.build());
+        brokerMap = mapBuilder.build();
     }
 
     /**
-     * Publish the {@link RpcMessage} to all subscribers.
+     * Publish the {@link RpcMessage} to all subscribers. The callbacks
+     * are run on the dispatch executor, after any earlier messages from
+     * the same endpoint.
      *
      */
     @Override
-    public synchronized void publish(JsonRpcEndpoint endpoint,
-            RpcMessage message) {
-        List<RpcCallback> cbList = brokerMap.get(message.getName());
+    public void publish(final JsonRpcEndpoint endpoint,
+            final RpcMessage message) {
+        final List<RpcCallback> cbList = brokerMap.get(message.getName());
         if (cbList == null) {
-            System.out
-                    .println("Unhandled Message name is " + message.getName());
+            logger.warn("Unhandled Message name is {}", message.getName());
+            return;
+        }
+
+        final RpcDispatchMetrics.MethodMetrics metrics =
+                dispatchMetrics.getMethod(message.getName());
+        final SerialExecutor queue = getDispatchQueue(endpoint);
+        if (queue == null) {
+            logger.debug("Dropping {} from {}, connection closed",
+                    message.getName(), endpoint.getIdentifier());
             return;
         }
+        final long queued = System.nanoTime();
+        try {
+            queue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long started = System.nanoTime();
+                    boolean failed = false;
+                    for (RpcCallback cb : cbList) {
+                        try {
+                            cb.callback(endpoint, message);
+                        } catch (Exception e) {
+                            failed = true;
+                            logger.error("Callback for {} failed", message.getName(), e);
+                        }
+                    }
+                    metrics.dispatched(started - queued,
+                            System.nanoTime() - started, failed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping {} from {}, shutting down",
+                    message.getName(), endpoint.getIdentifier());
+        }
+    }
 
-        for (RpcCallback cb : cbList) {
-            cb.callback(endpoint, message);
+    /**
+     * Get the queue for the messages from an endpoint, creating it if
+     * needed
+     *
+     * @return The queue, or null if the endpoint's channel is closed
+     */
+    private SerialExecutor getDispatchQueue(JsonRpcEndpoint endpoint) {
+        SerialExecutor queue = dispatchQueues.get(endpoint);
+        if (queue == null) {
+            if (isClosed(endpoint)) return null;
+            queue = new SerialExecutor(dispatchExecutor);
+            SerialExecutor old = dispatchQueues.putIfAbsent(endpoint, queue);
+            if (old != null) return old;
+            // the channel may have closed, and its queue been removed,
+            // before this one was added
+            if (isClosed(endpoint)) {
+                dispatchQueues.remove(endpoint, queue);
+                return null;
+            }
         }
+        return queue;
+    }
+
+    private static boolean isClosed(JsonRpcEndpoint endpoint) {
+        Channel channel = endpoint.getChannel();
+        return channel != null && !channel.isActive();
     }
 
     /**
@@ -728,6 +869,7 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
 
         logger.trace("Adding agent {}", endpoint.getIdentifier());
         addOpflexAgent(oc);
+        dispatchMetrics.addConnection(endpoint);
 
         /*
          * Send an Identity Request
@@ -765,6 +907,8 @@ public class OpflexConnectionService implements ConnectionService, RpcBroker,
     @Override
     public void channelClosed(JsonRpcEndpoint endpoint) throws Exception {
         logger.trace("Connection to Node : {} closed", endpoint.getIdentifier());
+        dispatchQueues.remove(endpoint);
+        dispatchMetrics.removeConnection(endpoint);
         OpflexAgent agent = getOpflexConnection(endpoint);
         if (agent != null) {
             removeOpflexAgent(agent);
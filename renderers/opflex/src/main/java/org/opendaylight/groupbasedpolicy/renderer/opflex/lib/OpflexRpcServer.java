@@ -13,7 +13,10 @@ import java.util.List;
 
 import org.opendaylight.groupbasedpolicy.jsonrpc.ConnectionService;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcBroker;
+import org.opendaylight.groupbasedpolicy.jsonrpc.RpcSerialization;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The {@link OpflexRpcServer}s respond to OpFlex clients
@@ -26,6 +29,8 @@ import org.opendaylight.groupbasedpolicy.jsonrpc.RpcServer;
  *
  */
 public class OpflexRpcServer {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(OpflexRpcServer.class);
 
     private String identity;
     private String domain;
@@ -33,6 +38,7 @@ public class OpflexRpcServer {
     private RpcServer rpcServer;
     private ConnectionService connectionService;
     private RpcBroker rpcBroker;
+    private RpcSerialization serialization = RpcSerialization.JSON;
 
     private String address;
     private int port;
@@ -93,18 +99,32 @@ public class OpflexRpcServer {
         return this.roles;
     }
 
+    public RpcSerialization getSerialization() {
+        return serialization;
+    }
+
+    /**
+     * Set the encoding used for the messages on the server's connections.
+     * This must be set before the server is started.
+     *
+     * @param serialization The encoding, or null for JSON
+     */
+    public void setSerialization(RpcSerialization serialization) {
+        this.serialization = (serialization == null) ?
+                RpcSerialization.JSON : serialization;
+    }
+
     /**
      * Start the {@link OpflexRpcServer}. This adds the supported
      * messages to the server, based on the roles that were
      * configured. It creates an {@link RpcServer} object,
      * passes it the context owned by the {@link OpflexRpcServer},
-     * and starts the server in its own thread.
-     *
-     * TODO: should use executor service instead?
+     * and starts the server on the shared RPC event loops.
      */
     public void start() {
         rpcServer.setConnectionService(connectionService);
         rpcServer.setRpcBroker(rpcBroker);
+        rpcServer.setSerialization(serialization);
 
         for ( Role role : roles ) {
             rpcServer.addMessageList(role.getMessages());
@@ -114,21 +134,11 @@ public class OpflexRpcServer {
          */
         rpcServer.addMessageList(Role.DISCOVERY.getMessages());
 
-        new Thread() {
-            private RpcServer server;
-
-            public Thread initializeServerParams(RpcServer srv) {
-                this.server = srv;
-                return this;
-            }
-            @Override
-            public void run() {
-                try {
-                    server.start();
-                } catch (Exception e) {
-                }
-            }
-        }.initializeServerParams(rpcServer).start();
+        try {
+            rpcServer.start();
+        } catch (Exception e) {
+            logger.error("Couldn't start OpFlex server " + identity, e);
+        }
 
     }
 
@@ -136,7 +146,8 @@ public class OpflexRpcServer {
      * Check to see if two servers are the same. They
      * need to be in the same Opflex Domain, have the same
      * identity, and the same roles, or they can be
-     * identical objects. Note that it purposely does
+     * identical objects. They must also use the same
+     * serialization. Note that it purposely does
      * not compare the RpcServer, as the purpose for
      * this method is to see if there is already a server
      * fulfilling this configuration (which is the reason
@@ -155,6 +166,8 @@ public class OpflexRpcServer {
         if (this.domain == null ||
                 !this.domain.equals(srv.getDomain()))
             return false;
+        if (this.serialization != srv.serialization)
+            return false;
         if (this.roles == null && srv.roles == null)
             return true;
         if (this.roles == null || srv.roles == null)
@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
+
+/**
+ * JMX view of the requests we have sent over one OpFlex agent connection
+ * and the state of their responses.
+ */
+public interface RpcConnectionMetricsMXBean {
+    public String getIdentifier();
+    public int getPendingRequests();
+    public long getCompletedRequests();
+    public long getTimedOutRequests();
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcEndpoint;
+import org.opendaylight.groupbasedpolicy.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency metrics for the RPC requests dispatched by the
+ * {@link OpflexConnectionService}, kept per method, along with the
+ * outstanding requests on each agent connection. The metrics for each
+ * method and each connection can be registered as JMX MBeans.
+ */
+public class RpcDispatchMetrics {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(RpcDispatchMetrics.class);
+
+    private static final String JMX_DOMAIN =
+            "org.opendaylight.groupbasedpolicy.renderer.opflex";
+
+    private final ConcurrentMap<String, MethodMetrics> methods =
+            new ConcurrentHashMap<String, MethodMetrics>();
+    private final ConcurrentMap<JsonRpcEndpoint, ConnectionMetrics> connections =
+            new ConcurrentHashMap<JsonRpcEndpoint, ConnectionMetrics>();
+    private final List<ObjectName> mbeans = new CopyOnWriteArrayList<ObjectName>();
+    private volatile boolean registered = false;
+
+    /**
+     * Get the metrics for the given method, creating them if needed
+     *
+     * @param method The name of the RPC method
+     * @return The {@link MethodMetrics}
+     */
+    public MethodMetrics getMethod(String method) {
+        MethodMetrics m = methods.get(method);
+        if (m == null) {
+            m = new MethodMetrics();
+            MethodMetrics old = methods.putIfAbsent(method, m);
+            if (old != null) return old;
+            if (registered) register("RpcMethod", method, m);
+        }
+        return m;
+    }
+
+    /**
+     * Start tracking the requests on a new agent connection
+     *
+     * @param endpoint The endpoint for the connection
+     */
+    public void addConnection(JsonRpcEndpoint endpoint) {
+        ConnectionMetrics c = new ConnectionMetrics(endpoint);
+        if (connections.putIfAbsent(endpoint, c) != null) return;
+        if (registered) register("RpcConnection", endpoint.getIdentifier(), c);
+    }
+
+    /**
+     * Stop tracking the requests on a closed agent connection
+     *
+     * @param endpoint The endpoint for the connection
+     */
+    public void removeConnection(JsonRpcEndpoint endpoint) {
+        ConnectionMetrics c = connections.remove(endpoint);
+        if (c == null) return;
+        ObjectName name = objectName("RpcConnection", endpoint.getIdentifier());
+        if (name == null || !mbeans.remove(name)) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            logger.debug("Could not unregister MBean {}", name, e);
+        }
+    }
+
+    /**
+     * Register an MBean for each method and each connection with the
+     * platform MBean server, including ones first seen later
+     */
+    public void registerMBeans() {
+        registered = true;
+        for (Entry<String, MethodMetrics> e : methods.entrySet()) {
+            register("RpcMethod", e.getKey(), e.getValue());
+        }
+        for (Entry<JsonRpcEndpoint, ConnectionMetrics> e : connections.entrySet()) {
+            register("RpcConnection", e.getKey().getIdentifier(), e.getValue());
+        }
+    }
+
+    /**
+     * Unregister any MBeans registered by {@link #registerMBeans()}
+     */
+    public void unregisterMBeans() {
+        registered = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mbeans) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                logger.debug("Could not unregister MBean {}", name, e);
+            }
+        }
+        mbeans.clear();
+    }
+
+    private ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" +
+                    ObjectName.quote(name));
+        } catch (Exception e) {
+            logger.warn("Invalid MBean name for {}", name, e);
+            return null;
+        }
+    }
+
+    private void register(String type, String key, Object mbean) {
+        ObjectName name = objectName(type, key);
+        if (name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+            if (!mbeans.contains(name)) mbeans.add(name);
+        } catch (Exception e) {
+            logger.warn("Could not register MBean for {}", key, e);
+        }
+    }
+
+    /**
+     * The outstanding requests on an agent connection
+     */
+    public static class ConnectionMetrics implements RpcConnectionMetricsMXBean {
+        private final JsonRpcEndpoint endpoint;
+
+        public ConnectionMetrics(JsonRpcEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return endpoint.getIdentifier();
+        }
+
+        @Override
+        public int getPendingRequests() {
+            return endpoint.getPendingRequests();
+        }
+
+        @Override
+        public long getCompletedRequests() {
+            return endpoint.getCompletedRequests();
+        }
+
+        @Override
+        public long getTimedOutRequests() {
+            return endpoint.getTimedOutRequests();
+        }
+    }
+
+    /**
+     * Metrics for an RPC method
+     */
+    public static class MethodMetrics implements RpcMethodMetricsMXBean {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final LatencyHistogram queueTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+        /**
+         * Record a dispatched request
+         *
+         * @param queueNanos The time the request waited to be dispatched
+         * @param serviceNanos The time the callbacks took
+         * @param failed Whether a callback threw an exception
+         */
+        public void dispatched(long queueNanos, long serviceNanos, boolean failed) {
+            requests.incrementAndGet();
+            if (failed) failures.incrementAndGet();
+            queueTime.record(queueNanos);
+            serviceTime.record(serviceNanos);
+        }
+
+        @Override
+        public long getRequests() {
+            return requests.get();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public long getQueueTimeMean() {
+            return queueTime.getMean();
+        }
+
+        @Override
+        public long getQueueTime99thPercentile() {
+            return queueTime.getPercentile(99);
+        }
+
+        @Override
+        public long getQueueTimeMax() {
+            return queueTime.getMax();
+        }
+
+        @Override
+        public long getServiceTimeMean() {
+            return serviceTime.getMean();
+        }
+
+        @Override
+        public long getServiceTime50thPercentile() {
+            return serviceTime.getPercentile(50);
+        }
+
+        @Override
+        public long getServiceTime99thPercentile() {
+            return serviceTime.getPercentile(99);
+        }
+
+        @Override
+        public long getServiceTimeMax() {
+            return serviceTime.getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + " failures=" + getFailures() +
+                   " queue: " + queueTime + " service: " + serviceTime;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
+
+/**
+ * JMX view of the dispatch metrics for one OpFlex RPC method. The queue
+ * time is how long a request waited behind earlier requests from the same
+ * agent; the service time is how long its callbacks took. Times are in
+ * microseconds.
+ */
+public interface RpcMethodMetricsMXBean {
+    public long getRequests();
+    public long getFailures();
+
+    public long getQueueTimeMean();
+    public long getQueueTime99thPercentile();
+    public long getQueueTimeMax();
+
+    public long getServiceTimeMean();
+    public long getServiceTime50thPercentile();
+    public long getServiceTime99thPercentile();
+    public long getServiceTimeMax();
+}
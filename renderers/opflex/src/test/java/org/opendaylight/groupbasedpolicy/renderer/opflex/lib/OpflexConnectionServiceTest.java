@@ -11,19 +11,26 @@
 package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
 
 import static io.netty.buffer.Unpooled.copiedBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.CharsetUtil;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -36,9 +43,11 @@ import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
 import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
 import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
 import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcDecoder;
+import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcEncoder;
 import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcEndpoint;
 import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcServiceBinderHandler;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcMessageMap;
+import org.opendaylight.groupbasedpolicy.jsonrpc.RpcSerialization;
 import org.opendaylight.groupbasedpolicy.jsonrpc.RpcServer;
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.OpflexAgent;
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.OpflexConnectionService;
@@ -48,6 +57,7 @@ import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.IdentityRe
 import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.OpflexMessageTest;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.DiscoveryDefinitions;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.DiscoveryDefinitionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.Serialization;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.EndpointRegistry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.EndpointRegistryBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.groupbasedpolicy.opflex.rev140528.discovery.definitions.Observer;
@@ -61,6 +71,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  *
@@ -245,6 +256,33 @@ public class OpflexConnectionServiceTest {
         assertTrue(opflexService.getOpflexAgents().size() <=0);
     }
 
+    @Test
+    public void testConnectionMetrics() throws Exception {
+        when(mockEp.getIdentifier()).thenReturn(TEST_EP_UUID);
+        when(mockEp.getContext()).thenReturn(mockOpflexServer);
+        when(mockEp.getPendingRequests()).thenReturn(3);
+        when(mockOpflexServer.getDomain()).
+            thenReturn(OpflexConnectionService.OPFLEX_DOMAIN);
+
+        opflexService = new OpflexConnectionService(mockDataBroker, executor);
+        opflexService.getDispatchMetrics().registerMBeans();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(
+                    "org.opendaylight.groupbasedpolicy.renderer.opflex:" +
+                    "type=RpcConnection,name=" + ObjectName.quote(TEST_EP_UUID));
+            opflexService.addConnection(mockEp);
+            assertTrue(server.isRegistered(name));
+            assertEquals(Integer.valueOf(3),
+                    server.getAttribute(name, "PendingRequests"));
+
+            opflexService.channelClosed(mockEp);
+            assertFalse(server.isRegistered(name));
+        } finally {
+            opflexService.getDispatchMetrics().unregisterMBeans();
+        }
+    }
+
     @Test
     public void testPublishSubscribeCallback() throws Exception {
 
@@ -257,13 +295,17 @@ public class OpflexConnectionServiceTest {
          * This is *far* from UT, but worthwhile for now
          */
         opflexService = new OpflexConnectionService(mockDataBroker, executor);
+        // dispatch on the calling thread, so the response has been written
+        // by the time writeInbound returns
+        opflexService.setDispatchExecutor(MoreExecutors.sameThreadExecutor());
 
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         decoder = new JsonRpcDecoder(1000);
         JsonRpcServiceBinderHandler binderHandler =
                 new JsonRpcServiceBinderHandler(null);
-        EmbeddedChannel channel = new EmbeddedChannel(decoder, binderHandler);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder,
+                new JsonRpcEncoder(objectMapper), binderHandler);
 
         RpcMessageMap messageMap = new RpcMessageMap();
         messageMap.addList(Role.DISCOVERY.getMessages());
@@ -278,10 +320,12 @@ public class OpflexConnectionServiceTest {
             thenReturn(OpflexConnectionService.OPFLEX_DOMAIN);
         opflexService.addConnection(ep);
         channel.writeInbound(copiedBuffer(opflexIdentityRequest, CharsetUtil.UTF_8));
+        channel.flush();
         Object result = channel.readOutbound();
         result = channel.readOutbound();
         assertTrue(result != null);
-        IdentityResponse resp = objectMapper.readValue(result.toString(), IdentityResponse.class);
+        IdentityResponse resp = objectMapper.readValue(
+                ((ByteBuf) result).toString(CharsetUtil.UTF_8), IdentityResponse.class);
         assertTrue(resp != null);
         assertTrue(resp.getResult().getMy_role()
                 .contains(Role.ENDPOINT_REGISTRY.toString()));
@@ -291,4 +335,20 @@ public class OpflexConnectionServiceTest {
                 .contains(Role.OBSERVER.toString()));
     }
 
+    @Test
+    public void testSerializationMapping() throws Exception {
+        assertTrue(OpflexConnectionService.getSerialization(TEST_IP, null) ==
+                RpcSerialization.JSON);
+        assertTrue(OpflexConnectionService.getSerialization(TEST_IP, Serialization.Xml) ==
+                RpcSerialization.JSON);
+        for (RpcSerialization serialization : RpcSerialization.values()) {
+            Serialization type =
+                    OpflexConnectionService.getSerializationType(serialization);
+            assertTrue(OpflexConnectionService.getSerialization(TEST_IP, type) ==
+                    serialization);
+        }
+        assertTrue(OpflexConnectionService.getSerializationType(RpcSerialization.SMILE) ==
+                Serialization.Binary);
+    }
+
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Cisco Systems, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.groupbasedpolicy.renderer.opflex.lib;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendaylight.groupbasedpolicy.jsonrpc.JsonRpcFrame;
+import org.opendaylight.groupbasedpolicy.jsonrpc.RpcSerialization;
+import org.opendaylight.groupbasedpolicy.renderer.opflex.lib.messages.EndpointDeclareRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Compare the cost of the {@link RpcSerialization}s for a typical OpFlex
+ * message: an endpoint declaration carrying a number of managed objects.
+ * For each serialization it reports the encoded size, and the time to
+ * encode a message and to frame and bind it again, through the same
+ * codecs the RPC servers use.
+ *
+ * Run with {@link #main(String[])} giving any of the parameters as
+ * <code>name=value</code>: <code>objects</code> (managed objects per
+ * message), <code>messages</code> (per measured round) and
+ * <code>rounds</code>. The first rounds warm up the JIT and are not
+ * reported.
+ */
+public class SerializationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private int objects = 20;
+    private int messages = 20000;
+    private int rounds = 5;
+
+    /**
+     * The outcome for one serialization
+     */
+    public static class Result {
+        private final RpcSerialization serialization;
+        private final int bytes;
+        private final double encodeNanos;
+        private final double decodeNanos;
+
+        Result(RpcSerialization serialization, int bytes,
+                double encodeNanos, double decodeNanos) {
+            this.serialization = serialization;
+            this.bytes = bytes;
+            this.encodeNanos = encodeNanos;
+            this.decodeNanos = decodeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s %8d bytes/msg %10.0f ns encode %10.0f ns decode",
+                    serialization, bytes, encodeNanos, decodeNanos);
+        }
+    }
+
+    /**
+     * Create an endpoint declaration with the given number of managed
+     * objects, each with a few properties
+     */
+    static EndpointDeclareRequest createMessage(int objects) throws Exception {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\":\"42\",\"method\":\"endpoint_declare\",")
+            .append("\"params\":[{\"prr\":100,\"endpoint\":[");
+        for (int i = 0; i < objects; i++) {
+            if (i > 0) json.append(",");
+            json.append("{\"subject\":\"EprL2Ep\",")
+                .append("\"uri\":\"/EprL2Universe/EprL2Ep/5f3a2b8c-0000-4000-8000-")
+                .append(String.format("%012d", i)).append("\",")
+                .append("\"properties\":[")
+                .append("{\"name\":\"mac\",\"data\":\"00:11:22:33:44:")
+                .append(String.format("%02x", i % 256)).append("\"},")
+                .append("{\"name\":\"context\",\"data\":\"default-bd\"},")
+                .append("{\"name\":\"group\",\"data\":\"/PolicyUniverse/PolicySpace/tenant-red/GbpEpGroup/web\"},")
+                .append("{\"name\":\"interfaceName\",\"data\":\"veth").append(i).append("\"}],")
+                .append("\"parent_subject\":\"EprL2Universe\",")
+                .append("\"parent_uri\":\"/EprL2Universe\",")
+                .append("\"parent_relation\":\"EprL2Ep\",")
+                .append("\"children\":[]}");
+        }
+        json.append("]}]}");
+        return RpcSerialization.JSON.createObjectMapper()
+                .readValue(json.toString(), EndpointDeclareRequest.class);
+    }
+
+    /**
+     * Measure one serialization
+     */
+    public Result run(RpcSerialization serialization) throws Exception {
+        ObjectMapper objectMapper = serialization.createObjectMapper();
+        ObjectReader reader = objectMapper.reader(EndpointDeclareRequest.class);
+        EmbeddedChannel encoder =
+                new EmbeddedChannel(serialization.createEncoder(objectMapper));
+        EmbeddedChannel decoder =
+                new EmbeddedChannel(serialization.createDecoder(objectMapper, Integer.MAX_VALUE));
+        EndpointDeclareRequest message = createMessage(objects);
+
+        int bytes = 0;
+        long encodeTotal = 0;
+        long decodeTotal = 0;
+        List<ByteBuf> encoded = new ArrayList<ByteBuf>(messages);
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                encoder.writeOutbound(message);
+                encoded.add((ByteBuf) encoder.readOutbound());
+            }
+            long encodeTime = System.nanoTime() - start;
+            bytes = encoded.get(0).readableBytes();
+
+            start = System.nanoTime();
+            for (ByteBuf buf : encoded) {
+                decoder.writeInbound(buf);
+                JsonRpcFrame frame = (JsonRpcFrame) decoder.readInbound();
+                EndpointDeclareRequest decoded = frame.readValue(reader);
+                if (decoded.getParams().get(0).getEndpoint().size() != objects) {
+                    throw new IllegalStateException("Message wasn't decoded intact");
+                }
+                frame.release();
+            }
+            long decodeTime = System.nanoTime() - start;
+            encoded.clear();
+
+            if (round >= WARMUP_ROUNDS) {
+                encodeTotal += encodeTime;
+                decodeTotal += decodeTime;
+            }
+        }
+        encoder.finish();
+        decoder.finish();
+
+        long count = (long) messages * rounds;
+        return new Result(serialization, bytes,
+                (double) encodeTotal / count, (double) decodeTotal / count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SerializationBenchmark benchmark = new SerializationBenchmark();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) usage(arg);
+            try {
+                int value = Integer.parseInt(kv[1]);
+                switch (kv[0]) {
+                    case "objects":
+                        benchmark.objects = value;
+                        break;
+                    case "messages":
+                        benchmark.messages = value;
+                        break;
+                    case "rounds":
+                        benchmark.rounds = value;
+                        break;
+                    default:
+                        usage(arg);
+                }
+            } catch (NumberFormatException e) {
+                usage(arg);
+            }
+        }
+        System.out.println(String.format("Encoding %d messages with %d " +
+                                         "managed objects each, %d rounds",
+                                         benchmark.messages, benchmark.objects,
+                                         benchmark.rounds));
+        for (RpcSerialization serialization : RpcSerialization.values()) {
+            System.out.println(benchmark.run(serialization));
+        }
+    }
+
+    private static void usage(String arg) {
+        System.err.println("Bad argument " + arg +
+                           "; expected objects=, messages= or rounds=");
+        System.exit(1);
+    }
+}